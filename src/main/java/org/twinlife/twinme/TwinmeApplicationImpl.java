@@ -27,6 +27,7 @@ import org.twinlife.twinlife.job.AndroidJobServiceImpl;
 import org.twinlife.twinlife.job.SchedulerJobServiceImpl;
 import org.twinlife.twinlife.util.Logger;
 import org.twinlife.twinme.ui.TwinmeApplication;
+import org.twinlife.twinme.utils.BitmapCache;
 
 import java.io.File;
 import java.io.IOException;
@@ -113,6 +114,18 @@ public abstract class TwinmeApplicationImpl extends Application implements Twinm
         mTwinlifeServiceConnectionImpl.start();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "onTrimMemory level=" + level);
+        }
+
+        super.onTrimMemory(level);
+
+        // The bitmap cache keeps strong references on the images: release them under memory pressure.
+        BitmapCache.getInstance(this).trimMemory(level);
+    }
+
     //
     // Implement TwinmeApplication Methods
     //
@@ -0,0 +1,160 @@
+/*
+ *  Copyright (c) 2025 twinlife SA.
+ *  SPDX-License-Identifier: AGPL-3.0-only
+ *
+ *  Contributors:
+ *   Stephane Carrez (Stephane.Carrez@twin.life)
+ */
+
+package org.twinlife.twinme.calls;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Avatars exchanged with the ParticipantInfoIQ.  Our identity avatar is encoded once per call
+ * (see CallState.getIdentityAvatarData()) and the avatars received from the peers are kept decoded
+ * and indexed by the SHA-256 of their encoded content: a peer which sends the same avatar
+ * in another call or through another participant is not decoded again.
+ */
+final class AvatarCache {
+    private static final String LOG_TAG = "AvatarCache";
+    private static final boolean DEBUG = false;
+
+    // Byte budget for the decoded avatars.
+    private static final int MAX_CACHE_SIZE = 4 * 1024 * 1024;
+
+    private static final LruCache<String, Bitmap> sAvatars = new LruCache<String, Bitmap>(MAX_CACHE_SIZE) {
+        @Override
+        protected int sizeOf(@NonNull String hash, @NonNull Bitmap bitmap) {
+
+            return bitmap.getByteCount();
+        }
+    };
+
+    /**
+     * An avatar with its encoded content and the hash of that content.
+     */
+    static final class EncodedAvatar {
+        @NonNull
+        final Bitmap bitmap;
+        @NonNull
+        final byte[] data;
+        @NonNull
+        final String hash;
+
+        EncodedAvatar(@NonNull Bitmap bitmap, @NonNull byte[] data, @NonNull String hash) {
+
+            this.bitmap = bitmap;
+            this.data = data;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * Encode the avatar in PNG if it has an alpha channel or in JPEG and compute its hash.
+     * The avatar is also put in the cache since we could receive it from a peer.
+     *
+     * @param avatar the avatar to encode.
+     * @return the encoded avatar or null if the hash cannot be computed.
+     */
+    @Nullable
+    static EncodedAvatar encode(@NonNull Bitmap avatar) {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "encode avatar=" + avatar);
+        }
+
+        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        if (avatar.hasAlpha()) {
+            avatar.compress(Bitmap.CompressFormat.PNG, 0, byteArrayOutputStream);
+        } else {
+            avatar.compress(Bitmap.CompressFormat.JPEG, 80, byteArrayOutputStream);
+        }
+        final byte[] data = byteArrayOutputStream.toByteArray();
+        final String hash = hash(data);
+        if (hash == null) {
+            return null;
+        }
+        sAvatars.put(hash, avatar);
+        return new EncodedAvatar(avatar, data, hash);
+    }
+
+    /**
+     * Get the decoded avatar associated with the hash.
+     *
+     * @param hash the avatar hash.
+     * @return the avatar or null if it is not in the cache.
+     */
+    @Nullable
+    static Bitmap get(@NonNull String hash) {
+
+        return sAvatars.get(hash);
+    }
+
+    /**
+     * Decode the avatar unless we already have it in the cache.  The cache key is always the hash
+     * of the received content: when the peer gives a hash that does not match, the avatar is dropped
+     * so that a peer cannot replace the avatar that another participant registered with that hash.
+     *
+     * @param data the encoded avatar.
+     * @param expectedHash the avatar hash sent by the peer when it is known.
+     * @return the avatar or null if it cannot be decoded or does not match its hash.
+     */
+    @Nullable
+    static Bitmap decode(@NonNull byte[] data, @Nullable String expectedHash) {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "decode expectedHash=" + expectedHash);
+        }
+
+        final String hash = hash(data);
+        if (hash != null && expectedHash != null && !hash.equals(expectedHash)) {
+            Log.w(LOG_TAG, "Avatar dropped: its content does not match the hash " + expectedHash);
+            return null;
+        }
+        if (hash != null) {
+            final Bitmap avatar = sAvatars.get(hash);
+            if (avatar != null) {
+                return avatar;
+            }
+        }
+
+        final Bitmap avatar = BitmapFactory.decodeByteArray(data, 0, data.length);
+        if (avatar != null && hash != null) {
+            sAvatars.put(hash, avatar);
+        }
+        return avatar;
+    }
+
+    /**
+     * Compute the hash of the encoded avatar.
+     *
+     * @param data the encoded avatar.
+     * @return the hexadecimal SHA-256 or null.
+     */
+    @Nullable
+    private static String hash(@NonNull byte[] data) {
+
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            final StringBuilder result = new StringBuilder(2 * digest.length);
+            for (byte b : digest) {
+                result.append(Character.forDigit((b >> 4) & 0x0F, 16));
+                result.append(Character.forDigit(b & 0x0F, 16));
+            }
+            return result.toString();
+
+        } catch (NoSuchAlgorithmException exception) {
+            Log.e(LOG_TAG, "Could not get MessageDigest instance", exception);
+            return null;
+        }
+    }
+}
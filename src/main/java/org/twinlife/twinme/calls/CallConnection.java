@@ -15,6 +15,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.os.Handler;
 import android.os.SystemClock;
 import android.util.Log;
 
@@ -44,6 +45,7 @@ import org.twinlife.twinme.calls.keycheck.WordCheckIQ;
 import org.twinlife.twinme.calls.keycheck.WordCheckResult;
 import org.twinlife.twinme.models.CallReceiver;
 import org.twinlife.twinme.models.Originator;
+import org.twinlife.twinme.calls.streaming.StreamConnection;
 import org.twinlife.twinme.calls.streaming.StreamPlayer;
 import org.twinlife.twinme.calls.streaming.StreamPlayerImpl;
 import org.twinlife.twinme.calls.streaming.StreamerImpl;
@@ -61,7 +63,6 @@ import org.webrtc.RtpTransceiver.RtpTransceiverDirection;
 import org.webrtc.SurfaceViewRenderer;
 import org.webrtc.VideoTrack;
 
-import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -69,12 +70,13 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import static org.twinlife.twinme.calls.streaming.StreamingControlIQ.IQ_STREAMING_CONTROL_SERIALIZER;
 import static org.twinlife.twinme.calls.streaming.StreamingDataIQ.IQ_STREAMING_DATA_SERIALIZER;
+import static org.twinlife.twinme.calls.streaming.StreamingDataIQ.IQ_STREAMING_PUSH_SERIALIZER;
 import static org.twinlife.twinme.calls.streaming.StreamingInfoIQ.IQ_STREAMING_INFO_SERIALIZER;
 import static org.twinlife.twinme.calls.streaming.StreamingRequestIQ.IQ_STREAMING_REQUEST_SERIALIZER;
 
@@ -88,19 +90,23 @@ import static org.twinlife.twinme.calls.streaming.StreamingRequestIQ.IQ_STREAMIN
  * Calls are associated with a callId which allow to accept/hold/terminate the call.
  * The callId can be associated with one or several peer connection when the call is a meshed P2P group call.
  */
-public final class CallConnection extends ConversationHandler {
+public final class CallConnection extends ConversationHandler implements StreamConnection {
     private static final String LOG_TAG = "CallConnection";
     private static final boolean DEBUG = false;
 
     private static final String DATA_VERSION = "CallService:1.5.0";
     private static final String CAP_STREAM = "stream";
+    private static final String CAP_STREAM_V2 = "stream-2"; // Streaming with variable block size.
+    private static final String CAP_STREAM_V3 = "stream-3"; // Streaming with blocks pushed by the streamer.
     private static final String CAP_TRANSFER = "transfer";
     private static final String CAP_MESSAGE = "message";
     private static final String CAP_GEOLOCATION = "geoloc";
     private static final String CAP_ZOOMABLE = "zoomable";  // Remote control of camera zoom is allowed.
     private static final String CAP_ZOOM_ASK = "zoom-ask";  // Allowed only after user confirmation.
+    private static final String CAP_AVATAR_HASH = "avatar-hash"; // ParticipantInfoIQ V2 with the avatar hash.
 
     private static final UUID PARTICIPANT_INFO_SCHEMA_ID = UUID.fromString("a8aa7e0d-c495-4565-89bb-0c5462b54dd0");
+    private static final UUID PARTICIPANT_AVATAR_REQUEST_SCHEMA_ID = UUID.fromString("3c6e1f92-5b7d-4a08-b2e4-9d1f7a6c0e53");
     private static final UUID PARTICIPANT_TRANSFER_SCHEMA_ID = UUID.fromString("800fd629-83c4-4d42-8910-1b4256d19eb8");
     private static final UUID TRANSFER_DONE_SCHEMA_ID = UUID.fromString("641bf1f6-ebbf-4501-9151-76abc1b9adad");
     private static final UUID PREPARE_TRANSFER_SCHEMA_ID = UUID.fromString("9eaa4ad1-3404-4bcc-875d-dc75c748e188");
@@ -116,6 +122,8 @@ public final class CallConnection extends ConversationHandler {
     private static final UUID CAMERA_RESPONSE_SCHEMA_ID = UUID.fromString("c9ba7001-c32d-4545-bdfb-e80ff0db21aa");
 
     private static final BinaryPacketIQ.BinaryPacketIQSerializer IQ_PARTICIPANT_INFO_SERIALIZER = ParticipantInfoIQ.createSerializer(PARTICIPANT_INFO_SCHEMA_ID, 1);
+    private static final BinaryPacketIQ.BinaryPacketIQSerializer IQ_PARTICIPANT_INFO_SERIALIZER_2 = ParticipantInfoIQ.createSerializer(PARTICIPANT_INFO_SCHEMA_ID, 2);
+    private static final BinaryPacketIQ.BinaryPacketIQSerializer IQ_PARTICIPANT_AVATAR_REQUEST_SERIALIZER = BinaryPacketIQ.createDefaultSerializer(PARTICIPANT_AVATAR_REQUEST_SCHEMA_ID, 1);
 
     private static final BinaryPacketIQ.BinaryPacketIQSerializer IQ_PARTICIPANT_TRANSFER_SERIALIZER = ParticipantTransferIQ.createSerializer(PARTICIPANT_TRANSFER_SCHEMA_ID, 1);
 
@@ -139,6 +147,55 @@ public final class CallConnection extends ConversationHandler {
     private static final BinaryPacketIQ.BinaryPacketIQSerializer IQ_CAMERA_CONTROL_SERIALIZER = CameraControlIQ.createSerializer(CAMERA_CONTROL_SCHEMA_ID, 1);
     private static final BinaryPacketIQ.BinaryPacketIQSerializer IQ_CAMERA_RESPONSE_SERIALIZER = CameraResponseIQ.createSerializer(CAMERA_RESPONSE_SCHEMA_ID, 1);
 
+    // Dispatch table of the IQs received on the data channel, shared by every call connection.
+    private static final IQDispatchTable DISPATCH_TABLE = new IQDispatchTable.Builder()
+            .add("ParticipantInfo:1", IQ_PARTICIPANT_INFO_SERIALIZER, ParticipantInfoIQ.class,
+                    CallConnection::onParticipantInfoIQ, ParticipantInfoIQ::getThumbnailSize)
+            .add("ParticipantInfo:2", IQ_PARTICIPANT_INFO_SERIALIZER_2, ParticipantInfoIQ.class,
+                    CallConnection::onParticipantInfoIQ, ParticipantInfoIQ::getThumbnailSize)
+            .add("ParticipantAvatarRequest", IQ_PARTICIPANT_AVATAR_REQUEST_SERIALIZER, BinaryPacketIQ.class,
+                    CallConnection::onParticipantAvatarRequestIQ)
+            .add("ParticipantTransfer", IQ_PARTICIPANT_TRANSFER_SERIALIZER, ParticipantTransferIQ.class,
+                    CallConnection::onParticipantTransferIQ)
+            .add("TransferDone", IQ_TRANSFER_DONE_SERIALIZER, BinaryPacketIQ.class, CallConnection::onTransferDoneIQ)
+            .add("PrepareTransfer", IQ_PREPARE_TRANSFER_SERIALIZER, BinaryPacketIQ.class, CallConnection::onPrepareTransferIQ)
+            .add("OnPrepareTransfer", IQ_ON_PREPARE_TRANSFER_SERIALIZER, BinaryPacketIQ.class,
+                    CallConnection::onOnPrepareTransferIQ)
+            .add("StreamingInfo", IQ_STREAMING_INFO_SERIALIZER, StreamingInfoIQ.class,
+                    CallConnection::onStreamingInfoIQ, StreamingInfoIQ::getArtworkSize)
+            .add("StreamingControl", IQ_STREAMING_CONTROL_SERIALIZER, StreamingControlIQ.class,
+                    CallConnection::onStreamingControlIQ)
+            .add("StreamingData", IQ_STREAMING_DATA_SERIALIZER, StreamingDataIQ.class,
+                    CallConnection::onStreamingDataIQ, StreamingDataIQ::getDataSize)
+            .add("StreamingPush", IQ_STREAMING_PUSH_SERIALIZER, StreamingDataIQ.class,
+                    CallConnection::onStreamingPushIQ, StreamingDataIQ::getDataSize)
+            .add("StreamingRequest", IQ_STREAMING_REQUEST_SERIALIZER, StreamingRequestIQ.class,
+                    CallConnection::onStreamingRequestIQ)
+            .add("HoldCall", IQ_HOLD_CALL_SERIALIZER, BinaryPacketIQ.class, CallConnection::onHoldCallIQ)
+            .add("ResumeCall", IQ_RESUME_CALL_SERIALIZER, BinaryPacketIQ.class, CallConnection::onResumeCallIQ)
+            .add("KeyCheckInitiate", IQ_KEY_CHECK_INITIATE_SERIALIZER, KeyCheckInitiateIQ.class,
+                    CallConnection::onKeyCheckInitiateIQ)
+            .add("OnKeyCheckInitiate", IQ_ON_KEY_CHECK_INITIATE_SERIALIZER, OnKeyCheckInitiateIQ.class,
+                    CallConnection::onOnKeyCheckInitiateIQ)
+            .add("WordCheck", IQ_WORD_CHECK_SERIALIZER, WordCheckIQ.class, CallConnection::onWordCheckIQ)
+            .add("TerminateKeyCheck", IQ_TERMINATE_KEY_CHECK_SERIALIZER, TerminateKeyCheckIQ.class,
+                    CallConnection::onTerminateKeyCheckIQ)
+            .add("TwincodeUri", IQ_TWINCODE_URI_SERIALIZER, TwincodeUriIQ.class, CallConnection::onTwincodeUriIQ)
+            .add("ScreenSharingOn", IQ_SCREEN_SHARING_ON_SERIALIZER, BinaryPacketIQ.class,
+                    CallConnection::onScreenSharingOnIQ)
+            .add("ScreenSharingOff", IQ_SCREEN_SHARING_OFF_SERIALIZER, BinaryPacketIQ.class,
+                    CallConnection::onScreenSharingOffIQ)
+            .add("CameraControl", IQ_CAMERA_CONTROL_SERIALIZER, CameraControlIQ.class, CallConnection::onCameraControlIQ)
+            .add("CameraResponse", IQ_CAMERA_RESPONSE_SERIALIZER, CameraResponseIQ.class,
+                    CallConnection::onCameraResponseIQ)
+            .build();
+
+    // Max number of zoom and camera switch messages sent per second (see CoalescingSender).
+    private static final int DEFAULT_CAMERA_CONTROL_RATE = 10;
+
+    // Max number of geolocation updates sent per second.
+    private static final int GEOLOCATION_UPDATE_RATE = 1;
+
     private int mState;
     @NonNull
     private volatile ConnectionState mConnectionState;
@@ -182,13 +239,21 @@ public final class CallConnection extends ConversationHandler {
     private StreamPlayerImpl mMediaStream;
     @NonNull
     private volatile StreamingStatus mStreamingStatus;
+    private volatile int mStreamingVersion;
     @Nullable
     private volatile Boolean mMessageSupported;
     @Nullable
     private volatile Boolean mGeolocSupported;
     @Nullable
     private volatile Zoomable mZoomable;
+    private volatile boolean mAvatarHashSupported;
     private volatile boolean mRemoteControlGranted;
+    @NonNull
+    private final CoalescingSender<CameraControlIQ.Mode> mCameraControlSender;
+    @NonNull
+    private final CoalescingSender<GeolocationDescriptor> mGeolocationSender;
+    @NonNull
+    private final ClockEstimator mClockEstimator;
 
     /**
      * Set to true when we receive a invite-call-room IQ.
@@ -380,6 +445,59 @@ public final class CallConnection extends ConversationHandler {
         return mStreamingStatus;
     }
 
+    /**
+     * Get the streaming protocol version supported by the peer.
+     *
+     * @return 0 if streaming is not supported, 1 for the initial version, 2 when the peer
+     * accepts variable block sizes in the StreamingRequestIQ and 3 when it accepts pushed blocks.
+     */
+    @Override
+    public int getStreamingVersion() {
+
+        return mStreamingVersion;
+    }
+
+    /**
+     * Get the estimator of the peer clock offset and round trip time.  It is fed by the timestamps
+     * of the streaming IQs received from the peer.
+     *
+     * @return the clock estimator of the connection.
+     */
+    @Override
+    @NonNull
+    public ClockEstimator getClockEstimator() {
+
+        return mClockEstimator;
+    }
+
+    /**
+     * Get the number of IQs received and sent by every call connection, their payload size and
+     * the time spent in their handler for each IQ schema.
+     *
+     * @return the list of counters for each IQ schema.
+     */
+    @NonNull
+    public static List<IQDispatchTable.Stats> getIQStats() {
+
+        return DISPATCH_TABLE.getStats();
+    }
+
+    /**
+     * Send the IQ to the peer and count it in the IQ statistics.
+     *
+     * @param serializer the serializer used to create the IQ.
+     * @param iq the IQ to send.
+     * @param statType the statistics type for the peer connection service.
+     */
+    @Override
+    public void sendIQ(@NonNull BinaryPacketIQ.BinaryPacketIQSerializer serializer, @NonNull BinaryPacketIQ iq,
+                       @NonNull StatType statType) {
+
+        // The IQ is serialized before sendMessage() returns: the streamer re-uses the block after sendIQ().
+        sendMessage(iq, statType);
+        DISPATCH_TABLE.recordSent(serializer, iq);
+    }
+
     /**
      * The peer twincode outbound id that is used for the P2P connection.
      *
@@ -417,18 +535,30 @@ public final class CallConnection extends ConversationHandler {
         }
 
         super.onDataChannelOpen(peerConnectionId, peerVersion, leadingPadding);
+        mCall.getSetupTrace().mark(CallSetupTrace.Phase.DATA_CHANNEL_OPEN);
         if (peerVersion != null) {
 
             // CallService:<version>:<capability>,...,<capability>.
             final String[] items = peerVersion.split("[:,]");
             StreamingStatus status = StreamingStatus.NOT_AVAILABLE;
+            int streamingVersion = 0;
             boolean messageSupported = false;
             boolean geolocSupported = false;
+            boolean avatarHashSupported = false;
             Zoomable zoomable = Zoomable.NEVER;
             if (items.length >= 3) {
                 for (int i = items.length; --i >= 1; ) {
                     if (CAP_STREAM.equals(items[i])) {
                         status = StreamingStatus.READY;
+                        if (streamingVersion < 1) {
+                            streamingVersion = 1;
+                        }
+                    } else if (CAP_STREAM_V2.equals(items[i])) {
+                        if (streamingVersion < 2) {
+                            streamingVersion = 2;
+                        }
+                    } else if (CAP_STREAM_V3.equals(items[i])) {
+                        streamingVersion = 3;
                     } else if (CAP_MESSAGE.equals(items[i])) {
                         messageSupported = true;
                     } else if (CAP_GEOLOCATION.equals(items[i])) {
@@ -437,18 +567,22 @@ public final class CallConnection extends ConversationHandler {
                         zoomable = Zoomable.ALLOW;
                     } else if (CAP_ZOOM_ASK.equals(items[i])) {
                         zoomable = Zoomable.ASK;
+                    } else if (CAP_AVATAR_HASH.equals(items[i])) {
+                        avatarHashSupported = true;
                     }
                 }
             }
             mStreamingStatus = status;
+            mStreamingVersion = status == StreamingStatus.READY ? streamingVersion : 0;
             mMessageSupported = messageSupported;
             mGeolocSupported = geolocSupported;
             mZoomable = zoomable;
+            mAvatarHashSupported = avatarHashSupported;
         }
 
         // If this is a P2P within a call room, send the peer our identification.
         if (mCall.getCallRoomId() != null) {
-            sendParticipantInfoIQ();
+            sendParticipantInfoIQ(false);
         }
         mCall.onEventParticipant(mMainParticipant, CallParticipantEvent.EVENT_CONNECTED);
     }
@@ -533,33 +667,15 @@ public final class CallConnection extends ConversationHandler {
             mCall.onAddParticipant(mMainParticipant);
         }
 
-        addListener(IQ_PARTICIPANT_INFO_SERIALIZER, this::onParticipantInfoIQ);
-        addListener(IQ_PARTICIPANT_TRANSFER_SERIALIZER, this::onParticipantTransferIQ);
-        addListener(IQ_TRANSFER_DONE_SERIALIZER, this::onTransferDoneIQ);
-        addListener(IQ_PREPARE_TRANSFER_SERIALIZER, this::onPrepareTransferIQ);
-        addListener(IQ_ON_PREPARE_TRANSFER_SERIALIZER, this::onOnPrepareTransferIQ);
-
-        addListener(IQ_STREAMING_INFO_SERIALIZER, this::onStreamingInfoIQ);
-        addListener(IQ_STREAMING_CONTROL_SERIALIZER, this::onStreamingControlIQ);
-        addListener(IQ_STREAMING_DATA_SERIALIZER, this::onStreamingDataIQ);
-        addListener(IQ_STREAMING_REQUEST_SERIALIZER, this::onStreamingRequestIQ);
-
-        addListener(IQ_HOLD_CALL_SERIALIZER, this::onHoldCallIQ);
-        addListener(IQ_RESUME_CALL_SERIALIZER, this::onResumeCallIQ);
-
-        addListener(IQ_KEY_CHECK_INITIATE_SERIALIZER, this::onKeyCheckInitiateIQ);
-        addListener(IQ_ON_KEY_CHECK_INITIATE_SERIALIZER, this::onOnKeyCheckInitiateIQ);
-        addListener(IQ_WORD_CHECK_SERIALIZER, this::onWordCheckIQ);
-        addListener(IQ_TERMINATE_KEY_CHECK_SERIALIZER, this::onTerminateKeyCheckIQ);
-        addListener(IQ_TWINCODE_URI_SERIALIZER, this::onTwincodeUriIQ);
-
-        addListener(IQ_SCREEN_SHARING_ON_SERIALIZER, this::onScreenSharingOnIQ);
-        addListener(IQ_SCREEN_SHARING_OFF_SERIALIZER, this::onScreenSharingOffIQ);
-
-        addListener(IQ_CAMERA_CONTROL_SERIALIZER, this::onCameraControlIQ);
-        addListener(IQ_CAMERA_RESPONSE_SERIALIZER, this::onCameraResponseIQ);
+        for (BinaryPacketIQ.BinaryPacketIQSerializer serializer : DISPATCH_TABLE.getSerializers()) {
+            addListener(serializer, iq -> DISPATCH_TABLE.dispatch(this, serializer, iq));
+        }
 
         mStreamingStatus = StreamingStatus.UNKNOWN;
+        mStreamingVersion = 0;
+        mCameraControlSender = new CoalescingSender<>(DEFAULT_CAMERA_CONTROL_RATE);
+        mGeolocationSender = new CoalescingSender<>(GEOLOCATION_UPDATE_RATE);
+        mClockEstimator = new ClockEstimator();
     }
 
     void setCall(@NonNull CallState call) {
@@ -626,13 +742,26 @@ public final class CallConnection extends ConversationHandler {
         mCall.onEventParticipant(mMainParticipant, CallParticipantEvent.EVENT_IDENTITY);
     }
 
-    synchronized void setTimer(@NonNull ScheduledExecutorService executor, @NonNull TwinmeContext.Consumer<CallConnection> command, int timeout, @NonNull CallStatus callStatus) {
+    /**
+     * Set the connection timer on the executor lane of the call so that a timeout of a call is not
+     * delayed by the tasks of another call.
+     *
+     * @param command the command to execute when the timer fires.
+     * @param timeout the timeout in seconds.
+     * @param callStatus the new connection status.
+     */
+    synchronized void setTimer(@NonNull TwinmeContext.Consumer<CallConnection> command, int timeout, @NonNull CallStatus callStatus) {
 
         if (mTimer != null) {
             mTimer.cancel(false);
         }
 
-        mTimer = executor.schedule(() -> command.accept(this), timeout, TimeUnit.SECONDS);
+        try {
+            mTimer = mCall.getExecutor().schedule(() -> command.accept(this), timeout, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException exception) {
+            // The call is released.
+            mTimer = null;
+        }
         mStatus = callStatus;
     }
 
@@ -931,6 +1060,8 @@ public final class CallConnection extends ConversationHandler {
             mTimer.cancel(false);
             mTimer = null;
         }
+        mCameraControlSender.cancel();
+        mGeolocationSender.cancel();
 
         if (mMediaStream != null) {
             mMediaStream.stop(false);
@@ -972,15 +1103,21 @@ public final class CallConnection extends ConversationHandler {
                 break;
         }
         if (BuildConfig.IS_SKRED && CommonUtils.isGooglePlayServicesAvailable(getCall().getContext())) {
-            return DATA_VERSION + ":" + CAP_STREAM + "," + CAP_TRANSFER + "," + CAP_MESSAGE + "," + CAP_GEOLOCATION + zoomCapability;
+            return DATA_VERSION + ":" + CAP_STREAM + "," + CAP_STREAM_V2 + "," + CAP_STREAM_V3 + "," + CAP_TRANSFER + "," + CAP_MESSAGE + "," + CAP_GEOLOCATION + "," + CAP_AVATAR_HASH + zoomCapability;
         } else {
-            return DATA_VERSION + ":" + CAP_STREAM + "," + CAP_TRANSFER + "," + CAP_MESSAGE + zoomCapability;
+            return DATA_VERSION + ":" + CAP_STREAM + "," + CAP_STREAM_V2 + "," + CAP_STREAM_V3 + "," + CAP_TRANSFER + "," + CAP_MESSAGE + "," + CAP_AVATAR_HASH + zoomCapability;
         }
     }
 
-    private void sendParticipantInfoIQ() {
+    /**
+     * Send our name and avatar to the peer.  The avatar is encoded once for the call and when the peer
+     * supports the ParticipantInfoIQ V2, we only send the avatar hash unless the peer asked for the avatar.
+     *
+     * @param withAvatar when true, send the avatar content.
+     */
+    private void sendParticipantInfoIQ(boolean withAvatar) {
         if (DEBUG) {
-            Log.d(LOG_TAG, "sendParticipantInfoIQ");
+            Log.d(LOG_TAG, "sendParticipantInfoIQ withAvatar=" + withAvatar);
         }
 
         final Originator originator = mCall.getOriginator();
@@ -995,25 +1132,35 @@ public final class CallConnection extends ConversationHandler {
             return;
         }
 
-        final Bitmap avatar = mCall.getIdentityAvatar();
+        final AvatarCache.EncodedAvatar avatar = mCall.getIdentityAvatarData();
         final String description = originator.getIdentityDescription();
-        final byte[] thumbnailData;
-        if (avatar != null) {
-            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-            if (avatar.hasAlpha()) {
-                avatar.compress(Bitmap.CompressFormat.PNG, 0, byteArrayOutputStream);
-            } else {
-                avatar.compress(Bitmap.CompressFormat.JPEG, 80, byteArrayOutputStream);
-            }
-            thumbnailData = byteArrayOutputStream.toByteArray();
+        String memberId = mCall.getCallRoomMemberId() != null ? mCall.getCallRoomMemberId() : "";
+        final BinaryPacketIQ.BinaryPacketIQSerializer serializer;
+        final ParticipantInfoIQ iq;
+        if (mAvatarHashSupported) {
+            serializer = IQ_PARTICIPANT_INFO_SERIALIZER_2;
+            iq = new ParticipantInfoIQ(serializer, mCall.allocateRequestId(),
+                    memberId, name, description, avatar != null && withAvatar ? avatar.data : null,
+                    avatar != null ? avatar.hash : null);
         } else {
-            thumbnailData = null;
+            serializer = IQ_PARTICIPANT_INFO_SERIALIZER;
+            iq = new ParticipantInfoIQ(serializer, mCall.allocateRequestId(),
+                    memberId, name, description, avatar != null ? avatar.data : null, null);
         }
+        sendIQ(serializer, iq, StatType.IQ_SET_PUSH_OBJECT);
+    }
 
-        String memberId = mCall.getCallRoomMemberId() != null ? mCall.getCallRoomMemberId() : "";
-        final ParticipantInfoIQ iq = new ParticipantInfoIQ(IQ_PARTICIPANT_INFO_SERIALIZER, mCall.allocateRequestId(),
-                    memberId, name, description, thumbnailData);
-        sendMessage(iq, StatType.IQ_SET_PUSH_OBJECT);
+    /**
+     * Handle the request of the peer to get our avatar which it does not have in its cache.
+     *
+     * @param iq the avatar request iq.
+     */
+    private void onParticipantAvatarRequestIQ(@NonNull BinaryPacketIQ iq) {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "onParticipantAvatarRequestIQ: iq=" + iq);
+        }
+
+        sendParticipantInfoIQ(true);
     }
 
     /**
@@ -1021,26 +1168,29 @@ public final class CallConnection extends ConversationHandler {
      *
      * @param iq the participant info iq.
      */
-    private void onParticipantInfoIQ(@NonNull BinaryPacketIQ iq) {
+    private void onParticipantInfoIQ(@NonNull ParticipantInfoIQ iq) {
         if (DEBUG) {
             Log.d(LOG_TAG, "onParticipantInfoIQ: iq=" + iq);
         }
 
-        if (!(iq instanceof ParticipantInfoIQ)) {
-            return;
-        }
-
         if (mMainParticipant.getTransferredFromParticipantId() != null) {
             // The participant is a transfer target, ignore the info
             // because we already copied it from the transferred participant.
             return;
         }
 
-        ParticipantInfoIQ participantInfoIQ = (ParticipantInfoIQ) iq;
-
+        // The avatar is decoded only if we don't have it already, when we only get its hash
+        // and it is not in our cache, ask the peer to send it.
         Bitmap avatar = null;
-        if (participantInfoIQ.thumbnailData != null) {
-            avatar = BitmapFactory.decodeByteArray(participantInfoIQ.thumbnailData, 0, participantInfoIQ.thumbnailData.length);
+        if (iq.thumbnailData != null) {
+            avatar = AvatarCache.decode(iq.thumbnailData, iq.avatarHash);
+        } else if (iq.avatarHash != null) {
+            avatar = AvatarCache.get(iq.avatarHash);
+            if (avatar == null) {
+                sendIQ(IQ_PARTICIPANT_AVATAR_REQUEST_SERIALIZER,
+                        new BinaryPacketIQ(IQ_PARTICIPANT_AVATAR_REQUEST_SERIALIZER, mCall.allocateRequestId()),
+                        StatType.IQ_SET_PUSH_OBJECT);
+            }
         }
 
         // Click-to-call callers can set an avatar but it's not mandatory,
@@ -1052,7 +1202,7 @@ public final class CallConnection extends ConversationHandler {
 
         Bitmap groupAvatar = mCall.getGroupAvatar();
 
-        mMainParticipant.setInformation(participantInfoIQ.name, participantInfoIQ.description, avatar, groupAvatar);
+        mMainParticipant.setInformation(iq.name, iq.description, avatar, groupAvatar);
 
         mCall.onEventParticipant(mMainParticipant, CallParticipantEvent.EVENT_IDENTITY);
     }
@@ -1062,21 +1212,16 @@ public final class CallConnection extends ConversationHandler {
      *
      * @param iq the streaming control iq.
      */
-    private void onStreamingControlIQ(@NonNull BinaryPacketIQ iq) {
+    private void onStreamingControlIQ(@NonNull StreamingControlIQ iq) {
         if (DEBUG) {
             Log.d(LOG_TAG, "onStreamingControlIQ: iq=" + iq);
         }
 
-        if (!(iq instanceof StreamingControlIQ)) {
-            return;
-        }
-
-        final StreamingControlIQ streamingControlIQ = (StreamingControlIQ) iq;
         final StreamPlayerImpl mediaStream;
         StreamPlayerImpl stopMediaStream = null;
-        switch (streamingControlIQ.control) {
+        switch (iq.control) {
             case START_AUDIO_STREAMING:
-                mediaStream = new StreamPlayerImpl(streamingControlIQ.ident, streamingControlIQ.length, false,
+                mediaStream = new StreamPlayerImpl(iq.ident, iq.length, false,
                         mCall, this, null);
                 synchronized (this) {
                     stopMediaStream = mMediaStream;
@@ -1086,7 +1231,7 @@ public final class CallConnection extends ConversationHandler {
                 break;
 
             case START_VIDEO_STREAMING:
-                mediaStream = new StreamPlayerImpl(streamingControlIQ.ident, streamingControlIQ.length, true,
+                mediaStream = new StreamPlayerImpl(iq.ident, iq.length, true,
                         mCall, this, null);
                 synchronized (this) {
                     stopMediaStream = mMediaStream;
@@ -1100,7 +1245,7 @@ public final class CallConnection extends ConversationHandler {
                     mediaStream = mMediaStream;
                 }
                 if (mediaStream != null) {
-                    mediaStream.onStreamingControlIQ(streamingControlIQ);
+                    mediaStream.onStreamingControlIQ(iq);
                     mCall.onEventParticipant(mMainParticipant, CallParticipantEvent.EVENT_STREAM_PAUSE);
                 }
                 break;
@@ -1110,7 +1255,7 @@ public final class CallConnection extends ConversationHandler {
                     mediaStream = mMediaStream;
                 }
                 if (mediaStream != null) {
-                    mediaStream.onStreamingControlIQ(streamingControlIQ);
+                    mediaStream.onStreamingControlIQ(iq);
                     mCall.onEventParticipant(mMainParticipant, CallParticipantEvent.EVENT_STREAM_RESUME);
                 }
                 break;
@@ -1119,8 +1264,8 @@ public final class CallConnection extends ConversationHandler {
                 synchronized (this) {
                     mediaStream = mMediaStream;
                 }
-                if (mediaStream != null && streamingControlIQ.length >= 0) {
-                    mediaStream.onStreamingControlIQ(streamingControlIQ);
+                if (mediaStream != null && iq.length >= 0) {
+                    mediaStream.onStreamingControlIQ(iq);
                 }
                 break;
 
@@ -1146,7 +1291,7 @@ public final class CallConnection extends ConversationHandler {
             case STREAMING_STATUS_COMPLETED:
                 final StreamerImpl streamer = (StreamerImpl) mCall.getCurrentStreamer();
                 if (streamer != null) {
-                    streamer.onStreamingControlIQ(this, streamingControlIQ);
+                    streamer.onStreamingControlIQ(this, iq);
                 }
                 break;
         }
@@ -1176,27 +1321,22 @@ public final class CallConnection extends ConversationHandler {
      *
      * @param iq the streaming info iq.
      */
-    private void onStreamingInfoIQ(@NonNull BinaryPacketIQ iq) {
+    private void onStreamingInfoIQ(@NonNull StreamingInfoIQ iq) {
         if (DEBUG) {
             Log.d(LOG_TAG, "onStreamingInfoIQ: iq=" + iq);
         }
 
-        if (!(iq instanceof StreamingInfoIQ)) {
-            return;
-        }
-
-        final StreamingInfoIQ streamingInfoIQ = (StreamingInfoIQ) iq;
         final StreamPlayerImpl streamPlayer = mMediaStream;
-        if (streamPlayer == null || streamingInfoIQ.ident != streamPlayer.getIdent()) {
+        if (streamPlayer == null || iq.ident != streamPlayer.getIdent()) {
 
             return;
         }
 
         Bitmap artwork = null;
-        if (streamingInfoIQ.artwork != null) {
-            artwork = BitmapFactory.decodeByteArray(streamingInfoIQ.artwork, 0, streamingInfoIQ.artwork.length);
+        if (iq.artwork != null) {
+            artwork = BitmapFactory.decodeByteArray(iq.artwork, 0, iq.artwork.length);
         }
-        streamPlayer.setInformation(streamingInfoIQ.title, streamingInfoIQ.album, streamingInfoIQ.artist, artwork, streamingInfoIQ.duration);
+        streamPlayer.setInformation(iq.title, iq.album, iq.artist, artwork, iq.duration);
         mCall.onEventParticipant(mMainParticipant, CallParticipantEvent.EVENT_STREAM_INFO);
     }
 
@@ -1205,18 +1345,30 @@ public final class CallConnection extends ConversationHandler {
      *
      * @param iq the streaming data iq.
      */
-    private void onStreamingDataIQ(@NonNull BinaryPacketIQ iq) {
+    private void onStreamingDataIQ(@NonNull StreamingDataIQ iq) {
         if (DEBUG) {
             Log.d(LOG_TAG, "onStreamingDataIQ: iq=" + iq);
         }
 
-        if (!(iq instanceof StreamingDataIQ)) {
-            return;
+        final StreamPlayerImpl mediaStream = mMediaStream;
+        if (mediaStream != null) {
+            mediaStream.onStreamingDataIQ(iq);
+        }
+    }
+
+    /**
+     * Handle the StreamingDataIQ packet pushed by the streamer without a request.
+     *
+     * @param iq the streaming data iq.
+     */
+    private void onStreamingPushIQ(@NonNull StreamingDataIQ iq) {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "onStreamingPushIQ: iq=" + iq);
         }
 
         final StreamPlayerImpl mediaStream = mMediaStream;
         if (mediaStream != null) {
-            mediaStream.onStreamingDataIQ((StreamingDataIQ) iq);
+            mediaStream.onStreamingPushIQ(iq);
         }
     }
 
@@ -1225,22 +1377,18 @@ public final class CallConnection extends ConversationHandler {
      *
      * @param iq the streaming data iq.
      */
-    private void onStreamingRequestIQ(@NonNull BinaryPacketIQ iq) {
+    private void onStreamingRequestIQ(@NonNull StreamingRequestIQ iq) {
         if (DEBUG) {
             Log.d(LOG_TAG, "onStreamingRequestIQ: iq=" + iq);
         }
 
-        if (!(iq instanceof StreamingRequestIQ)) {
-            return;
-        }
-
         final StreamerImpl streamer = (StreamerImpl)mCall.getCurrentStreamer();
         if (streamer == null) {
 
             return;
         }
 
-        streamer.onStreamingRequestIQ(this, (StreamingRequestIQ )iq);
+        streamer.onStreamingRequestIQ(this, iq);
     }
 
     public void sendParticipantTransferIQ(String memberId) {
@@ -1257,7 +1405,7 @@ public final class CallConnection extends ConversationHandler {
         try {
             final ParticipantTransferIQ iq = new ParticipantTransferIQ(IQ_PARTICIPANT_TRANSFER_SERIALIZER, mCall.allocateRequestId(),
                     memberId);
-            sendMessage(iq, StatType.IQ_SET_PUSH_OBJECT);
+            sendIQ(IQ_PARTICIPANT_TRANSFER_SERIALIZER, iq, StatType.IQ_SET_PUSH_OBJECT);
 
         } catch (Exception exception) {
             Log.e(LOG_TAG, "Exception", exception);
@@ -1269,20 +1417,14 @@ public final class CallConnection extends ConversationHandler {
      *
      * @param iq the participant transfer iq.
      */
-    private void onParticipantTransferIQ(@NonNull BinaryPacketIQ iq) {
+    private void onParticipantTransferIQ(@NonNull ParticipantTransferIQ iq) {
         if (DEBUG) {
             Log.d(LOG_TAG, "onParticipantTransferIQ: iq=" + iq);
         }
 
-        if (!(iq instanceof ParticipantTransferIQ)) {
-            return;
-        }
-
-        ParticipantTransferIQ participantTransferIQ = (ParticipantTransferIQ) iq;
-
-        setTransferToMemberId(participantTransferIQ.memberId);
+        setTransferToMemberId(iq.memberId);
 
-        mCall.onEventParticipantTransfer(participantTransferIQ.memberId);
+        mCall.onEventParticipantTransfer(iq.memberId);
     }
 
     public void sendTransferDoneIQ() {
@@ -1296,7 +1438,7 @@ public final class CallConnection extends ConversationHandler {
 
         final TransferDoneIQ iq = new TransferDoneIQ(IQ_TRANSFER_DONE_SERIALIZER, mCall.allocateRequestId());
         try {
-            sendMessage(iq, StatType.IQ_SET_PUSH_OBJECT);
+            sendIQ(IQ_TRANSFER_DONE_SERIALIZER, iq, StatType.IQ_SET_PUSH_OBJECT);
         } catch (Exception exception) {
             Log.e(LOG_TAG, "Exception", exception);
         }
@@ -1324,7 +1466,7 @@ public final class CallConnection extends ConversationHandler {
 
         final PrepareTransferIQ iq = new PrepareTransferIQ(IQ_PREPARE_TRANSFER_SERIALIZER, mCall.allocateRequestId());
         try {
-            sendMessage(iq, StatType.IQ_SET_PUSH_OBJECT);
+            sendIQ(IQ_PREPARE_TRANSFER_SERIALIZER, iq, StatType.IQ_SET_PUSH_OBJECT);
         } catch (Exception exception) {
             Log.e(LOG_TAG, "Exception", exception);
         }
@@ -1341,7 +1483,7 @@ public final class CallConnection extends ConversationHandler {
 
         final BinaryPacketIQ iq = new BinaryPacketIQ(IQ_HOLD_CALL_SERIALIZER, mCall.allocateRequestId());
         try {
-            sendMessage(iq, StatType.IQ_SET_PUSH_OBJECT);
+            sendIQ(IQ_HOLD_CALL_SERIALIZER, iq, StatType.IQ_SET_PUSH_OBJECT);
         } catch (Exception exception) {
             Log.e(LOG_TAG, "Exception", exception);
         }
@@ -1358,7 +1500,7 @@ public final class CallConnection extends ConversationHandler {
 
         final BinaryPacketIQ iq = new BinaryPacketIQ(IQ_RESUME_CALL_SERIALIZER, mCall.allocateRequestId());
         try {
-            sendMessage(iq, StatType.IQ_SET_PUSH_OBJECT);
+            sendIQ(IQ_RESUME_CALL_SERIALIZER, iq, StatType.IQ_SET_PUSH_OBJECT);
         } catch (Exception exception) {
             Log.e(LOG_TAG, "Exception", exception);
         }
@@ -1375,7 +1517,7 @@ public final class CallConnection extends ConversationHandler {
 
         final KeyCheckInitiateIQ iq = new KeyCheckInitiateIQ(IQ_KEY_CHECK_INITIATE_SERIALIZER, mCall.allocateRequestId(), language);
         try {
-            sendMessage(iq, StatType.IQ_SET_PUSH_OBJECT);
+            sendIQ(IQ_KEY_CHECK_INITIATE_SERIALIZER, iq, StatType.IQ_SET_PUSH_OBJECT);
         } catch (Exception exception) {
             Log.e(LOG_TAG, "Exception", exception);
         }
@@ -1392,7 +1534,7 @@ public final class CallConnection extends ConversationHandler {
 
         final OnKeyCheckInitiateIQ iq = new OnKeyCheckInitiateIQ(IQ_ON_KEY_CHECK_INITIATE_SERIALIZER, mCall.allocateRequestId(), errorCode);
         try {
-            sendMessage(iq, StatType.IQ_SET_PUSH_OBJECT);
+            sendIQ(IQ_ON_KEY_CHECK_INITIATE_SERIALIZER, iq, StatType.IQ_SET_PUSH_OBJECT);
         } catch (Exception exception) {
             Log.e(LOG_TAG, "Exception", exception);
         }
@@ -1409,7 +1551,7 @@ public final class CallConnection extends ConversationHandler {
 
         final WordCheckIQ iq = new WordCheckIQ(IQ_WORD_CHECK_SERIALIZER, mCall.allocateRequestId(), result);
         try {
-            sendMessage(iq, StatType.IQ_SET_PUSH_OBJECT);
+            sendIQ(IQ_WORD_CHECK_SERIALIZER, iq, StatType.IQ_SET_PUSH_OBJECT);
         } catch (Exception exception) {
             Log.e(LOG_TAG, "Exception", exception);
         }
@@ -1426,7 +1568,7 @@ public final class CallConnection extends ConversationHandler {
 
         final BinaryPacketIQ iq = new TerminateKeyCheckIQ(IQ_TERMINATE_KEY_CHECK_SERIALIZER, mCall.allocateRequestId(), result);
         try {
-            sendMessage(iq, StatType.IQ_SET_PUSH_OBJECT);
+            sendIQ(IQ_TERMINATE_KEY_CHECK_SERIALIZER, iq, StatType.IQ_SET_PUSH_OBJECT);
         } catch (Exception exception) {
             Log.e(LOG_TAG, "Exception", exception);
         }
@@ -1443,7 +1585,7 @@ public final class CallConnection extends ConversationHandler {
 
         final BinaryPacketIQ iq = new TwincodeUriIQ(IQ_TWINCODE_URI_SERIALIZER, mCall.allocateRequestId(), uri);
         try {
-            sendMessage(iq, StatType.IQ_SET_PUSH_OBJECT);
+            sendIQ(IQ_TWINCODE_URI_SERIALIZER, iq, StatType.IQ_SET_PUSH_OBJECT);
         } catch (Exception exception) {
             Log.e(LOG_TAG, "Exception", exception);
         }
@@ -1458,9 +1600,81 @@ public final class CallConnection extends ConversationHandler {
         if (mZoomable == Zoomable.NEVER) {
             return;
         }
+
+        switch (control) {
+            case SELECT:
+                // A pending zoom applies to the current camera: send it before the camera selection because
+                // the pending messages are sent in the order of their first submission.
+                mCameraControlSender.flush();
+                // Transient values: only the last zoom and camera selection are sent when the UI changes them too quickly.
+                mCameraControlSender.submit(control, () -> doSendCameraControl(control, camera, scale), mCall.getExecutor());
+                return;
+
+            case ZOOM:
+                mCameraControlSender.submit(control, () -> doSendCameraControl(control, camera, scale), mCall.getExecutor());
+                return;
+
+            case STOP:
+                // The pending zoom or camera selection must not be sent after the STOP.
+                mCameraControlSender.cancel();
+                break;
+
+            default:
+                mCameraControlSender.flush();
+                break;
+        }
+        doSendCameraControl(control, camera, scale);
+    }
+
+    /**
+     * Queue the update of our geolocation descriptor: the update is sent at most once per second and
+     * only the last position is sent when several updates are queued during that interval.
+     *
+     * @param descriptor our geolocation descriptor.
+     * @param {longitude, latitude, altitude, mapLongitudeDelta, mapLatitudeDelta}  the new geolocation.
+     * @return true if the update is sent or queued.
+     */
+    boolean sendGeolocationUpdate(@NonNull GeolocationDescriptor descriptor, double longitude, double latitude,
+                                  double altitude, double mapLongitudeDelta, double mapLatitudeDelta) {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "sendGeolocationUpdate longitude=" + longitude + " latitude=" + latitude);
+        }
+
+        // The update must be made from the main UI thread (see CallState.sendGeolocation()).
+        final Handler handler = mCall.getHandler();
+        mGeolocationSender.submit(descriptor, () -> handler.post(() -> {
+            // The geolocation may have been deleted after the update was posted (see CallState.deleteGeolocation()).
+            if (mStatus != CallStatus.TERMINATED && descriptor == mCall.getCurrentGeolocation()) {
+                updateGeolocation(descriptor, longitude, latitude, altitude, mapLongitudeDelta, mapLatitudeDelta);
+            }
+        }), mCall.getExecutor());
+        return true;
+    }
+
+    /**
+     * Drop the geolocation update not yet sent.  An update already posted to the main UI thread is
+     * dropped when it runs because the descriptor is no longer the current geolocation.
+     */
+    void cancelGeolocationUpdate() {
+
+        mGeolocationSender.cancel();
+    }
+
+    /**
+     * Set the maximum number of zoom and camera switch messages sent per second to the peer.
+     *
+     * @param maxRate the maximum rate.
+     */
+    void setCameraControlMaxRate(int maxRate) {
+
+        mCameraControlSender.setMaxRate(maxRate);
+    }
+
+    private void doSendCameraControl(@NonNull CameraControlIQ.Mode control, int camera, int scale) {
+
         final CameraControlIQ iq = new CameraControlIQ(IQ_CAMERA_CONTROL_SERIALIZER, mCall.allocateRequestId(), control, camera, scale);
         try {
-            sendMessage(iq, StatType.IQ_SET_PUSH_TRANSIENT);
+            sendIQ(IQ_CAMERA_CONTROL_SERIALIZER, iq, StatType.IQ_SET_PUSH_TRANSIENT);
         } catch (Exception exception) {
             Log.e(LOG_TAG, "Exception", exception);
         }
@@ -1501,7 +1715,7 @@ public final class CallConnection extends ConversationHandler {
         final CameraResponseIQ responseIq = new CameraResponseIQ(IQ_CAMERA_RESPONSE_SERIALIZER, mCall.allocateRequestId(), errorCode,
                 cameraBitmap, activeCamera, minScale, maxScale);
         try {
-            sendMessage(responseIq, StatType.IQ_SET_PUSH_FILE);
+            sendIQ(IQ_CAMERA_RESPONSE_SERIALIZER, responseIq, StatType.IQ_SET_PUSH_FILE);
         } catch (Exception exception) {
             Log.e(LOG_TAG, "Exception", exception);
         }
@@ -1519,7 +1733,7 @@ public final class CallConnection extends ConversationHandler {
 
         final BinaryPacketIQ ack = new BinaryPacketIQ(IQ_ON_PREPARE_TRANSFER_SERIALIZER, iq);
         try {
-            sendMessage(ack, StatType.IQ_SET_PUSH_OBJECT);
+            sendIQ(IQ_ON_PREPARE_TRANSFER_SERIALIZER, ack, StatType.IQ_SET_PUSH_OBJECT);
         } catch (Exception exception) {
             Log.e(LOG_TAG, "Exception", exception);
         }
@@ -1564,7 +1778,7 @@ public final class CallConnection extends ConversationHandler {
         mCall.onPeerResumeCall(mPeerConnectionId);
     }
 
-    private void onKeyCheckInitiateIQ(@NonNull BinaryPacketIQ iq) {
+    private void onKeyCheckInitiateIQ(@NonNull KeyCheckInitiateIQ iq) {
         if (DEBUG) {
             Log.d(LOG_TAG, "onKeyCheckInitiateIQ: iq=" + iq);
         }
@@ -1573,12 +1787,10 @@ public final class CallConnection extends ConversationHandler {
             return;
         }
 
-        KeyCheckInitiateIQ keyCheckInitiateIQ = (KeyCheckInitiateIQ) iq;
-
-        mCall.onKeyCheckInitiate(mPeerConnectionId, keyCheckInitiateIQ.locale);
+        mCall.onKeyCheckInitiate(mPeerConnectionId, iq.locale);
     }
 
-    private void onOnKeyCheckInitiateIQ(@NonNull BinaryPacketIQ iq) {
+    private void onOnKeyCheckInitiateIQ(@NonNull OnKeyCheckInitiateIQ iq) {
         if (DEBUG) {
             Log.d(LOG_TAG, "onOnKeyCheckInitiateIQ: iq=" + iq);
         }
@@ -1587,12 +1799,10 @@ public final class CallConnection extends ConversationHandler {
             return;
         }
 
-        OnKeyCheckInitiateIQ onKeyCheckInitiateIQ = (OnKeyCheckInitiateIQ) iq;
-
-        mCall.onOnKeyCheckInitiate(mPeerConnectionId, onKeyCheckInitiateIQ.errorCode);
+        mCall.onOnKeyCheckInitiate(mPeerConnectionId, iq.errorCode);
     }
 
-    private void onWordCheckIQ(@NonNull BinaryPacketIQ iq) {
+    private void onWordCheckIQ(@NonNull WordCheckIQ iq) {
         if (DEBUG) {
             Log.d(LOG_TAG, "onWordCheckIQ: iq=" + iq);
         }
@@ -1601,12 +1811,10 @@ public final class CallConnection extends ConversationHandler {
             return;
         }
 
-        WordCheckIQ wordCheckIQ = (WordCheckIQ) iq;
-
-        mCall.onWordCheck(mPeerConnectionId, wordCheckIQ.result);
+        mCall.onWordCheck(mPeerConnectionId, iq.result);
     }
 
-    private void onTerminateKeyCheckIQ(@NonNull BinaryPacketIQ iq) {
+    private void onTerminateKeyCheckIQ(@NonNull TerminateKeyCheckIQ iq) {
         if (DEBUG) {
             Log.d(LOG_TAG, "onTerminateKeyCheckIQ: iq=" + iq);
         }
@@ -1615,12 +1823,10 @@ public final class CallConnection extends ConversationHandler {
             return;
         }
 
-        TerminateKeyCheckIQ terminateKeyCheckIQ = (TerminateKeyCheckIQ) iq;
-
-        mCall.onTerminateKeyCheck(mPeerConnectionId, terminateKeyCheckIQ.result);
+        mCall.onTerminateKeyCheck(mPeerConnectionId, iq.result);
     }
 
-    private void onTwincodeUriIQ(@NonNull BinaryPacketIQ iq) {
+    private void onTwincodeUriIQ(@NonNull TwincodeUriIQ iq) {
         if (DEBUG) {
             Log.d(LOG_TAG, "onTwincodeUriIQ: iq=" + iq);
         }
@@ -1629,9 +1835,7 @@ public final class CallConnection extends ConversationHandler {
             return;
         }
 
-        TwincodeUriIQ twincodeUriIQ = (TwincodeUriIQ) iq;
-
-        mCall.onTwincodeURI(mPeerConnectionId, twincodeUriIQ.uri);
+        mCall.onTwincodeURI(mPeerConnectionId, iq.uri);
     }
 
     private void onScreenSharingOnIQ(@NonNull BinaryPacketIQ iq) {
@@ -1660,7 +1864,7 @@ public final class CallConnection extends ConversationHandler {
         mCall.onEventParticipant(mMainParticipant, CallParticipantEvent.EVENT_SCREEN_SHARING_OFF);
     }
 
-    private void onCameraControlIQ(@NonNull BinaryPacketIQ iq) {
+    private void onCameraControlIQ(@NonNull CameraControlIQ iq) {
         if (DEBUG) {
             Log.d(LOG_TAG, "onCameraControlIQ: iq=" + iq);
         }
@@ -1674,13 +1878,12 @@ public final class CallConnection extends ConversationHandler {
             sendCameraResponse(ErrorCode.NO_PERMISSION, 0, 0, 0, 0);
             return;
         }
-        final CameraControlIQ controlIQ = (CameraControlIQ) iq;
-        if (zoomable == Zoomable.ASK && !mRemoteControlGranted && controlIQ.control != CameraControlIQ.Mode.STOP) {
+        if (zoomable == Zoomable.ASK && !mRemoteControlGranted && iq.control != CameraControlIQ.Mode.STOP) {
             mCall.onEventParticipant(mMainParticipant, CallParticipantEvent.EVENT_ASK_CAMERA_CONTROL);
             return;
         }
 
-        switch (controlIQ.control) {
+        switch (iq.control) {
             case CHECK:
                 // We are either in Zoomable.ALLOW or mRemoteControlGranted is set: remote camera control is granted.
                 sendCameraGrant();
@@ -1692,7 +1895,7 @@ public final class CallConnection extends ConversationHandler {
                     final Context context = mCall.getContext();
                     final Intent intent = new Intent(context, CallService.class);
                     intent.setAction(CallService.ACTION_CAMERA_MUTE);
-                    intent.putExtra(CallService.PARAM_CAMERA_MUTE, controlIQ.control == CameraControlIQ.Mode.OFF);
+                    intent.putExtra(CallService.PARAM_CAMERA_MUTE, iq.control == CameraControlIQ.Mode.OFF);
                     context.startService(intent);
                 } catch (Exception exception) {
 
@@ -1702,13 +1905,13 @@ public final class CallConnection extends ConversationHandler {
             case SELECT:
                 // Switch camera can be made directly: the UI will update as a result of a WebRTC callback.
                 final int activeCamera = mCall.isFrontCamera() ? 1 : 2;
-                if (controlIQ.camera != activeCamera) {
-                    mPeerConnectionService.switchCamera(controlIQ.camera == 1, this::onCameraSwitch);
+                if (iq.camera != activeCamera) {
+                    mPeerConnectionService.switchCamera(iq.camera == 1, this::onCameraSwitch);
                 }
                 return;
 
             case ZOOM:
-                int progress = controlIQ.scale;
+                int progress = iq.scale;
                 mPeerConnectionService.setZoom(progress);
                 return;
 
@@ -1734,7 +1937,7 @@ public final class CallConnection extends ConversationHandler {
         sendCameraResponse(ErrorCode.SUCCESS, 0x03, newActiveCamera, 0, 100000);
     }
 
-    private void onCameraResponseIQ(@NonNull BinaryPacketIQ iq) {
+    private void onCameraResponseIQ(@NonNull CameraResponseIQ iq) {
         if (DEBUG) {
             Log.d(LOG_TAG, "onCameraResponseIQ: iq=" + iq);
         }
@@ -1743,19 +1946,18 @@ public final class CallConnection extends ConversationHandler {
             return;
         }
 
-        final CameraResponseIQ responseIQ = (CameraResponseIQ) iq;
-        if (responseIQ.errorCode != ErrorCode.SUCCESS) {
+        if (iq.errorCode != ErrorCode.SUCCESS) {
             mMainParticipant.setRemoteControl(0, 0);
             mCall.onEventParticipant(mMainParticipant, CallParticipantEvent.EVENT_CAMERA_CONTROL_DENIED);
             return;
         }
 
-        if (responseIQ.cameraBitmap == 0) {
+        if (iq.cameraBitmap == 0) {
             mMainParticipant.setRemoteControl(0, 0);
             mCall.onEventParticipant(mMainParticipant, CallParticipantEvent.EVENT_CAMERA_CONTROL_DONE);
             return;
         }
-        mMainParticipant.setRemoteControl((int)responseIQ.cameraBitmap, responseIQ.activeCamera);
+        mMainParticipant.setRemoteControl((int)iq.cameraBitmap, iq.activeCamera);
         mCall.onEventParticipant(mMainParticipant, CallParticipantEvent.EVENT_CAMERA_CONTROL_GRANTED);
     }
 
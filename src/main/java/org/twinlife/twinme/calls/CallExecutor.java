@@ -0,0 +1,149 @@
+/*
+ *  Copyright (c) 2025 twinlife SA.
+ *  SPDX-License-Identifier: AGPL-3.0-only
+ *
+ *  Contributors:
+ *   Stephane Carrez (Stephane.Carrez@twin.life)
+ */
+
+package org.twinlife.twinme.calls;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The serial executor lane of a call: the connection timeouts and the streaming control operations of
+ * a call are executed in order on the lane thread and a slow task of a call does not delay another call.
+ * The lane thread stops when the lane is idle.
+ *
+ * The lane records its queue depth, the latency of its tasks (the time between the moment a task should
+ * run and the moment it really starts) and their execution time.
+ */
+public final class CallExecutor extends ScheduledThreadPoolExecutor {
+
+    // Time after which the idle lane thread stops.
+    private static final int KEEP_ALIVE_TIME = 30; // seconds
+
+    @NonNull
+    private final String mName;
+    private long mTaskCount;
+    private long mTotalLatency;
+    private long mMaxLatency;
+    private long mTotalRunTime;
+    private long mStartTime;
+
+    CallExecutor(@NonNull String name) {
+        super(1, runnable -> new Thread(runnable, name));
+
+        mName = name;
+        setKeepAliveTime(KEEP_ALIVE_TIME, TimeUnit.SECONDS);
+        allowCoreThreadTimeOut(true);
+        setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Get the lane name.
+     *
+     * @return the lane name.
+     */
+    @NonNull
+    public String getName() {
+
+        return mName;
+    }
+
+    /**
+     * Get the number of tasks waiting in the lane, including the scheduled tasks.
+     *
+     * @return the queue depth.
+     */
+    public int getQueueDepth() {
+
+        return getQueue().size();
+    }
+
+    /**
+     * Get the number of tasks executed by the lane.
+     *
+     * @return the number of tasks.
+     */
+    public synchronized long getExecutedTaskCount() {
+
+        return mTaskCount;
+    }
+
+    /**
+     * Get the average time in milliseconds a task waited after the time it should run.
+     *
+     * @return the average task latency.
+     */
+    public synchronized long getAverageLatency() {
+
+        return mTaskCount == 0 ? 0 : mTotalLatency / mTaskCount;
+    }
+
+    /**
+     * Get the maximum time in milliseconds a task waited after the time it should run.
+     *
+     * @return the maximum task latency.
+     */
+    public synchronized long getMaxLatency() {
+
+        return mMaxLatency;
+    }
+
+    /**
+     * Get the average execution time of a task in milliseconds.
+     *
+     * @return the average execution time.
+     */
+    public synchronized long getAverageRunTime() {
+
+        return mTaskCount == 0 ? 0 : mTotalRunTime / mTaskCount;
+    }
+
+    @Override
+    protected void beforeExecute(@NonNull Thread thread, @NonNull Runnable runnable) {
+        super.beforeExecute(thread, runnable);
+
+        // The task is a scheduled future: its delay is negative when it starts after the time it should run.
+        long latency = 0;
+        if (runnable instanceof Delayed) {
+            latency = -((Delayed) runnable).getDelay(TimeUnit.MILLISECONDS);
+            if (latency < 0) {
+                latency = 0;
+            }
+        }
+
+        synchronized (this) {
+            mTaskCount++;
+            mTotalLatency += latency;
+            if (mMaxLatency < latency) {
+                mMaxLatency = latency;
+            }
+            mStartTime = System.nanoTime();
+        }
+    }
+
+    @Override
+    protected void afterExecute(@NonNull Runnable runnable, @Nullable Throwable throwable) {
+        super.afterExecute(runnable, throwable);
+
+        synchronized (this) {
+            mTotalRunTime += (System.nanoTime() - mStartTime) / 1000000L;
+        }
+    }
+
+    @Override
+    @NonNull
+    public synchronized String toString() {
+
+        return "CallExecutor[" + mName + " queue=" + getQueue().size() + " tasks=" + mTaskCount
+                + " latency=" + (mTaskCount == 0 ? 0 : mTotalLatency / mTaskCount) + "/" + mMaxLatency
+                + "ms run=" + (mTaskCount == 0 ? 0 : mTotalRunTime / mTaskCount) + "ms]";
+    }
+}
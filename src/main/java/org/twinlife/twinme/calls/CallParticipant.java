@@ -384,6 +384,16 @@ public final class CallParticipant implements RendererCommon.RendererEvents {
         }
     }
 
+    /**
+     * Set the maximum number of zoom and camera switch requests sent per second to the peer: the
+     * intermediate values produced by the UI are dropped and only the last one is sent.
+     * @param maxRate the maximum number of requests per second.
+     */
+    public void setRemoteControlMaxRate(int maxRate) {
+
+        mConnection.setCameraControlMaxRate(maxRate);
+    }
+
     /**
      * Switch the peer camera to the front or back camera if we are allowed.
      * @param front true to select the front camera.
@@ -551,6 +561,7 @@ public final class CallParticipant implements RendererCommon.RendererEvents {
     @Override
     public void onFirstFrameRendered() {
 
+        mConnection.getCall().getSetupTrace().mark(CallSetupTrace.Phase.FIRST_FRAME);
     }
 
     @Override
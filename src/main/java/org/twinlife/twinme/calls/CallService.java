@@ -13,6 +13,7 @@ package org.twinlife.twinme.calls;
 
 import android.annotation.SuppressLint;
 import android.app.Activity;
+import android.app.ActivityManager;
 import android.app.Notification;
 import android.app.Service;
 import android.content.Context;
@@ -22,10 +23,13 @@ import android.graphics.Bitmap;
 import android.location.Location;
 import android.media.AudioManager;
 import android.net.Uri;
+import android.os.BatteryManager;
 import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
 import android.provider.MediaStore;
 import android.telecom.PhoneAccountHandle;
 import android.telecom.TelecomManager;
@@ -43,6 +47,7 @@ import org.twinlife.twinlife.ConnectionStatus;
 import org.twinlife.twinlife.AssertPoint;
 import org.twinlife.twinlife.ConversationService;
 import org.twinlife.twinlife.ConversationService.DescriptorId;
+import org.twinlife.twinlife.ConversationService.GeolocationDescriptor;
 import org.twinlife.twinlife.ImageId;
 import org.twinlife.twinlife.ImageService;
 import org.twinlife.twinlife.JobService;
@@ -91,17 +96,22 @@ import org.webrtc.VideoTrack;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.twinlife.twinme.calls.CallState.TransferDirection.*;
 import static org.twinlife.twinme.NotificationCenter.CALL_SERVICE_INCALL_NOTIFICATION_ID;
@@ -130,6 +140,8 @@ import static org.twinlife.twinme.NotificationCenter.CALL_SERVICE_NOTIFICATION_I
  *
  * Videos:
  * - The video EGL context is created only when the video call is accepted for an incoming call, or when we start the outgoing video call.
+ * For an incoming video call, it is created while the device is ringing unless the device is low on memory or on battery
+ * (see prewarmVideo()).
  * This is done by 'setupEGLContact()' which is synchronized and can be called from any thread.
  * - Each participant must be configured for video by calling `setupVideo` from the main UI thread only.
  * - The video SurfaceView(s) are allocated by the CallService and the VideoCallActivity retrieves them through static methods.
@@ -156,7 +168,10 @@ import static org.twinlife.twinme.NotificationCenter.CALL_SERVICE_NOTIFICATION_I
  *
  * Executors & timers:
  * - a dedicated executor thread is used to perform some possibly blocking tasks such as some media player operations
+ * - each CallState has its own executor lane (see CallExecutor) for the P2P connection timers and the streaming control
+ *   so that a slow task of the active call does not delay the timers of the call on hold and the reverse
  * - the P2P connection timer is specific to each CallConnection so that they are independent from each other
+ * - the streaming blocking I/O are executed on a bounded pool shared by the calls (see MAX_STREAMING_IO_THREADS)
  * - the CallService has a shutdown timer that is fired at the end to terminate the CallService 3s after the last call terminate
  *   (see FINISH_TIMEOUT)
  */
@@ -262,6 +277,9 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
     private static final int CALL_OUTGOING_TIMEOUT = CALL_INCOMING_TIMEOUT + 15; // Give 15s more to deliver the push and wakeup the device.
     private static final int CONNECT_TIMEOUT = 15; // After accepting a call, delay before we get the connection.
     private static final int FINISH_TIMEOUT = 3;
+    private static final int PREWARM_MIN_BATTERY_LEVEL = 15; // Don't prepare the video before accept below 15% battery.
+    private static final int MAX_STREAMING_IO_THREADS = 2; // Streaming blocking I/O shared by the calls.
+    private static final int STREAMING_IO_KEEP_ALIVE = 30; // 30s
     private static final int ANDROID_STARTUP_SERVICE_MAIN_THREAD_HANGING_HACK_DELAY = 10000; // 10s in ms
 
     private class TwinmeContextObserver extends TwinmeContext.DefaultObserver {
@@ -496,9 +514,7 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
                 callConnection.setPeerVersion(offer.version);
                 callConnection.setInvited(true);
 
-                synchronized (this) {
-                    mPeers.put(peerConnectionId, callConnection);
-                }
+                putPeer(peerConnectionId, callConnection);
 
                 call.addPeerConnection(callConnection);
 
@@ -568,6 +584,7 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
     private volatile int mStartId;
 
     private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
+    private final ThreadPoolExecutor mStreamingExecutor = createStreamingExecutor();
     private ScheduledFuture<?> mShutdownTimer;
     private JobService.ProcessingLock mProcessingLock;
     private JobService.NetworkLock mNetworkLock;
@@ -582,7 +599,11 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
     private final PeerConnectionServiceObserver mPeerConnectionServiceObserver = new PeerConnectionServiceObserver();
     private final PeerCallServiceObserver mPeerCallServiceObserver = new PeerCallServiceObserver();
     private final ConversationServiceObserver mConversationServiceObserver = new ConversationServiceObserver();
-    private final Map<UUID, CallConnection> mPeers = new HashMap<>();
+    // Peer connections indexed by peerConnectionId: lookups are made from the PeerConnectionService
+    // callbacks without taking the CallService lock.  The map is changed with putPeer() and removePeer()
+    // which publish the immutable snapshot returned by getConnections().
+    private final Map<UUID, CallConnection> mPeers = new ConcurrentHashMap<>();
+    private volatile List<CallConnection> mConnections = Collections.emptyList();
     private final Map<UUID, CallState> mCallsContacts = new HashMap<>();
     private UUID mPeerConnectionIdTerminated;
     @Nullable
@@ -997,6 +1018,14 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
 
     void sendGeolocation(@NonNull CallConnection connection) {
         CallState call = connection.getCall();
+
+        // Send the geolocation descriptor already shared with the other participants.
+        final GeolocationDescriptor currentGeolocation = call.getCurrentGeolocation();
+        if (currentGeolocation != null) {
+            connection.sendDescriptor(currentGeolocation);
+            return;
+        }
+
         Location userLocation = mLocationManager.getUserLocation();
         if (userLocation == null) {
             return;
@@ -1278,6 +1307,7 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
         }
 
         mExecutor.shutdownNow();
+        mStreamingExecutor.shutdownNow();
 
         if (mAudioManagerDevices != null && mAudioManagerDevices.isRunning()) {
             mAudioManagerDevices.stop();
@@ -1449,6 +1479,7 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
             Log.d(LOG_TAG, "onActionIncomingCall intent=" + intent);
         }
 
+        final long intentTime = SystemClock.elapsedRealtimeNanos();
         final UUID peerConnectionId = (UUID) intent.getSerializableExtra(CallService.PARAM_PEER_CONNECTION_ID);
         final CallStatus callStatus = (CallStatus) intent.getSerializableExtra(PARAM_CALL_MODE);
         final boolean transfer = intent.getBooleanExtra(PARAM_TRANSFER, false);
@@ -1535,6 +1566,7 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
         }
 
         call = new CallState(this, mPeerCallService, originatorId, groupId, true);
+        call.getSetupTrace().mark(CallSetupTrace.Phase.INTENT_RECEIVED, intentTime);
         call.setAudioVideoState(callStatus);
 
         if (mActiveCall == null) {
@@ -1552,7 +1584,7 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
                 call, peerConnectionId, callStatus, null);
         callConnection.checkOperation(ConnectionOperation.CREATE_OUTGOING_PEER_CONNECTION);
 
-        mPeers.put(peerConnectionId, callConnection);
+        putPeer(peerConnectionId, callConnection);
         mCallsContacts.put(originatorId, call);
 
         call.addPeerConnection(callConnection);
@@ -1569,6 +1601,10 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
 
         startNotification();
 
+        if (callStatus != CallStatus.INCOMING_VIDEO_BELL && call.isVideo()) {
+            prewarmVideo(call, callConnection);
+        }
+
         final UUID callId = call.getId();
 
         mExecutor.execute(() -> {
@@ -1602,6 +1638,7 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
                 });
             } else {
                 mPeerConnectionService.sendDeviceRinging(peerConnectionId);
+                callConnection.getCall().getSetupTrace().mark(CallSetupTrace.Phase.RINGING);
             }
 
             if (!capabilities.hasAutoAnswerCall()) {
@@ -1612,7 +1649,7 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
             }
         });
 
-        callConnection.setTimer(mExecutor, this::callTimeout, CALL_INCOMING_TIMEOUT, callStatus);
+        callConnection.setTimer(this::callTimeout, CALL_INCOMING_TIMEOUT, callStatus);
     }
 
     void startIncomingCallRingtone(@NonNull CallConnection callConnection) {
@@ -1635,7 +1672,7 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
             final CallConnection callConnection = new CallConnection(mPeerConnectionService, mTwinmeContext.getSerializerFactory(),
                     call, peerConnectionId, callStatus.toAccepted(), null);
 
-            mPeers.put(peerConnectionId, callConnection);
+            putPeer(peerConnectionId, callConnection);
             call.addPeerConnection(callConnection);
 
             call.setTransferDirection(TO_BROWSER);
@@ -1646,7 +1683,7 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
             final CallConnection callConnection = new CallConnection(mPeerConnectionService, mTwinmeContext.getSerializerFactory(),
                     call, peerConnectionId, connectionStatus, null);
             callConnection.checkOperation(ConnectionOperation.CREATE_OUTGOING_PEER_CONNECTION);
-            mPeers.put(peerConnectionId, callConnection);
+            putPeer(peerConnectionId, callConnection);
             call.addPeerConnection(callConnection);
 
             CallStatus currentCallStatus = call.getStatus();
@@ -1671,7 +1708,7 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
                         call.inviteCallRoom(newOperation(callConnection, ConnectionOperation.INVITE_CALL_ROOM), callConnection);
                     }
 
-                    callConnection.setTimer(mExecutor, this::callTimeout, CONNECT_TIMEOUT, callConnection.getStatus().toAccepted());
+                    callConnection.setTimer(this::callTimeout, CONNECT_TIMEOUT, callConnection.getStatus().toAccepted());
                 } else {
                     onError(callConnection, ConnectionOperation.GET_CONTACT, errorCode, null);
                 }
@@ -1715,6 +1752,7 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
             Log.d(LOG_TAG, "onActionOutgoingCall intent=" + intent);
         }
 
+        final long intentTime = SystemClock.elapsedRealtimeNanos();
         final UUID contactId = (UUID) intent.getSerializableExtra(PARAM_CONTACT_ID);
         final UUID groupId = (UUID) intent.getSerializableExtra(PARAM_GROUP_ID);
 
@@ -1738,6 +1776,7 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
         final CallStatus callStatus;
         if (call == null) {
             call = new CallState(this, mPeerCallService, contactId, groupId, false);
+            call.getSetupTrace().mark(CallSetupTrace.Phase.INTENT_RECEIVED, intentTime);
             callStatus = askCallStatus;
             call.setAudioVideoState(callStatus);
             mActiveCall = call;
@@ -1856,7 +1895,7 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
             // Must be called from the main UI thread.
             uiThreadHandler.post(() -> setupVideo(callConnection.getMainParticipant()));
 
-            callConnection.setTimer(mExecutor, this::callTimeout, CALL_OUTGOING_TIMEOUT, callStatus);
+            callConnection.setTimer(this::callTimeout, CALL_OUTGOING_TIMEOUT, callStatus);
 
             onOperation(callConnection);
         }
@@ -1914,7 +1953,7 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
         // Must be called from the main UI thread.
         uiThreadHandler.post(() -> setupVideo(callConnection.getMainParticipant()));
 
-        callConnection.setTimer(mExecutor, this::callTimeout, CALL_OUTGOING_TIMEOUT, callStatus);
+        callConnection.setTimer(this::callTimeout, CALL_OUTGOING_TIMEOUT, callStatus);
 
         if (mCallNotifications.get(call.getId()) == null) {
             mServiceNotification = mNotificationCenter.createOutgoingCallNotification(originator, callStatus, call.getId());
@@ -1951,6 +1990,7 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
             return;
         }
         mNotificationId = CALL_SERVICE_INCALL_NOTIFICATION_ID;
+        call.getSetupTrace().mark(CallSetupTrace.Phase.ACCEPTED);
 
         // Must be called from the main UI thread.  The audio was setup by onActionIncomingCall().
         setupVideo(callConnection.getMainParticipant());
@@ -1965,7 +2005,7 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
 
             stopRingtone();
 
-            callConnection.setTimer(mExecutor, this::callTimeout, CONNECT_TIMEOUT, mode.toAccepted());
+            callConnection.setTimer(this::callTimeout, CONNECT_TIMEOUT, mode.toAccepted());
 
             NotificationManagerCompat.from(mTwinmeApplication).cancel(CALL_SERVICE_INCOMING_NOTIFICATION_ID);
 
@@ -2007,7 +2047,7 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
             }
             mediaMetaData.artwork = artwork;
         }
-        call.startStreaming(getContentResolver(), uri, mediaMetaData, mExecutor);
+        call.startStreaming(getContentResolver(), uri, mediaMetaData, mStreamingExecutor);
 
     }
 
@@ -2324,7 +2364,7 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
         }
         mNotificationId = CALL_SERVICE_INCALL_NOTIFICATION_ID;
 
-        callConnection.setTimer(mExecutor, this::callTimeout, CONNECT_TIMEOUT, callConnection.getStatus());
+        callConnection.setTimer(this::callTimeout, CONNECT_TIMEOUT, callConnection.getStatus());
 
         onOperation(callConnection);
 
@@ -2378,6 +2418,23 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
     // Private methods
     //
 
+    /**
+     * Create the bounded pool for the streaming blocking I/O.  Each streamer serializes its reads on
+     * this pool (see SerialExecutor) and the threads stop when there is no streaming.
+     *
+     * @return the streaming I/O pool.
+     */
+    @NonNull
+    private static ThreadPoolExecutor createStreamingExecutor() {
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_STREAMING_IO_THREADS, MAX_STREAMING_IO_THREADS,
+                STREAMING_IO_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> new Thread(runnable, "Streaming-IO-" + threadCount.incrementAndGet()));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     private long newOperation(@NonNull CallConnection callConnection, int operationId) {
         if (DEBUG) {
             Log.d(LOG_TAG, "newOperation: operationId=" + operationId);
@@ -2811,6 +2868,7 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
         }
 
         CallState call = callConnection.getCall();
+        call.getSetupTrace().mark(CallSetupTrace.Phase.PEER_CONNECTION_CREATED);
 
         // If the microphone is muted, setup the audio direction accordingly.
         if (!call.isAudioSourceOn() && mPeerConnectionService != null) {
@@ -2837,9 +2895,8 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
 
         final CallState callState = callConnection.getCall();
         if (errorCode == ErrorCode.SUCCESS && peerConnectionId != null) {
-            synchronized (this) {
-                mPeers.put(peerConnectionId, callConnection);
-            }
+            putPeer(peerConnectionId, callConnection);
+            callState.getSetupTrace().mark(CallSetupTrace.Phase.PEER_CONNECTION_CREATED);
 
             final boolean sendVideo = callState.isVideoSourceOn();
             final EglBase.Context eglContext = sendVideo ? getEGLContext() : null;
@@ -3056,9 +3113,10 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
         }
 
         CallState call = callConnection.getCall();
+        call.getSetupTrace().mark(CallSetupTrace.Phase.ACCEPTED);
 
         callConnection.setPeerVersion(offer.version);
-        callConnection.setTimer(mExecutor, this::callTimeout, CONNECT_TIMEOUT, callConnection.getStatus().toAccepted());
+        callConnection.setTimer(this::callTimeout, CONNECT_TIMEOUT, callConnection.getStatus().toAccepted());
 
         sendMessage(MESSAGE_ACCEPTED_CALL, call, callConnection);
     }
@@ -3095,6 +3153,7 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
 
         final CallState.UpdateState status = call.updateConnectionState(callConnection, state);
         if (status == CallState.UpdateState.FIRST_CONNECTION) {
+            call.getSetupTrace().mark(CallSetupTrace.Phase.CONNECTED);
 
             if (mAudioManagerDevices != null) {
                 // Update the audio mode, we are now connected.
@@ -3161,7 +3220,7 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
             final Originator originator = call.getOriginator();
             final CallStatus callStatus = call.getStatus().toAccepted();
             for (CallConnection connection : incomingGroupCallConnections) {
-                connection.setTimer(mExecutor, this::callTimeout, CONNECT_TIMEOUT, callStatus);
+                connection.setTimer(this::callTimeout, CONNECT_TIMEOUT, callStatus);
                 // We use CallState's originator because we know these connections come from the same group click-to-call link,
                 // and we know it can't be null at this stage.
                 setOriginator(connection, originator);
@@ -3189,6 +3248,13 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
         mCallNotifications.remove(call.getId());
         mKeyCheckSessionHandler = null;
 
+        // Discard the video renderers prepared while ringing if the call was not answered.  CallState.release()
+        // does not cover this case: it is only called by onDestroy() on mActiveCall and mHoldCall which are
+        // cleared below for the terminated call.
+        if (call.isPrewarmed() && !call.isConnected()) {
+            uiThreadHandler.post(call::releaseLocalRenderer);
+        }
+
         sendMessage(MESSAGE_TERMINATE_CALL, call);
 
         // Call on hold has terminated.
@@ -3263,7 +3329,10 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
             }
         }
 
-        mPeers.remove(callConnection.getPeerConnectionId());
+        final UUID terminatedPeerConnectionId = callConnection.getPeerConnectionId();
+        if (terminatedPeerConnectionId != null) {
+            removePeer(terminatedPeerConnectionId);
+        }
 
         mCallsContacts.remove(call.getOriginatorId());
 
@@ -3328,6 +3397,8 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
             Log.d(LOG_TAG, "onAddRemoteMediaStreamTrack: mediaStream=" + mediaStream);
         }
 
+        callConnection.getCall().getSetupTrace().mark(CallSetupTrace.Phase.REMOTE_TRACK);
+
         if (mediaStream instanceof VideoTrack) {
             uiThreadHandler.post(() -> {
                 setupVideo(callConnection.getMainParticipant());
@@ -3365,6 +3436,7 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
             Log.d(LOG_TAG, "onDeviceRinging");
         }
 
+        callConnection.getCall().getSetupTrace().mark(CallSetupTrace.Phase.RINGING);
         if (!CallStatus.isActive(callConnection.getCall().getStatus())) {
             startRingtone(RingtoneSoundType.RINGTONE_OUTGOING_CALL_RINGING);
         }
@@ -3378,13 +3450,50 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
      * @return the current frozen list of connections.
      */
     @NonNull
-    private synchronized List<CallConnection> getConnections() {
+    private List<CallConnection> getConnections() {
         if (DEBUG) {
             Log.d(LOG_TAG, "getConnections");
         }
 
-        // Get a copy of the peer connections because some operations could remove them while we iterate.
-        return new ArrayList<>(mPeers.values());
+        // The snapshot is immutable: operations which remove a connection while we iterate publish a new list.
+        return mConnections;
+    }
+
+    /**
+     * Add the peer connection and publish a new snapshot of the connections.
+     *
+     * @param peerConnectionId the peer connection id.
+     * @param callConnection the call connection.
+     */
+    private void putPeer(@NonNull UUID peerConnectionId, @NonNull CallConnection callConnection) {
+
+        // Serialize the changes so that the last published snapshot contains every connection.
+        synchronized (mPeers) {
+            mPeers.put(peerConnectionId, callConnection);
+            updateConnections();
+        }
+    }
+
+    /**
+     * Remove the peer connection and publish a new snapshot of the connections.
+     *
+     * @param peerConnectionId the peer connection id.
+     */
+    private void removePeer(@NonNull UUID peerConnectionId) {
+
+        synchronized (mPeers) {
+            mPeers.remove(peerConnectionId);
+            updateConnections();
+        }
+    }
+
+    /**
+     * Publish a new snapshot of the peer connections after a change on mPeers.
+     */
+    private void updateConnections() {
+
+        mConnections = mPeers.isEmpty() ? Collections.emptyList()
+                : Collections.unmodifiableList(Arrays.asList(mPeers.values().toArray(new CallConnection[0])));
     }
 
     /**
@@ -3393,7 +3502,7 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
      * @param peerConnectionId the peer connection id.
      * @return true if we know this peer connection.
      */
-    private synchronized boolean isPeerConnection(@NonNull UUID peerConnectionId) {
+    private boolean isPeerConnection(@NonNull UUID peerConnectionId) {
         if (DEBUG) {
             Log.d(LOG_TAG, "isPeerConnection peerConnectionId=" + peerConnectionId);
         }
@@ -3402,7 +3511,7 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
     }
 
     @Nullable
-    private synchronized CallConnection findPeerConnection(@NonNull UUID peerConnectionId) {
+    private CallConnection findPeerConnection(@NonNull UUID peerConnectionId) {
         if (DEBUG) {
             Log.d(LOG_TAG, "findPeerConnection peerConnectionId=" + peerConnectionId);
         }
@@ -3542,6 +3651,8 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
             Log.d(LOG_TAG, "setOriginator callConnection=" + callConnection);
         }
 
+        callConnection.getCall().getSetupTrace().mark(CallSetupTrace.Phase.ORIGINATOR_RESOLVED);
+
         Bitmap avatar = null;
         ImageId avatarId = originator.getAvatarId();
         if (avatarId != null) {
@@ -3572,6 +3683,72 @@ public class CallService extends Service implements PeerConnectionService.PeerCo
         callConnection.setOriginator(originator, avatar, identityAvatar, groupAvatar);
     }
 
+    /**
+     * Prepare the EGL context and the video renderers while the incoming video call is ringing so that
+     * they are ready when the call is accepted (setupLocalVideo() and setupVideo() will re-use them).
+     * The EGL context is created from the executor thread and the renderers from the main UI thread.
+     * Nothing is prepared when the device is low on memory or on battery: the video is then setup
+     * when the call is accepted.  The renderers are released if the call terminates before being connected.
+     */
+    private void prewarmVideo(@NonNull CallState call, @NonNull CallConnection callConnection) {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "prewarmVideo call=" + call);
+        }
+
+        if (!canPrewarm()) {
+            return;
+        }
+
+        mExecutor.execute(() -> {
+            if (getEGLContext() == null) {
+                return;
+            }
+
+            uiThreadHandler.post(() -> {
+                if (call.isTerminated() || call.isConnected()) {
+                    return;
+                }
+
+                call.setPrewarmed();
+                setupLocalVideo(call);
+                setupVideo(callConnection.getMainParticipant());
+            });
+        });
+    }
+
+    /**
+     * Check whether we can prepare the media before the incoming call is accepted.
+     *
+     * @return false if the device is low on memory or on battery.
+     */
+    private boolean canPrewarm() {
+
+        final ActivityManager activityManager = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
+        if (activityManager != null) {
+            if (activityManager.isLowRamDevice()) {
+                return false;
+            }
+            final ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+            activityManager.getMemoryInfo(memoryInfo);
+            if (memoryInfo.lowMemory) {
+                return false;
+            }
+        }
+
+        final PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        if (powerManager != null && powerManager.isPowerSaveMode()) {
+            return false;
+        }
+
+        final BatteryManager batteryManager = (BatteryManager) getSystemService(Context.BATTERY_SERVICE);
+        if (batteryManager != null) {
+            final int level = batteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CAPACITY);
+            final boolean charging = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && batteryManager.isCharging();
+            return charging || level <= 0 || level >= PREWARM_MIN_BATTERY_LEVEL;
+        }
+        return true;
+    }
+
     private void setupAudio() {
         if (DEBUG) {
             Log.d(LOG_TAG, "setupAudio");
@@ -0,0 +1,248 @@
+/*
+ *  Copyright (c) 2025 twinlife SA.
+ *  SPDX-License-Identifier: AGPL-3.0-only
+ *
+ *  Contributors:
+ *   Stephane Carrez (Stephane.Carrez@twin.life)
+ */
+
+package org.twinlife.twinme.calls;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Timeline of the call setup: each phase is stamped with the monotonic time in nanoseconds when it
+ * is reached for the first time in the call (for a group call, this is the first connection that
+ * reaches the phase).  The timeline can be obtained with CallState.getSetupTrace() to be logged or
+ * uploaded by the application.
+ *
+ * The delay of each phase relative to INTENT_RECEIVED is also collected for the last calls to compute
+ * percentiles across calls (see getPercentile()).  Incoming and outgoing calls are collected separately:
+ * RINGING and ACCEPTED don't have the same meaning in each direction and for an incoming call, the
+ * following phases include the time the user takes to answer.
+ */
+public final class CallSetupTrace {
+    private static final String LOG_TAG = "CallSetupTrace";
+    private static final boolean DEBUG = false;
+
+    // Number of calls used to compute the percentiles.
+    private static final int MAX_SAMPLES = 64;
+
+    public enum Phase {
+        // The incoming or outgoing call intent is received by the CallService.
+        INTENT_RECEIVED,
+        // The contact or group of the call is known.
+        ORIGINATOR_RESOLVED,
+        // The P2P connection is created: the offer (outgoing) or the answer (incoming) is sent.
+        PEER_CONNECTION_CREATED,
+        // The peer device is ringing (outgoing) or we are ringing (incoming).
+        RINGING,
+        // The peer accepted our offer (outgoing) or we accepted the call (incoming).
+        ACCEPTED,
+        // The first P2P connection reached the CONNECTED state.
+        CONNECTED,
+        // The data channel is opened.
+        DATA_CHANNEL_OPEN,
+        // The first remote audio or video track is received.
+        REMOTE_TRACK,
+        // The first remote video frame is rendered.
+        FIRST_FRAME
+    }
+
+    // Samples and sample counts indexed by the call direction (see getDirection()) and the phase.
+    private static final long[][][] sSamples = new long[2][Phase.values().length][MAX_SAMPLES];
+    private static final int[][] sSampleCount = new int[2][Phase.values().length];
+
+    @NonNull
+    private final long[] mTimes;
+    private final boolean mIncoming;
+
+    CallSetupTrace(boolean incoming) {
+
+        mTimes = new long[Phase.values().length];
+        mIncoming = incoming;
+    }
+
+    /**
+     * @return true if this is the trace of an incoming call.
+     */
+    public boolean isIncoming() {
+
+        return mIncoming;
+    }
+
+    /**
+     * Record the phase with the current time unless it was already reached.
+     *
+     * @param phase the call setup phase.
+     */
+    void mark(@NonNull Phase phase) {
+
+        mark(phase, SystemClock.elapsedRealtimeNanos());
+    }
+
+    /**
+     * Record the phase with the given time unless it was already reached.
+     *
+     * @param phase the call setup phase.
+     * @param time the monotonic time in nanoseconds (SystemClock.elapsedRealtimeNanos()).
+     */
+    void mark(@NonNull Phase phase, long time) {
+
+        final long delay;
+        synchronized (this) {
+            if (mTimes[phase.ordinal()] != 0) {
+
+                return;
+            }
+            mTimes[phase.ordinal()] = time;
+
+            final long start = mTimes[Phase.INTENT_RECEIVED.ordinal()];
+            if (phase == Phase.INTENT_RECEIVED || start == 0) {
+
+                return;
+            }
+            delay = time - start;
+        }
+        if (DEBUG) {
+            Log.d(LOG_TAG, "mark phase=" + phase + " delay=" + (delay / 1000000L) + "ms");
+        }
+
+        final int direction = getDirection(mIncoming);
+        synchronized (sSamples) {
+            final int count = sSampleCount[direction][phase.ordinal()]++;
+            sSamples[direction][phase.ordinal()][count % MAX_SAMPLES] = delay;
+        }
+    }
+
+    /**
+     * Get the monotonic time in nanoseconds when the phase was reached.
+     *
+     * @param phase the call setup phase.
+     * @return the time or 0 if the phase was not reached.
+     */
+    public synchronized long getTime(@NonNull Phase phase) {
+
+        return mTimes[phase.ordinal()];
+    }
+
+    /**
+     * Get the delay in nanoseconds between the reception of the call intent and the phase.
+     *
+     * @param phase the call setup phase.
+     * @return the delay or -1 if the phase was not reached.
+     */
+    public synchronized long getDelay(@NonNull Phase phase) {
+
+        final long start = mTimes[Phase.INTENT_RECEIVED.ordinal()];
+        final long time = mTimes[phase.ordinal()];
+        if (start == 0 || time == 0) {
+            return -1;
+        }
+        return time - start;
+    }
+
+    /**
+     * Get the percentile of the phase delay in nanoseconds computed on the last incoming or outgoing calls.
+     *
+     * @param incoming true for the incoming calls, false for the outgoing calls.
+     * @param phase the call setup phase.
+     * @param percentile the percentile between 0 and 100.
+     * @return the delay or -1 if no call reached the phase.
+     */
+    public static long getPercentile(boolean incoming, @NonNull Phase phase, int percentile) {
+
+        final int direction = getDirection(incoming);
+        final long[] samples;
+        synchronized (sSamples) {
+            final int count = Math.min(sSampleCount[direction][phase.ordinal()], MAX_SAMPLES);
+            if (count == 0) {
+                return -1;
+            }
+            samples = Arrays.copyOf(sSamples[direction][phase.ordinal()], count);
+        }
+
+        Arrays.sort(samples);
+        final int index = (int) Math.ceil(percentile / 100.0 * samples.length) - 1;
+        return samples[Math.max(0, Math.min(index, samples.length - 1))];
+    }
+
+    /**
+     * Get the number of incoming or outgoing calls which reached the phase since the application started.
+     *
+     * @param incoming true for the incoming calls, false for the outgoing calls.
+     * @param phase the call setup phase.
+     * @return the number of calls.
+     */
+    public static int getCount(boolean incoming, @NonNull Phase phase) {
+
+        synchronized (sSamples) {
+            return sSampleCount[getDirection(incoming)][phase.ordinal()];
+        }
+    }
+
+    /**
+     * Describe the percentiles p50/p90/p99 of each phase delay in milliseconds for the incoming or outgoing calls.
+     *
+     * @param incoming true for the incoming calls, false for the outgoing calls.
+     * @return the summary of the call setup delays.
+     */
+    @NonNull
+    public static String getSummary(boolean incoming) {
+
+        final StringBuilder stringBuilder = new StringBuilder();
+        for (Phase phase : Phase.values()) {
+            if (phase == Phase.INTENT_RECEIVED || getCount(incoming, phase) == 0) {
+                continue;
+            }
+            if (stringBuilder.length() > 0) {
+                stringBuilder.append(' ');
+            }
+            stringBuilder.append(phase);
+            stringBuilder.append('=');
+            stringBuilder.append(getPercentile(incoming, phase, 50) / 1000000L);
+            stringBuilder.append('/');
+            stringBuilder.append(getPercentile(incoming, phase, 90) / 1000000L);
+            stringBuilder.append('/');
+            stringBuilder.append(getPercentile(incoming, phase, 99) / 1000000L);
+        }
+        return stringBuilder.toString();
+    }
+
+    private static int getDirection(boolean incoming) {
+
+        return incoming ? 1 : 0;
+    }
+
+    //
+    // Override Object methods
+    //
+
+    @Override
+    @NonNull
+    public String toString() {
+
+        final StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append("CallSetupTrace[");
+        stringBuilder.append(mIncoming ? "incoming" : "outgoing");
+        for (Phase phase : Phase.values()) {
+            final long delay = getDelay(phase);
+            if (phase == Phase.INTENT_RECEIVED || delay < 0) {
+                continue;
+            }
+            stringBuilder.append(' ');
+            stringBuilder.append(phase);
+            stringBuilder.append('=');
+            stringBuilder.append(delay / 1000000L);
+            stringBuilder.append("ms");
+        }
+        stringBuilder.append(']');
+
+        return stringBuilder.toString();
+    }
+}
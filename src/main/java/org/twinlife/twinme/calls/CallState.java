@@ -30,6 +30,7 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
+import android.location.Location;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Handler;
@@ -61,6 +62,8 @@ import org.webrtc.SurfaceViewRenderer;
 import org.webrtc.ThreadUtils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -68,7 +71,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -99,7 +102,18 @@ public final class CallState extends DescriptorFactory {
 
     private static final int MAX_MEMBER_UI_SUPPORTED = 8;
 
+    // Default number of messages and geolocations kept in the call history.
+    private static final int DEFAULT_MAX_DESCRIPTORS = 500;
+
+    // Geolocation streaming: positions are rounded to ~1m and sent only when we moved by more than 5m.
+    private static final double GEOLOCATION_QUANTUM = 0.00001; // degree
+    private static final double GEOLOCATION_ALTITUDE_QUANTUM = 1.0; // meter
+    private static final float GEOLOCATION_MIN_DISTANCE = 5.0f; // meters
+
     private final List<CallConnection> mPeers = new ArrayList<>();
+    // Immutable snapshot of mPeers which is replaced each time mPeers is modified (copy-on-write).
+    @NonNull
+    private volatile List<CallConnection> mConnections = Collections.emptyList();
     private final CallService mCallService;
     @NonNull
     private final PeerCallService mPeerCallService;
@@ -110,9 +124,14 @@ public final class CallState extends DescriptorFactory {
     @Nullable
     private final UUID mGroupId;
     @NonNull
-    private final List<Descriptor> mDescriptors;
+    private final DescriptorHistory mDescriptors;
+    @NonNull
+    private final CallExecutor mExecutor;
+    @NonNull
+    private final CallSetupTrace mSetupTrace;
     @Nullable
     private SurfaceViewRenderer mLocalRenderer;
+    private boolean mPrewarmed;
     private long mConnectionStartTime = 0;
     @Nullable
     private volatile Originator mOriginator;
@@ -121,6 +140,8 @@ public final class CallState extends DescriptorFactory {
     @Nullable
     private volatile Bitmap mIdentityAvatar;
     @Nullable
+    private volatile AvatarCache.EncodedAvatar mIdentityAvatarData;
+    @Nullable
     private volatile Bitmap mGroupAvatar;
     @Nullable
     private volatile Capabilities mIdentityCapabilities;
@@ -184,6 +205,11 @@ public final class CallState extends DescriptorFactory {
     private boolean mVideoSourceOn = false;
     @Nullable
     private GeolocationDescriptor mCurrentGeolocation;
+    private double mSentLongitude;
+    private double mSentLatitude;
+    private double mSentAltitude;
+    private double mSentMapLongitudeDelta;
+    private double mSentMapLatitudeDelta;
 
     @NonNull
     private CameraType mCameraType = CameraType.FRONT;
@@ -256,6 +282,28 @@ public final class CallState extends DescriptorFactory {
         return mIdentityAvatar;
     }
 
+    /**
+     * Get the identity avatar encoded for the ParticipantInfoIQ.  The avatar is encoded once for the call
+     * and shared by every connection.
+     *
+     * @return the encoded identity avatar or null.
+     */
+    @Nullable
+    AvatarCache.EncodedAvatar getIdentityAvatarData() {
+
+        final Bitmap avatar = mIdentityAvatar;
+        if (avatar == null) {
+            return null;
+        }
+
+        AvatarCache.EncodedAvatar result = mIdentityAvatarData;
+        if (result == null || result.bitmap != avatar) {
+            result = AvatarCache.encode(avatar);
+            mIdentityAvatarData = result;
+        }
+        return result;
+    }
+
     /**
      * Get the zoomable config which indicates whether the peer can take control
      * of our video and zoom.
@@ -590,8 +638,12 @@ public final class CallState extends DescriptorFactory {
      * It must be called from the main UI thread only.  The first call creates the Geolocation description
      * and other calls will update it until deleteGeolocation() is called.
      *
+     * The position is quantized (see GEOLOCATION_QUANTUM) and an update is sent only when we moved by more than
+     * GEOLOCATION_MIN_DISTANCE or when the map area changed.  Each connection sends its updates at most once
+     * per second and only the last position is sent (see CallConnection.sendGeolocationUpdate()).
+     *
      * @param {longitude, latitude, altitude, mapLongitudeDelta, mapLatitudeDelta}  the geolocation to send.
-     * @return true if the descriptor was serialized and sent.
+     * @return true if the descriptor was sent or an update is queued.
      */
     public boolean sendGeolocation(double longitude, double latitude, double altitude,
                                    double mapLongitudeDelta, double mapLatitudeDelta) {
@@ -601,16 +653,31 @@ public final class CallState extends DescriptorFactory {
 
         ThreadUtils.checkIsOnMainThread();
 
+        longitude = quantize(longitude, GEOLOCATION_QUANTUM);
+        latitude = quantize(latitude, GEOLOCATION_QUANTUM);
+        altitude = quantize(altitude, GEOLOCATION_ALTITUDE_QUANTUM);
+        mapLongitudeDelta = quantize(mapLongitudeDelta, GEOLOCATION_QUANTUM);
+        mapLatitudeDelta = quantize(mapLatitudeDelta, GEOLOCATION_QUANTUM);
         if (mCurrentGeolocation == null) {
+            setSentGeolocation(longitude, latitude, altitude, mapLongitudeDelta, mapLatitudeDelta);
             mCurrentGeolocation = createGeolocation(longitude, latitude, altitude, mapLongitudeDelta, mapLatitudeDelta);
             return sendDescriptor(mCurrentGeolocation);
         }
 
+        // Suppress the update if we have not moved enough and the map area is the same.
+        final float[] distance = new float[1];
+        Location.distanceBetween(mSentLatitude, mSentLongitude, latitude, longitude, distance);
+        if (distance[0] < GEOLOCATION_MIN_DISTANCE && Math.abs(altitude - mSentAltitude) < GEOLOCATION_MIN_DISTANCE
+                && mapLongitudeDelta == mSentMapLongitudeDelta && mapLatitudeDelta == mSentMapLatitudeDelta) {
+            return false;
+        }
+        setSentGeolocation(longitude, latitude, altitude, mapLongitudeDelta, mapLatitudeDelta);
+
         boolean result = false;
         final List<CallConnection> connectionList = getConnections();
         for (CallConnection connection : connectionList) {
             if (Boolean.TRUE.equals(connection.isGeolocSupported())) {
-                result |= connection.updateGeolocation(mCurrentGeolocation, longitude, latitude, altitude, mapLongitudeDelta, mapLatitudeDelta);
+                result |= connection.sendGeolocationUpdate(mCurrentGeolocation, longitude, latitude, altitude, mapLongitudeDelta, mapLatitudeDelta);
             }
         }
         return result;
@@ -631,6 +698,7 @@ public final class CallState extends DescriptorFactory {
         final List<CallConnection> connectionList = getConnections();
         for (CallConnection connection : connectionList) {
             if (Boolean.TRUE.equals(connection.isGeolocSupported())) {
+                connection.cancelGeolocationUpdate();
                 result |= connection.deleteDescriptor(mCurrentGeolocation);
             }
         }
@@ -638,6 +706,21 @@ public final class CallState extends DescriptorFactory {
         return result;
     }
 
+    private void setSentGeolocation(double longitude, double latitude, double altitude,
+                                    double mapLongitudeDelta, double mapLatitudeDelta) {
+
+        mSentLongitude = longitude;
+        mSentLatitude = latitude;
+        mSentAltitude = altitude;
+        mSentMapLongitudeDelta = mapLongitudeDelta;
+        mSentMapLatitudeDelta = mapLatitudeDelta;
+    }
+
+    private static double quantize(double value, double quantum) {
+
+        return Math.rint(value / quantum) * quantum;
+    }
+
     public void markDescriptorRead(@NonNull Descriptor descriptor) {
         if (DEBUG) {
             Log.d(LOG_TAG, "markDescriptorRead descriptor=" + descriptor);
@@ -647,11 +730,12 @@ public final class CallState extends DescriptorFactory {
     }
 
     /**
-     * Get the descriptors that have been received and sent.
+     * Get the descriptors that have been received and sent and which are still in the call history.
      * It must be called from the main UI thread only.
      *
      * @return the list of descriptors in the order in which they are sent & received.
      */
+    @NonNull
     public List<Descriptor> getDescriptors() {
         if (DEBUG) {
             Log.d(LOG_TAG, "getDescriptors");
@@ -659,7 +743,72 @@ public final class CallState extends DescriptorFactory {
 
         ThreadUtils.checkIsOnMainThread();
 
-        return mDescriptors;
+        return mDescriptors.getSince(0);
+    }
+
+    /**
+     * Get the descriptors sent and received after the given sequence number so that the UI can apply
+     * only the new items.  When the UI is late and some descriptors were dropped from the history,
+     * the list starts with the oldest descriptor still in the history (see getFirstDescriptorSequence()).
+     * It must be called from the main UI thread only.
+     *
+     * @param sequence the sequence number of the last descriptor known by the caller.
+     * @return the list of new descriptors in the order in which they are sent & received.
+     */
+    @NonNull
+    public List<Descriptor> getDescriptorsSince(long sequence) {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "getDescriptorsSince sequence=" + sequence);
+        }
+
+        ThreadUtils.checkIsOnMainThread();
+
+        return mDescriptors.getSince(sequence);
+    }
+
+    /**
+     * Get the sequence number of the last descriptor sent or received.
+     * It must be called from the main UI thread only.
+     *
+     * @return the sequence number or 0 if there is no descriptor.
+     */
+    public long getLastDescriptorSequence() {
+
+        ThreadUtils.checkIsOnMainThread();
+
+        return mDescriptors.getLastSequence();
+    }
+
+    /**
+     * Get the sequence number of the oldest descriptor still in the call history.
+     * It must be called from the main UI thread only.
+     *
+     * @return the sequence number of the oldest descriptor.
+     */
+    public long getFirstDescriptorSequence() {
+
+        ThreadUtils.checkIsOnMainThread();
+
+        return mDescriptors.getFirstSequence();
+    }
+
+    /**
+     * Set the maximum number of descriptors kept in the call history and an optional listener which is
+     * called with the descriptors dropped from the history (for example to save them in the conversation).
+     * It must be called from the main UI thread only.
+     *
+     * @param maxDescriptors the maximum number of descriptors.
+     * @param spillListener the optional listener.
+     */
+    public void setDescriptorHistory(int maxDescriptors, @Nullable DescriptorHistory.SpillListener spillListener) {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "setDescriptorHistory maxDescriptors=" + maxDescriptors);
+        }
+
+        ThreadUtils.checkIsOnMainThread();
+
+        mDescriptors.setSpillListener(spillListener);
+        mDescriptors.setCapacity(maxDescriptors);
     }
 
     /**
@@ -1032,22 +1181,32 @@ public final class CallState extends DescriptorFactory {
      * @return the current frozen list of connections.
      */
     @NonNull
-    public synchronized List<CallConnection> getConnections() {
+    public List<CallConnection> getConnections() {
         if (DEBUG) {
             Log.d(LOG_TAG, "getConnections");
         }
 
-        // Get a copy of the peer connections because some operations could remove them while we iterate.
-        return new ArrayList<>(mPeers);
+        // The snapshot is immutable: operations which remove a connection while we iterate publish a new list.
+        return mConnections;
     }
 
     public synchronized void clearConnections() {
         mPeers.clear();
+        updateConnections();
+    }
+
+    /**
+     * Publish a new snapshot of the peer connections after a change on mPeers.
+     */
+    private void updateConnections() {
+
+        mConnections = mPeers.isEmpty() ? Collections.emptyList()
+                : Collections.unmodifiableList(Arrays.asList(mPeers.toArray(new CallConnection[0])));
     }
 
     @Nullable
-    synchronized CallConnection getConnectionById(@NonNull UUID peerConnectionId) {
-        for (CallConnection connection : mPeers) {
+    CallConnection getConnectionById(@NonNull UUID peerConnectionId) {
+        for (CallConnection connection : mConnections) {
             if (peerConnectionId.equals(connection.getPeerConnectionId())) {
                 return connection;
             }
@@ -1142,10 +1301,10 @@ public final class CallState extends DescriptorFactory {
      * @param contentResolver the content resolver.
      * @param uri the uri to stream.
      * @param mediaMetaData the optional information describing the media.
-     * @param executor the executor to handle the streaming.
+     * @param ioExecutor the shared executor for the streaming blocking I/O.
      */
     void startStreaming(@NonNull ContentResolver contentResolver, @NonNull Uri uri,
-                        @Nullable MediaMetaData mediaMetaData, @NonNull ScheduledExecutorService executor) {
+                        @Nullable MediaMetaData mediaMetaData, @NonNull Executor ioExecutor) {
         if (DEBUG) {
             Log.d(LOG_TAG, "startStreaming uri=" + uri + " mediaMetaData=" + mediaMetaData);
         }
@@ -1155,7 +1314,7 @@ public final class CallState extends DescriptorFactory {
         synchronized (this) {
             oldStreamer = mStreamer;
             mLastStreamIdent++;
-            mStreamer = newStreamer = new StreamerImpl(this, mLastStreamIdent, mediaMetaData, executor);
+            mStreamer = newStreamer = new StreamerImpl(this, mLastStreamIdent, mediaMetaData, mExecutor, ioExecutor);
         }
         if (oldStreamer != null) {
             oldStreamer.stopStreaming(true);
@@ -1204,9 +1363,11 @@ public final class CallState extends DescriptorFactory {
         mRequestCounter = new AtomicLong();
         mSequenceCounter = new AtomicLong();
         mSenderId = UUID.randomUUID();
-        mDescriptors = new ArrayList<>();
+        mDescriptors = new DescriptorHistory(DEFAULT_MAX_DESCRIPTORS);
         mId = UUID.randomUUID();
         mIncomingCall = incoming;
+        mExecutor = new CallExecutor("Call-" + mId.toString().substring(0, 8));
+        mSetupTrace = new CallSetupTrace(incoming);
     }
 
     @NonNull
@@ -1215,6 +1376,29 @@ public final class CallState extends DescriptorFactory {
         return mHandler;
     }
 
+    /**
+     * Get the executor lane of this call: the connection timers and the streaming control are executed
+     * on this lane.  The lane provides its queue depth and its task latency.
+     *
+     * @return the call executor.
+     */
+    @NonNull
+    public CallExecutor getExecutor() {
+
+        return mExecutor;
+    }
+
+    /**
+     * Get the timeline of the call setup phases.
+     *
+     * @return the call setup trace.
+     */
+    @NonNull
+    public CallSetupTrace getSetupTrace() {
+
+        return mSetupTrace;
+    }
+
     synchronized void setOriginator(@NonNull Originator originator, @Nullable Bitmap avatar, @Nullable Bitmap identityAvatar, @Nullable Bitmap groupAvatar) {
         if (DEBUG) {
             Log.d(LOG_TAG, "setOriginator: originator=" + originator);
@@ -1254,6 +1438,40 @@ public final class CallState extends DescriptorFactory {
         mLocalRenderer = localRenderer;
     }
 
+    /**
+     * Mark the video renderers as prepared while the incoming call is ringing.
+     */
+    synchronized void setPrewarmed() {
+
+        mPrewarmed = true;
+    }
+
+    /**
+     * @return true if the video renderers were prepared while the incoming call was ringing.
+     */
+    synchronized boolean isPrewarmed() {
+
+        return mPrewarmed;
+    }
+
+    /**
+     * Release the local video renderer.  Must be called from the main UI thread.
+     */
+    synchronized void releaseLocalRenderer() {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "releaseLocalRenderer");
+        }
+
+        if (mLocalRenderer != null) {
+            ViewParent viewParent = mLocalRenderer.getParent();
+            if (viewParent != null) {
+                ((ViewGroup) viewParent).removeView(mLocalRenderer);
+            }
+            mLocalRenderer.release();
+            mLocalRenderer = null;
+        }
+    }
+
     /**
      * Add a new peer connection to a contact.
      *
@@ -1265,6 +1483,7 @@ public final class CallState extends DescriptorFactory {
         }
 
         mPeers.add(callConnection);
+        updateConnections();
 
         if (mTransferFromConnection != null) {
             // We've received a PrepareTransferIQ from the transferred participant
@@ -1583,6 +1802,7 @@ public final class CallState extends DescriptorFactory {
         }
 
         mPeers.remove(callConnection);
+        updateConnections();
 
         final boolean empty = mPeers.isEmpty();
         if (empty) {
@@ -1623,6 +1843,7 @@ public final class CallState extends DescriptorFactory {
         // Release the remote renderer for each peer connection.
         while (!mPeers.isEmpty()) {
             CallConnection callConnection = mPeers.remove(0);
+            updateConnections();
 
             callConnection.release(TerminateReason.CANCEL);
         }
@@ -1638,14 +1859,8 @@ public final class CallState extends DescriptorFactory {
         mPendingChangeStateConnectionId = null;
         mTransferToMemberId = null;
         transferDirection = null;
-        if (mLocalRenderer != null) {
-            ViewParent viewParent = mLocalRenderer.getParent();
-            if (viewParent != null) {
-                ((ViewGroup) viewParent).removeView(mLocalRenderer);
-            }
-            mLocalRenderer.release();
-            mLocalRenderer = null;
-        }
+        releaseLocalRenderer();
+        mExecutor.shutdownNow();
     }
 
     /**
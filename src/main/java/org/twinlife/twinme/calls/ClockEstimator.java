@@ -0,0 +1,119 @@
+/*
+ *  Copyright (c) 2025 twinlife SA.
+ *  SPDX-License-Identifier: AGPL-3.0-only
+ *
+ *  Contributors:
+ *   Stephane Carrez (Stephane.Carrez@twin.life)
+ */
+
+package org.twinlife.twinme.calls;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Estimate the offset between the peer clock and our monotonic clock (SystemClock.elapsedRealtime())
+ * for a CallConnection.
+ *
+ * Each sample is made of a peer timestamp, the local time when the message carrying it was received
+ * and the round trip time last measured by the peer.  That round trip time does not tell how long the
+ * message itself was delayed: with one-way timestamps, the difference localTime - peerTime is the clock
+ * offset plus the one-way delay, and the queueing delays only make it larger.  The last samples are kept
+ * and the offset is given by the sample with the smallest difference, corrected by half of the smallest
+ * round trip time seen on the connection.
+ */
+public final class ClockEstimator {
+
+    // Number of samples kept for the clock filter: at least one of them should not be delayed.
+    static final int MAX_SAMPLES = 32;
+
+    @NonNull
+    private final long[] mTransits;
+    private int mCount;
+    private int mNext;
+    private long mOffset;
+    private int mDelay;
+
+    public ClockEstimator() {
+
+        mTransits = new long[MAX_SAMPLES];
+    }
+
+    /**
+     * Add a sample to the estimator.
+     *
+     * @param peerTime the peer time when the message was sent.
+     * @param localTime our monotonic time when the message was received.
+     * @param roundTripTime the round trip time measured between the peer and us or 0 if it is not known.
+     */
+    public synchronized void addSample(long peerTime, long localTime, int roundTripTime) {
+
+        if (peerTime <= 0 || roundTripTime < 0) {
+            return;
+        }
+
+        if (roundTripTime > 0 && (mDelay == 0 || roundTripTime < mDelay)) {
+            mDelay = roundTripTime;
+        }
+        mTransits[mNext] = localTime - peerTime;
+        mNext = (mNext + 1) % MAX_SAMPLES;
+        if (mCount < MAX_SAMPLES) {
+            mCount++;
+        }
+
+        long transit = mTransits[0];
+        for (int i = 1; i < mCount; i++) {
+            if (mTransits[i] < transit) {
+                transit = mTransits[i];
+            }
+        }
+
+        // The least delayed message was sent half the smallest round trip time before we received it.
+        mOffset = mDelay / 2 - transit;
+    }
+
+    /**
+     * @return true if the offset is known.
+     */
+    public synchronized boolean hasEstimate() {
+
+        return mCount > 0;
+    }
+
+    /**
+     * Get the offset of the peer clock relative to our clock (peer time - local time).
+     *
+     * @return the clock offset in milliseconds.
+     */
+    public synchronized long getOffset() {
+
+        return mOffset;
+    }
+
+    /**
+     * Get the smallest round trip time seen on the connection: it bounds the error on the offset.
+     *
+     * @return the round trip time in milliseconds.
+     */
+    public synchronized int getRoundTripTime() {
+
+        return mDelay;
+    }
+
+    /**
+     * Convert a peer time to our monotonic clock.
+     *
+     * @param peerTime the peer time.
+     * @return the local time.
+     */
+    public synchronized long toLocalTime(long peerTime) {
+
+        return peerTime - mOffset;
+    }
+
+    @Override
+    @NonNull
+    public synchronized String toString() {
+
+        return "ClockEstimator[offset=" + mOffset + " rtt=" + mDelay + " samples=" + mCount + "]";
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ *  Copyright (c) 2025 twinlife SA.
+ *  SPDX-License-Identifier: AGPL-3.0-only
+ *
+ *  Contributors:
+ *   Stephane Carrez (Stephane.Carrez@twin.life)
+ */
+
+package org.twinlife.twinme.calls;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latest-value-wins sender for transient control messages (camera zoom, camera switch).
+ *
+ * Each message is identified by a key and the send operation is submitted as a Runnable which creates
+ * and sends the IQ.  Messages are sent at most once per interval: when a message is submitted too early,
+ * it replaces the pending message with the same key and the pending messages are sent by a timer at the
+ * end of the interval.  A superseded message is dropped before its IQ is created and serialized.
+ * The pending messages are sent in the order of the first submission of their key: a replaced message keeps
+ * the position of the message it replaces, the caller must flush() when the order between keys matters.
+ */
+final class CoalescingSender<K> {
+    private static final String LOG_TAG = "CoalescingSender";
+    private static final boolean DEBUG = false;
+
+    @NonNull
+    private final Map<K, Runnable> mPending;
+    private long mMinInterval;
+    private long mLastSendTime;
+    private long mDropCount;
+    @Nullable
+    private ScheduledFuture<?> mFlushTimer;
+
+    /**
+     * Create the sender.
+     *
+     * @param maxRate the maximum number of sends per second.
+     */
+    CoalescingSender(int maxRate) {
+
+        mPending = new LinkedHashMap<>();
+        setMaxRate(maxRate);
+    }
+
+    /**
+     * Set the maximum number of sends per second.
+     *
+     * @param maxRate the maximum rate.
+     */
+    synchronized void setMaxRate(int maxRate) {
+
+        mMinInterval = maxRate > 0 ? TimeUnit.SECONDS.toNanos(1) / maxRate : 0;
+    }
+
+    /**
+     * Get the number of messages that were superseded by a more recent value and never sent.
+     *
+     * @return the number of dropped messages.
+     */
+    synchronized long getDropCount() {
+
+        return mDropCount;
+    }
+
+    /**
+     * Submit the send operation identified by the key.  The operation is executed immediately from the
+     * current thread if the rate allows it or later from the executor.
+     *
+     * @param key the message key.
+     * @param operation the operation to create and send the message.
+     * @param executor the executor to send the pending messages later.
+     */
+    void submit(@NonNull K key, @NonNull Runnable operation, @NonNull ScheduledExecutorService executor) {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "submit key=" + key);
+        }
+
+        synchronized (this) {
+            if (mPending.put(key, operation) != null) {
+                mDropCount++;
+            }
+            if (mFlushTimer != null) {
+                return;
+            }
+
+            final long delay = mLastSendTime + mMinInterval - System.nanoTime();
+            if (mLastSendTime != 0 && delay > 0) {
+                try {
+                    mFlushTimer = executor.schedule(this::onFlushTimer, delay, TimeUnit.NANOSECONDS);
+                } catch (RejectedExecutionException exception) {
+                    // The call is released.
+                    mPending.clear();
+                }
+                return;
+            }
+        }
+
+        flush();
+    }
+
+    /**
+     * Send the pending messages now.
+     */
+    void flush() {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "flush");
+        }
+
+        final List<Runnable> operations;
+        synchronized (this) {
+            if (mFlushTimer != null) {
+                mFlushTimer.cancel(false);
+                mFlushTimer = null;
+            }
+            if (mPending.isEmpty()) {
+                return;
+            }
+            operations = new ArrayList<>(mPending.values());
+            mPending.clear();
+            mLastSendTime = System.nanoTime();
+        }
+
+        for (Runnable operation : operations) {
+            operation.run();
+        }
+    }
+
+    /**
+     * Drop the pending messages.
+     */
+    synchronized void cancel() {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "cancel");
+        }
+
+        if (mFlushTimer != null) {
+            mFlushTimer.cancel(false);
+            mFlushTimer = null;
+        }
+        mDropCount += mPending.size();
+        mPending.clear();
+    }
+
+    private void onFlushTimer() {
+
+        synchronized (this) {
+            mFlushTimer = null;
+        }
+        flush();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ *  Copyright (c) 2025 twinlife SA.
+ *  SPDX-License-Identifier: AGPL-3.0-only
+ *
+ *  Contributors:
+ *   Stephane Carrez (Stephane.Carrez@twin.life)
+ */
+
+package org.twinlife.twinme.calls;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.twinlife.twinlife.ConversationService.Descriptor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Bounded history of the descriptors sent and received during a call.
+ *
+ * The descriptors are kept in a ring buffer and each descriptor is given a sequence number starting at 1.
+ * When the history is full, the oldest descriptor is dropped and given to the optional spill listener.
+ * The history is not thread safe: it is used from the main UI thread only (see CallState).
+ */
+public final class DescriptorHistory {
+
+    /**
+     * Listener called with the descriptors dropped from the history.
+     */
+    public interface SpillListener {
+
+        void onSpillDescriptor(@NonNull Descriptor descriptor);
+    }
+
+    @NonNull
+    private Descriptor[] mItems;
+    private int mHead;
+    private int mCount;
+    private long mLastSequence;
+    @Nullable
+    private SpillListener mSpillListener;
+
+    DescriptorHistory(int capacity) {
+
+        mItems = new Descriptor[Math.max(1, capacity)];
+    }
+
+    /**
+     * Add the descriptor at the end of the history and drop the oldest one if the history is full.
+     *
+     * @param descriptor the descriptor to add.
+     * @return the sequence number of the descriptor.
+     */
+    long add(@NonNull Descriptor descriptor) {
+
+        if (mCount == mItems.length) {
+            spill(mItems[mHead]);
+            mItems[mHead] = descriptor;
+            mHead = (mHead + 1) % mItems.length;
+        } else {
+            mItems[(mHead + mCount) % mItems.length] = descriptor;
+            mCount++;
+        }
+        mLastSequence++;
+        return mLastSequence;
+    }
+
+    /**
+     * Change the maximum number of descriptors kept, the oldest descriptors are dropped.
+     *
+     * @param capacity the new capacity.
+     */
+    void setCapacity(int capacity) {
+
+        capacity = Math.max(1, capacity);
+        if (capacity == mItems.length) {
+            return;
+        }
+
+        final Descriptor[] items = new Descriptor[capacity];
+        final int drop = Math.max(0, mCount - capacity);
+        for (int i = 0; i < drop; i++) {
+            spill(mItems[(mHead + i) % mItems.length]);
+        }
+        final int count = mCount - drop;
+        for (int i = 0; i < count; i++) {
+            items[i] = mItems[(mHead + drop + i) % mItems.length];
+        }
+        mItems = items;
+        mHead = 0;
+        mCount = count;
+    }
+
+    void setSpillListener(@Nullable SpillListener listener) {
+
+        mSpillListener = listener;
+    }
+
+    /**
+     * @return the sequence number of the last descriptor added or 0.
+     */
+    long getLastSequence() {
+
+        return mLastSequence;
+    }
+
+    /**
+     * @return the sequence number of the oldest descriptor still in the history.
+     */
+    long getFirstSequence() {
+
+        return mLastSequence - mCount + 1;
+    }
+
+    /**
+     * Get the descriptors added after the given sequence number.  If some of them were dropped,
+     * the list starts with the oldest descriptor still in the history.
+     *
+     * @param sequence the last sequence number known by the caller (0 to get the whole history).
+     * @return the list of descriptors in the order in which they were added.
+     */
+    @NonNull
+    List<Descriptor> getSince(long sequence) {
+
+        final long first = getFirstSequence();
+        final int skip = (int) Math.max(0, Math.min(mCount, sequence - first + 1));
+        if (skip == mCount) {
+            return Collections.emptyList();
+        }
+
+        final List<Descriptor> result = new ArrayList<>(mCount - skip);
+        for (int i = skip; i < mCount; i++) {
+            result.add(mItems[(mHead + i) % mItems.length]);
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    private void spill(@Nullable Descriptor descriptor) {
+
+        final SpillListener listener = mSpillListener;
+        if (descriptor != null && listener != null) {
+            listener.onSpillDescriptor(descriptor);
+        }
+    }
+}
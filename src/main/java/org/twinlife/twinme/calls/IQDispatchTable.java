@@ -0,0 +1,241 @@
+/*
+ *  Copyright (c) 2025 twinlife SA.
+ *  SPDX-License-Identifier: AGPL-3.0-only
+ *
+ *  Contributors:
+ *   Stephane Carrez (Stephane.Carrez@twin.life)
+ */
+
+package org.twinlife.twinme.calls;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.twinlife.twinlife.util.BinaryPacketIQ;
+import org.twinlife.twinlife.util.BinaryPacketIQ.BinaryPacketIQSerializer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dispatch table of the IQs exchanged on the call data channel.
+ *
+ * The table is built once and shared by every CallConnection.  Each entry is identified by its serializer
+ * (which defines the schema ID and version) and gives the IQ class and the handler to call.  The type of
+ * the IQ is checked by the table so that handlers receive the typed IQ.  The table also collects for each
+ * schema the number of IQs received and sent, their payload size and the time spent in the handler.
+ */
+public final class IQDispatchTable {
+    private static final String LOG_TAG = "IQDispatchTable";
+    private static final boolean DEBUG = false;
+
+    interface Handler<T extends BinaryPacketIQ> {
+
+        void onIQ(@NonNull CallConnection connection, @NonNull T iq);
+    }
+
+    interface SizeEstimator<T extends BinaryPacketIQ> {
+
+        int getSize(@NonNull T iq);
+    }
+
+    /**
+     * Snapshot of the counters of one IQ schema.
+     */
+    public static final class Stats {
+        @NonNull
+        public final String name;
+        public final long receivedCount;
+        public final long receivedBytes;
+        public final long sentCount;
+        public final long sentBytes;
+        public final long handlerTime;      // Total time in nanoseconds spent in the handler.
+        public final long maxHandlerTime;   // Max time in nanoseconds spent in the handler.
+
+        Stats(@NonNull Entry<?> entry) {
+
+            this.name = entry.mName;
+            this.receivedCount = entry.mReceivedCount;
+            this.receivedBytes = entry.mReceivedBytes;
+            this.sentCount = entry.mSentCount;
+            this.sentBytes = entry.mSentBytes;
+            this.handlerTime = entry.mHandlerTime;
+            this.maxHandlerTime = entry.mMaxHandlerTime;
+        }
+
+        @Override
+        @NonNull
+        public String toString() {
+
+            return name + "[received=" + receivedCount + "/" + receivedBytes + " sent=" + sentCount + "/" + sentBytes
+                    + " handler=" + (handlerTime / 1000000L) + "ms max=" + (maxHandlerTime / 1000L) + "us]";
+        }
+    }
+
+    static final class Entry<T extends BinaryPacketIQ> {
+        @NonNull
+        private final String mName;
+        @NonNull
+        private final Class<T> mType;
+        @NonNull
+        private final Handler<T> mHandler;
+        @Nullable
+        private final SizeEstimator<T> mSizeEstimator;
+        private long mReceivedCount;
+        private long mReceivedBytes;
+        private long mSentCount;
+        private long mSentBytes;
+        private long mHandlerTime;
+        private long mMaxHandlerTime;
+
+        Entry(@NonNull String name, @NonNull Class<T> type, @NonNull Handler<T> handler,
+              @Nullable SizeEstimator<T> sizeEstimator) {
+
+            mName = name;
+            mType = type;
+            mHandler = handler;
+            mSizeEstimator = sizeEstimator;
+        }
+
+        void dispatch(@NonNull CallConnection connection, @NonNull BinaryPacketIQ iq) {
+
+            if (!mType.isInstance(iq)) {
+                if (DEBUG) {
+                    Log.d(LOG_TAG, "Invalid IQ " + iq + " for " + mName);
+                }
+                return;
+            }
+
+            final T typedIQ = mType.cast(iq);
+            final int size = mSizeEstimator == null ? 0 : mSizeEstimator.getSize(typedIQ);
+            final long start = System.nanoTime();
+            try {
+                mHandler.onIQ(connection, typedIQ);
+            } finally {
+                final long time = System.nanoTime() - start;
+                synchronized (this) {
+                    mReceivedCount++;
+                    mReceivedBytes += size;
+                    mHandlerTime += time;
+                    if (mMaxHandlerTime < time) {
+                        mMaxHandlerTime = time;
+                    }
+                }
+            }
+        }
+
+        void recordSent(@NonNull BinaryPacketIQ iq) {
+
+            final int size = mSizeEstimator == null || !mType.isInstance(iq) ? 0 : mSizeEstimator.getSize(mType.cast(iq));
+            synchronized (this) {
+                mSentCount++;
+                mSentBytes += size;
+            }
+        }
+    }
+
+    static final class Builder {
+        private final Map<BinaryPacketIQSerializer, Entry<?>> mEntries = new HashMap<>();
+        private final List<BinaryPacketIQSerializer> mSerializers = new ArrayList<>();
+
+        @NonNull
+        <T extends BinaryPacketIQ> Builder add(@NonNull String name, @NonNull BinaryPacketIQSerializer serializer,
+                                               @NonNull Class<T> type, @NonNull Handler<T> handler) {
+
+            return add(name, serializer, type, handler, null);
+        }
+
+        @NonNull
+        <T extends BinaryPacketIQ> Builder add(@NonNull String name, @NonNull BinaryPacketIQSerializer serializer,
+                                               @NonNull Class<T> type, @NonNull Handler<T> handler,
+                                               @Nullable SizeEstimator<T> sizeEstimator) {
+
+            if (mEntries.put(serializer, new Entry<>(name, type, handler, sizeEstimator)) != null) {
+                throw new IllegalArgumentException("IQ " + name + " is already registered");
+            }
+            mSerializers.add(serializer);
+            return this;
+        }
+
+        @NonNull
+        IQDispatchTable build() {
+
+            return new IQDispatchTable(this);
+        }
+    }
+
+    @NonNull
+    private final Map<BinaryPacketIQSerializer, Entry<?>> mEntries;
+    @NonNull
+    private final List<BinaryPacketIQSerializer> mSerializers;
+
+    private IQDispatchTable(@NonNull Builder builder) {
+
+        mEntries = new HashMap<>(builder.mEntries);
+        mSerializers = Collections.unmodifiableList(new ArrayList<>(builder.mSerializers));
+    }
+
+    /**
+     * @return the serializers of the IQs handled by the table in the order they were added.
+     */
+    @NonNull
+    List<BinaryPacketIQSerializer> getSerializers() {
+
+        return mSerializers;
+    }
+
+    /**
+     * Dispatch the IQ received by the connection to its handler.
+     *
+     * @param connection the call connection which received the IQ.
+     * @param serializer the serializer which decoded the IQ.
+     * @param iq the IQ.
+     */
+    void dispatch(@NonNull CallConnection connection, @NonNull BinaryPacketIQSerializer serializer,
+                  @NonNull BinaryPacketIQ iq) {
+
+        final Entry<?> entry = mEntries.get(serializer);
+        if (entry != null) {
+            entry.dispatch(connection, iq);
+        }
+    }
+
+    /**
+     * Count the IQ sent with the given serializer.
+     *
+     * @param serializer the serializer of the IQ.
+     * @param iq the IQ.
+     */
+    void recordSent(@NonNull BinaryPacketIQSerializer serializer, @NonNull BinaryPacketIQ iq) {
+
+        final Entry<?> entry = mEntries.get(serializer);
+        if (entry != null) {
+            entry.recordSent(iq);
+        }
+    }
+
+    /**
+     * Get the counters of each IQ schema.
+     *
+     * @return the list of counters in the order of the table.
+     */
+    @NonNull
+    public List<Stats> getStats() {
+
+        final List<Stats> result = new ArrayList<>(mSerializers.size());
+        for (BinaryPacketIQSerializer serializer : mSerializers) {
+            final Entry<?> entry = mEntries.get(serializer);
+            if (entry != null) {
+                synchronized (entry) {
+                    result.add(new Stats(entry));
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -40,14 +40,42 @@ import java.util.UUID;
  * }
  *
  * </pre>
+ *
+ * Schema version 2
+ * <pre>
+ * {
+ *  "schemaId":"a8aa7e0d-c495-4565-89bb-0c5462b54dd0",
+ *  "schemaVersion":"2",
+ *
+ *  "type":"record",
+ *  "name":"ParticipantInfoIQ",
+ *  "namespace":"org.twinlife.schemas.calls",
+ *  "super":"org.twinlife.schemas.BinaryPacketIQ"
+ *  "fields": [
+ *     {"name":"memberId", "type":"String"},
+ *     {"name":"name", "type":"String"},
+ *     {"name":"description", [null, "type":"String"}],
+ *     {"name":"avatar", [null, "type":"bytes"]},
+ *     {"name":"avatarHash", [null, "type":"String"]}
+ *  ]
+ * }
+ *
+ * </pre>
+ *
+ * With the version 2, the avatar is identified by the SHA-256 of its encoded content and it is
+ * sent only when the peer asks for it (see AvatarCache).
  */
 class ParticipantInfoIQ extends BinaryPacketIQ {
 
     private static class ParticipantInfoIQSerializer extends BinaryPacketIQSerializer {
 
+        private final boolean mWithHash;
+
         ParticipantInfoIQSerializer(UUID schemaId, int schemaVersion) {
 
             super(schemaId, schemaVersion, ParticipantInfoIQ.class);
+
+            mWithHash = schemaVersion >= 2;
         }
 
         @Override
@@ -61,6 +89,9 @@ class ParticipantInfoIQ extends BinaryPacketIQ {
             encoder.writeString(participantInfoIQ.name);
             encoder.writeOptionalString(participantInfoIQ.description);
             encoder.writeOptionalBytes(participantInfoIQ.thumbnailData);
+            if (mWithHash) {
+                encoder.writeOptionalString(participantInfoIQ.avatarHash);
+            }
         }
 
         @Override
@@ -74,8 +105,9 @@ class ParticipantInfoIQ extends BinaryPacketIQ {
             String name = decoder.readString();
             String description = decoder.readOptionalString();
             byte[] thumbnailData = decoder.readOptionalBytes(null);
+            String avatarHash = mWithHash ? decoder.readOptionalString() : null;
 
-            return new ParticipantInfoIQ(this, serviceRequestIQ.getRequestId(), memberId, name, description, thumbnailData);
+            return new ParticipantInfoIQ(this, serviceRequestIQ.getRequestId(), memberId, name, description, thumbnailData, avatarHash);
         }
     }
 
@@ -93,6 +125,8 @@ class ParticipantInfoIQ extends BinaryPacketIQ {
     final String description;
     @Nullable
     final byte[] thumbnailData;
+    @Nullable
+    final String avatarHash;
 
     //
     // Override Object methods
@@ -109,6 +143,16 @@ class ParticipantInfoIQ extends BinaryPacketIQ {
         stringBuilder.append(name);
         stringBuilder.append(" description=");
         stringBuilder.append(description);
+        stringBuilder.append(" avatarHash=");
+        stringBuilder.append(avatarHash);
+    }
+
+    /**
+     * @return the size of the avatar thumbnail carried by the IQ.
+     */
+    int getThumbnailSize() {
+
+        return thumbnailData == null ? 0 : thumbnailData.length;
     }
 
     @NonNull
@@ -123,7 +167,8 @@ class ParticipantInfoIQ extends BinaryPacketIQ {
     }
 
     ParticipantInfoIQ(@NonNull BinaryPacketIQSerializer serializer, long requestId,
-                      @NonNull String memberId, @NonNull String name, @Nullable String description, @Nullable byte[] thumbnailData) {
+                      @NonNull String memberId, @NonNull String name, @Nullable String description, @Nullable byte[] thumbnailData,
+                      @Nullable String avatarHash) {
 
         super(serializer, requestId);
 
@@ -131,5 +176,6 @@ class ParticipantInfoIQ extends BinaryPacketIQ {
         this.name = name;
         this.description = description;
         this.thumbnailData = thumbnailData;
+        this.avatarHash = avatarHash;
     }
 }
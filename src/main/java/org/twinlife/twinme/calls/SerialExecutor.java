@@ -0,0 +1,160 @@
+/*
+ *  Copyright (c) 2025 twinlife SA.
+ *  SPDX-License-Identifier: AGPL-3.0-only
+ *
+ *  Contributors:
+ *   Stephane Carrez (Stephane.Carrez@twin.life)
+ */
+
+package org.twinlife.twinme.calls;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Execute the tasks one at a time and in order on a shared executor.  The streamer uses such lane on
+ * the bounded streaming I/O pool of the CallService so that its blocking reads are serialized without
+ * a dedicated thread.
+ *
+ * The lane is shutdown when the shared executor is shutdown: ExecutorService.shutdownNow() drops the
+ * active task of the lane without running it and the queued tasks would never be scheduled.
+ *
+ * The lane records its queue depth and the time the tasks waited before they started.
+ */
+public final class SerialExecutor implements Executor {
+
+    @NonNull
+    private final Executor mExecutor;
+    @NonNull
+    private final ArrayDeque<Runnable> mTasks;
+    @Nullable
+    private Runnable mActive;
+    private boolean mShutdown;
+    private long mTaskCount;
+    private long mTotalLatency;
+    private long mMaxLatency;
+
+    public SerialExecutor(@NonNull Executor executor) {
+
+        mExecutor = executor;
+        mTasks = new ArrayDeque<>();
+    }
+
+    /**
+     * Queue the task to be executed after the tasks already queued.
+     *
+     * @param command the task to execute.
+     * @throws RejectedExecutionException if the lane or the shared executor is shutdown.
+     */
+    @Override
+    public void execute(@NonNull Runnable command) {
+
+        final long submitTime = System.nanoTime();
+        synchronized (this) {
+            if (mShutdown || isExecutorShutdown()) {
+                mShutdown = true;
+                mActive = null;
+                mTasks.clear();
+                throw new RejectedExecutionException("Serial executor is shutdown");
+            }
+            mTasks.offer(() -> {
+                recordLatency(System.nanoTime() - submitTime);
+                try {
+                    command.run();
+                } finally {
+                    try {
+                        scheduleNext();
+                    } catch (RejectedExecutionException ignored) {
+                        // The shared executor is shutdown, the queued tasks are dropped.
+                    }
+                }
+            });
+            if (mActive == null) {
+                scheduleNext();
+            }
+        }
+    }
+
+    /**
+     * Stop accepting new tasks: the tasks already queued are still executed.
+     */
+    public synchronized void shutdown() {
+
+        mShutdown = true;
+    }
+
+    /**
+     * Get the number of tasks waiting in the lane.
+     *
+     * @return the queue depth.
+     */
+    public synchronized int getQueueDepth() {
+
+        return mTasks.size();
+    }
+
+    /**
+     * Get the number of tasks executed by the lane.
+     *
+     * @return the number of tasks.
+     */
+    public synchronized long getTaskCount() {
+
+        return mTaskCount;
+    }
+
+    /**
+     * Get the average time in milliseconds a task waited before it started.
+     *
+     * @return the average task latency.
+     */
+    public synchronized long getAverageLatency() {
+
+        return mTaskCount == 0 ? 0 : mTotalLatency / mTaskCount;
+    }
+
+    /**
+     * Get the maximum time in milliseconds a task waited before it started.
+     *
+     * @return the maximum task latency.
+     */
+    public synchronized long getMaxLatency() {
+
+        return mMaxLatency;
+    }
+
+    private synchronized void recordLatency(long latency) {
+
+        latency = latency / 1000000L;
+        mTaskCount++;
+        mTotalLatency += latency;
+        if (mMaxLatency < latency) {
+            mMaxLatency = latency;
+        }
+    }
+
+    private boolean isExecutorShutdown() {
+
+        return mExecutor instanceof ExecutorService && ((ExecutorService) mExecutor).isShutdown();
+    }
+
+    private synchronized void scheduleNext() {
+
+        mActive = mTasks.poll();
+        if (mActive != null) {
+            try {
+                mExecutor.execute(mActive);
+
+            } catch (RejectedExecutionException exception) {
+                mActive = null;
+                mTasks.clear();
+                throw exception;
+            }
+        }
+    }
+}
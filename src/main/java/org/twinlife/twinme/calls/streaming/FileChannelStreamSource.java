@@ -0,0 +1,85 @@
+/*
+ *  Copyright (c) 2025 twinlife SA.
+ *  SPDX-License-Identifier: AGPL-3.0-only
+ *
+ *  Contributors:
+ *   Stephane Carrez (Stephane.Carrez@twin.life)
+ */
+
+package org.twinlife.twinme.calls.streaming;
+
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A seekable stream source that uses positional reads on the file channel: each block is read
+ * directly at its position so that seeking does not depend on the content size.
+ */
+final class FileChannelStreamSource extends StreamSource {
+    private static final String LOG_TAG = "FileChannelStreamSrc";
+    private static final boolean DEBUG = false;
+
+    @NonNull
+    private final ParcelFileDescriptor mFileDescriptor;
+    @NonNull
+    private final FileInputStream mInputStream;
+    @NonNull
+    private final FileChannel mChannel;
+
+    FileChannelStreamSource(@NonNull ParcelFileDescriptor fileDescriptor) {
+
+        mFileDescriptor = fileDescriptor;
+        mInputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
+        mChannel = mInputStream.getChannel();
+    }
+
+    @Override
+    int read(long position, @NonNull byte[] data, int length) throws IOException {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "read position=" + position + " length=" + length);
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+        while (buffer.hasRemaining()) {
+            final int size = mChannel.read(buffer, position + buffer.position());
+            if (size < 0) {
+                break;
+            }
+        }
+
+        return buffer.position() > 0 ? buffer.position() : -1;
+    }
+
+    @Override
+    boolean isSeekable() {
+
+        return true;
+    }
+
+    @Override
+    long getLength() {
+
+        return mFileDescriptor.getStatSize();
+    }
+
+    @Override
+    public void close() {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "close");
+        }
+
+        try {
+            mInputStream.close();
+            mFileDescriptor.close();
+        } catch (IOException exception) {
+            Log.d(LOG_TAG, "Close error", exception);
+        }
+    }
+}
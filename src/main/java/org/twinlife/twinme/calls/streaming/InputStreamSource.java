@@ -0,0 +1,131 @@
+/*
+ *  Copyright (c) 2025 twinlife SA.
+ *  SPDX-License-Identifier: AGPL-3.0-only
+ *
+ *  Contributors:
+ *   Stephane Carrez (Stephane.Carrez@twin.life)
+ */
+
+package org.twinlife.twinme.calls.streaming;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A forward only stream source used when the content is not a regular file.  Reading ahead skips
+ * the content in between and reading backward re-opens the content.
+ */
+final class InputStreamSource extends StreamSource {
+    private static final String LOG_TAG = "InputStreamSource";
+    private static final boolean DEBUG = false;
+
+    @NonNull
+    private final ContentResolver mResolver;
+    @NonNull
+    private final Uri mPath;
+    @Nullable
+    private InputStream mInputStream;
+    private long mPosition;
+    private volatile long mLength;
+    private boolean mClosed;
+
+    InputStreamSource(@NonNull ContentResolver resolver, @NonNull Uri path) throws IOException {
+
+        mResolver = resolver;
+        mPath = path;
+        mInputStream = resolver.openInputStream(path);
+        mPosition = 0;
+        mLength = -1;
+        mClosed = false;
+        if (mInputStream == null) {
+            throw new IOException("Cannot open " + path);
+        }
+    }
+
+    @Override
+    synchronized int read(long position, @NonNull byte[] data, int length) throws IOException {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "read position=" + position + " length=" + length + " current=" + mPosition);
+        }
+
+        if (mClosed) {
+            throw new IOException("Stream closed");
+        }
+
+        // Re-open the content to read backward.
+        if (position < mPosition || mInputStream == null) {
+            closeStream();
+            mInputStream = mResolver.openInputStream(mPath);
+            mPosition = 0;
+            if (mInputStream == null) {
+                throw new IOException("Cannot open " + mPath);
+            }
+        }
+
+        while (mPosition < position) {
+            final long skipped = mInputStream.skip(position - mPosition);
+            if (skipped <= 0) {
+                mLength = mPosition;
+                return -1;
+            }
+            mPosition += skipped;
+        }
+
+        // Fill the block as much as we can so that blocks are aligned on the player requests.
+        int result = 0;
+        while (result < length) {
+            final int size = mInputStream.read(data, result, length - result);
+            if (size <= 0) {
+                break;
+            }
+            result += size;
+        }
+        mPosition += result;
+        if (result < length) {
+            mLength = mPosition;
+        }
+        return result > 0 ? result : -1;
+    }
+
+    @Override
+    boolean isSeekable() {
+
+        return false;
+    }
+
+    @Override
+    long getLength() {
+
+        // The length is known only when we have reached the end of the content.
+        return mLength;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "close");
+        }
+
+        mClosed = true;
+        closeStream();
+    }
+
+    private void closeStream() {
+
+        if (mInputStream != null) {
+            try {
+                mInputStream.close();
+            } catch (IOException exception) {
+                Log.d(LOG_TAG, "Close error", exception);
+            }
+            mInputStream = null;
+        }
+    }
+}
@@ -10,19 +10,35 @@ package org.twinlife.twinme.calls.streaming;
 
 import androidx.annotation.NonNull;
 
+/**
+ * A block of the media stream.  The block data comes from the StreamBufferPool and the stream buffer
+ * is reference counted: the data is given back to the pool when the last reference is released.
+ * The block data starts at mStart in mBuffer: a received block can refer to the decoded frame
+ * directly, such array is not given back to the pool.
+ */
 final class StreamBuffer {
     static final int BUFFER_SIZE = 8 * 1024;
+
+    // Maximum block size that a player can request with the streaming protocol version 2.
+    // The StreamingDataIQ must fit in a data channel message (256K for the SCTP max-message-size).
+    static final int MAX_BLOCK_SIZE = 128 * 1024;
     static final byte[] empty = new byte[0];
 
     final byte[] mBuffer;
     final long mFirstOffset;
     final long mLastOffset;
+    final int mStart;
+    private final boolean mPooled;
+    private int mReferences;
 
     StreamBuffer(long offset) {
 
         this.mFirstOffset = offset;
         this.mLastOffset = offset;
         this.mBuffer = empty;
+        this.mStart = 0;
+        this.mPooled = false;
+        this.mReferences = 0;
     }
 
     StreamBuffer(long offset, @NonNull byte[] buffer) {
@@ -30,6 +46,9 @@ final class StreamBuffer {
         this.mFirstOffset = offset;
         this.mLastOffset = offset + buffer.length;
         this.mBuffer = buffer;
+        this.mStart = 0;
+        this.mPooled = true;
+        this.mReferences = 1;
     }
 
     StreamBuffer(long offset, @NonNull byte[] buffer, int size) {
@@ -37,6 +56,19 @@ final class StreamBuffer {
         this.mFirstOffset = offset;
         this.mLastOffset = offset + size;
         this.mBuffer = buffer;
+        this.mStart = 0;
+        this.mPooled = true;
+        this.mReferences = 1;
+    }
+
+    StreamBuffer(long offset, @NonNull byte[] buffer, int start, int size, boolean pooled) {
+
+        this.mFirstOffset = offset;
+        this.mLastOffset = offset + size;
+        this.mBuffer = buffer;
+        this.mStart = start;
+        this.mPooled = pooled;
+        this.mReferences = 1;
     }
 
     int size() {
@@ -44,6 +76,33 @@ final class StreamBuffer {
         return (int) (mLastOffset - mFirstOffset);
     }
 
+    /**
+     * Add a reference to the stream buffer.
+     *
+     * @return the stream buffer.
+     */
+    synchronized StreamBuffer retain() {
+
+        mReferences++;
+        return this;
+    }
+
+    /**
+     * Release a reference and give back the block to the pool when this was the last one.
+     */
+    void release() {
+
+        synchronized (this) {
+            mReferences--;
+            if (mReferences != 0) {
+                return;
+            }
+        }
+        if (mPooled) {
+            StreamBufferPool.getInstance().release(mBuffer);
+        }
+    }
+
     @Override
     @NonNull
     public String toString() {
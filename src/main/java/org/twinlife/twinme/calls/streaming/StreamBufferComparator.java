@@ -17,6 +17,6 @@ final class StreamBufferComparator implements Comparator<StreamBuffer> {
     @Override
     public int compare(@NonNull StreamBuffer o1, @NonNull StreamBuffer o2) {
 
-        return (int) (o1.mFirstOffset - o2.mFirstOffset);
+        return Long.compare(o1.mFirstOffset, o2.mFirstOffset);
     }
 }
@@ -0,0 +1,198 @@
+/*
+ *  Copyright (c) 2025 twinlife SA.
+ *  SPDX-License-Identifier: AGPL-3.0-only
+ *
+ *  Contributors:
+ *   Stephane Carrez (Stephane.Carrez@twin.life)
+ */
+
+package org.twinlife.twinme.calls.streaming;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+
+/**
+ * Pool of byte arrays used by the stream buffers on the streamer and player sides.
+ *
+ * Arrays are grouped in size classes (powers of two from BUFFER_SIZE to MAX_BLOCK_SIZE) and a block
+ * must be given back with `release()` when the streamer evicts it or when the ExoPlayer has consumed it.
+ * The number of arrays kept for each size class is bounded by MAX_POOL_SIZE bytes.
+ */
+public final class StreamBufferPool {
+    private static final String LOG_TAG = "StreamBufferPool";
+    private static final boolean DEBUG = false;
+
+    static final int MIN_BLOCK_SIZE = StreamBuffer.BUFFER_SIZE;
+    static final int MAX_BLOCK_SIZE = StreamBuffer.MAX_BLOCK_SIZE;
+
+    // Maximum number of bytes kept in the pool for each size class.
+    private static final int MAX_POOL_SIZE = 1024 * 1024;
+
+    private static final StreamBufferPool sInstance = new StreamBufferPool();
+
+    @NonNull
+    private final ArrayDeque<byte[]>[] mFreeLists;
+    private long mHitCount;
+    private long mMissCount;
+    private long mReleaseCount;
+    private long mDropCount;
+
+    /**
+     * Get the stream buffer pool shared by the streamers and players.
+     *
+     * @return the stream buffer pool.
+     */
+    @NonNull
+    public static StreamBufferPool getInstance() {
+
+        return sInstance;
+    }
+
+    @SuppressWarnings("unchecked")
+    private StreamBufferPool() {
+
+        int count = 0;
+        for (int size = MIN_BLOCK_SIZE; size <= MAX_BLOCK_SIZE; size = size * 2) {
+            count++;
+        }
+        mFreeLists = new ArrayDeque[count];
+        for (int i = 0; i < count; i++) {
+            mFreeLists[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Get the number of times a block was obtained from the pool.
+     *
+     * @return the number of pool hits.
+     */
+    public synchronized long getHitCount() {
+
+        return mHitCount;
+    }
+
+    /**
+     * Get the number of times a block had to be allocated.
+     *
+     * @return the number of pool misses.
+     */
+    public synchronized long getMissCount() {
+
+        return mMissCount;
+    }
+
+    /**
+     * Get the number of blocks that have been given back to the pool.
+     *
+     * @return the number of blocks released.
+     */
+    public synchronized long getReleaseCount() {
+
+        return mReleaseCount;
+    }
+
+    /**
+     * Get the number of released blocks which were dropped because the pool was full.
+     *
+     * @return the number of blocks dropped.
+     */
+    public synchronized long getDropCount() {
+
+        return mDropCount;
+    }
+
+    /**
+     * Get the number of bytes currently held by the pool.
+     *
+     * @return the number of bytes held in the pool.
+     */
+    public synchronized long getPoolSize() {
+
+        long result = 0;
+        int size = MIN_BLOCK_SIZE;
+        for (ArrayDeque<byte[]> freeList : mFreeLists) {
+            result += (long) freeList.size() * size;
+            size = size * 2;
+        }
+        return result;
+    }
+
+    /**
+     * Get a block of at least the given size.  The block comes from the pool if possible.
+     *
+     * @param size the minimum size of the block.
+     * @return the block.
+     */
+    @NonNull
+    synchronized byte[] acquire(int size) {
+
+        final int index = getSizeClass(size);
+        if (index < 0) {
+            mMissCount++;
+            return new byte[size];
+        }
+
+        final byte[] result = mFreeLists[index].pollFirst();
+        if (result != null) {
+            mHitCount++;
+            return result;
+        }
+
+        mMissCount++;
+        return new byte[MIN_BLOCK_SIZE << index];
+    }
+
+    /**
+     * Give back the block to the pool.  Blocks which don't belong to a size class are dropped.
+     *
+     * @param data the block to release.
+     */
+    synchronized void release(@Nullable byte[] data) {
+
+        if (data == null) {
+            return;
+        }
+
+        final int index = getSizeClass(data.length);
+        if (index < 0 || (MIN_BLOCK_SIZE << index) != data.length) {
+            return;
+        }
+
+        mReleaseCount++;
+        final ArrayDeque<byte[]> freeList = mFreeLists[index];
+        if ((long) (freeList.size() + 1) * data.length > MAX_POOL_SIZE) {
+            mDropCount++;
+            return;
+        }
+        freeList.addFirst(data);
+    }
+
+    /**
+     * Release all the blocks held by the pool.
+     */
+    public synchronized void clear() {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "clear");
+        }
+
+        for (ArrayDeque<byte[]> freeList : mFreeLists) {
+            freeList.clear();
+        }
+    }
+
+    private static int getSizeClass(int size) {
+
+        int index = 0;
+        for (int blockSize = MIN_BLOCK_SIZE; blockSize <= MAX_BLOCK_SIZE; blockSize = blockSize * 2) {
+            if (size <= blockSize) {
+                return index;
+            }
+            index++;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ *  Copyright (c) 2025 twinlife SA.
+ *  SPDX-License-Identifier: AGPL-3.0-only
+ *
+ *  Contributors:
+ *   Stephane Carrez (Stephane.Carrez@twin.life)
+ */
+
+package org.twinlife.twinme.calls.streaming;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.twinlife.twinlife.PeerConnectionService.StatType;
+import org.twinlife.twinlife.util.BinaryPacketIQ;
+import org.twinlife.twinlife.util.BinaryPacketIQ.BinaryPacketIQSerializer;
+import org.twinlife.twinme.calls.ClockEstimator;
+
+import java.util.UUID;
+
+/**
+ * The connection to a peer used by the streamer and the stream data source to exchange the
+ * StreamingRequestIQ and StreamingDataIQ.  It is implemented by the CallConnection and by the
+ * loopback connection of the StreamingBenchmark.
+ */
+public interface StreamConnection {
+
+    /**
+     * Get the peer connection id which identifies the remote player.
+     *
+     * @return the peer connection id or null.
+     */
+    @Nullable
+    UUID getPeerConnectionId();
+
+    /**
+     * Get the streaming protocol version supported by the peer.
+     *
+     * @return the streaming protocol version.
+     */
+    int getStreamingVersion();
+
+    /**
+     * Get the estimator of the peer clock offset and round trip time.
+     *
+     * @return the clock estimator of the connection.
+     */
+    @NonNull
+    ClockEstimator getClockEstimator();
+
+    /**
+     * Allocate a request id for an IQ sent on the connection.
+     *
+     * @return the new request id.
+     */
+    long newRequestId();
+
+    /**
+     * Send the IQ to the peer.  The IQ must be serialized before the method returns: the streamer gives the
+     * block of a StreamingDataIQ back to the StreamBufferPool as soon as sendIQ() returns.  The CallConnection
+     * relies on ConversationHandler.sendMessage() which serializes the IQ in the packet given to the peer
+     * connection service before returning.
+     *
+     * @param serializer the serializer used to create the IQ.
+     * @param iq the IQ to send.
+     * @param statType the statistics type for the peer connection service.
+     */
+    void sendIQ(@NonNull BinaryPacketIQSerializer serializer, @NonNull BinaryPacketIQ iq, @NonNull StatType statType);
+}
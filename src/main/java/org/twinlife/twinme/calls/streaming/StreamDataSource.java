@@ -9,6 +9,7 @@
 package org.twinlife.twinme.calls.streaming;
 
 import android.net.Uri;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -19,17 +20,28 @@ import androidx.media3.datasource.BaseDataSource;
 import androidx.media3.datasource.DataSpec;
 
 import org.twinlife.twinlife.PeerConnectionService;
-import org.twinlife.twinme.calls.CallConnection;
-import org.twinlife.twinme.calls.CallState;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import static org.twinlife.twinme.calls.streaming.StreamingRequestIQ.IQ_STREAMING_REQUEST_SERIALIZER;
 
 /**
  * ExoPlayer datasource to get the media content from the Web-RTC data channel through the StreamRequestIQ
  * and StreamDataIQ.
+ *
+ * Several StreamRequestIQ are sent in advance to the streamer according to a congestion window
+ * (see StreamRequestWindow) that grows with the measured RTT and throughput.  Responses can arrive
+ * in any order: the blocks are kept sorted by their offset until the ExoPlayer reads them.
+ *
+ * When the streamer supports the streaming protocol version 2, the block length carried by the
+ * StreamingRequestIQ follows the throughput (up to MAX_BLOCK_SIZE).  The streamer can return a smaller
+ * block in which case we ask for the missing part.
+ *
+ * With the version 3, the streamer also pushes the blocks that follow our last request: they are kept
+ * when they fall in the read ahead window and we don't request the ranges that they cover.
  */
 @SuppressWarnings("ManualMinMaxCalculation") // Never use Math.min()
 @UnstableApi
@@ -39,46 +51,67 @@ final class StreamDataSource extends BaseDataSource {
 
     private static final int MAX_RTT_TIME = 10000; // 10s
 
-    // ExoPlayer has its own buffering, keep a small buffer on our side.
-    private static final int MAX_BUFFERS = 3;
+    // Time to wait for a block before we consider the stream has ended.
+    private static final int READ_TIMEOUT = 10000; // 10s
+
+    // Maximum number of bytes requested ahead of the read position (ExoPlayer has its own buffering).
+    private static final int MAX_READ_AHEAD = 1024 * 1024;
 
-    @NonNull
-    private final CallState mCall;
     @Nullable
-    private final CallConnection mConnection;
+    private final StreamConnection mConnection;
     @Nullable
     private final StreamerImpl mLocalStreamer;
     private final long mStreamIdent;
-    private final ArrayBlockingQueue<StreamBuffer> mQueue;
-    private final StreamPlayerImpl mPlayer;
-    @Nullable
-    private StreamBuffer mCurrent;
+    private final TreeMap<Long, StreamBuffer> mBlocks;
+    private final TreeMap<Long, Integer> mRequests;
+    @NonNull
+    private final StreamRequestWindow mWindow;
+    @NonNull
+    private final StreamMetrics mMetrics;
+    @NonNull
+    private final StreamPlayer mPlayer;
+    private final int mFixedBlockSize;
     private long mReadPosition;
     private long mStreamPosition;
-    private volatile boolean mEndOfStream;
+    private long mEndPosition;
     private Uri mUri;
     private int mLastRTT;
     private long mLastStreamerPosition;
     private long mLastStreamerPositionTime;
-    private boolean mOpened;
+    private volatile boolean mOpened;
 
-    StreamDataSource(long ident, @NonNull CallState call,
-                     @Nullable CallConnection connection,
+    StreamDataSource(long ident, @Nullable StreamConnection connection,
                      @Nullable StreamerImpl localStreamer,
-                     @NonNull StreamPlayerImpl player) {
+                     @NonNull StreamPlayer player,
+                     @NonNull StreamMetrics metrics) {
+
+        this(ident, connection, localStreamer, player, metrics, 0);
+    }
+
+    /**
+     * Create the data source with a fixed block length for the requests (used by the StreamingBenchmark).
+     *
+     * @param fixedBlockSize the block length requested to the streamer or 0 to follow the throughput.
+     */
+    StreamDataSource(long ident, @Nullable StreamConnection connection,
+                     @Nullable StreamerImpl localStreamer,
+                     @NonNull StreamPlayer player,
+                     @NonNull StreamMetrics metrics, int fixedBlockSize) {
         super(true);
 
         mStreamIdent = ident;
-        mCall = call;
+        mFixedBlockSize = fixedBlockSize;
         mConnection = connection;
         mLocalStreamer = localStreamer;
         mPlayer = player;
-        mQueue = new ArrayBlockingQueue<>(MAX_BUFFERS);
-        mCurrent = null;
+        mMetrics = metrics;
+        mBlocks = new TreeMap<>();
+        mRequests = new TreeMap<>();
+        mWindow = new StreamRequestWindow();
         mLastRTT = 0;
         mLastStreamerPosition = 0;
         mLastStreamerPositionTime = 0;
-        mEndOfStream = false;
+        mEndPosition = Long.MAX_VALUE;
         mReadPosition = 0;
         mStreamPosition = 0;
         requestFillBuffers();
@@ -92,12 +125,18 @@ final class StreamDataSource extends BaseDataSource {
 
         mOpened = true;
         mUri = dataSpec.uri;
-        mReadPosition = 0;
-        mEndOfStream = false;
-        mCurrent = null;
-        mQueue.clear();
+        synchronized (this) {
+            // Keep the blocks requested in advance if we read from the same position.
+            if (dataSpec.position != mStreamPosition) {
+                releaseBuffers();
+                mStreamPosition = dataSpec.position;
+                mReadPosition = dataSpec.position;
+            }
+            mEndPosition = Long.MAX_VALUE;
+        }
         transferInitializing(dataSpec);
         transferStarted(dataSpec);
+        requestFillBuffers();
         return C.LENGTH_UNSET;
     }
 
@@ -117,8 +156,11 @@ final class StreamDataSource extends BaseDataSource {
             Log.d(LOG_TAG, "close");
         }
 
-        mCurrent = null;
-        mQueue.clear();
+        synchronized (this) {
+            releaseBuffers();
+            mReadPosition = mStreamPosition;
+            notifyAll();
+        }
         if (mOpened) {
             mOpened = false;
             transferEnded();
@@ -147,8 +189,12 @@ final class StreamDataSource extends BaseDataSource {
         if (length == 0) {
             return 0;
         }
+
+        // Before waiting for a block, ask to fill some new blocks if needed.
+        requestFillBuffers();
         int len = readAt(buffer, offset, length);
         if (len > 0) {
+            bytesTransferred(len);
             requestFillBuffers();
         }
         return len;
@@ -179,44 +225,133 @@ final class StreamDataSource extends BaseDataSource {
         }
 
         // Compute RTT for the StreamingRequestDataIQ+StreamingDataIQ
-        final long now = System.currentTimeMillis();
+        final long now = SystemClock.elapsedRealtime();
         final long requestTime = now - iq.timestamp;
+        int rtt = -1;
         if (requestTime > 0 && requestTime - (long)iq.streamerLatency < MAX_RTT_TIME) {
-            mLastRTT = (int) requestTime - iq.streamerLatency;
+            rtt = (int) requestTime - iq.streamerLatency;
+            mLastRTT = rtt;
         }
+        mWindow.onResponse(rtt, iq.size, now);
+        mMetrics.recordResponse(rtt, iq.size, mWindow.getBytesPerSecond());
 
         // Keep the player position on the streamer side.
         mLastStreamerPosition = iq.streamerPosition + (mLastRTT / 2);
         mLastStreamerPositionTime = now;
-        write(iq.offset, iq.offset, iq.data);
+
+        // The data block was allocated from the StreamBufferPool by the StreamingDataIQ deserializer
+        // or it refers to the decoded frame.
+        if (iq.data != null && iq.size > 0) {
+            write(iq.offset, new StreamBuffer(iq.offset, iq.data, iq.startPos, iq.size, iq.pooled));
+        } else {
+            write(iq.offset, null);
+        }
+
+        // Send new requests if the window has grown.
+        requestFillBuffers();
+    }
+
+    /**
+     * Handle the StreamingDataIQ packet pushed by the streamer.
+     *
+     * @param iq the streaming data iq.
+     */
+    void onStreamingPushIQ(@NonNull StreamingDataIQ iq) {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "onStreamingPushIQ: iq=" + iq);
+        }
+
+        if (iq.ident != mStreamIdent) {
+            return;
+        }
+
+        // There is no request for this block, only the throughput is measured.
+        final long now = SystemClock.elapsedRealtime();
+        mWindow.onResponse(-1, iq.size, now);
+        mMetrics.recordResponse(-1, iq.size, mWindow.getBytesPerSecond());
+        mLastStreamerPosition = iq.streamerPosition + (mLastRTT / 2);
+        mLastStreamerPositionTime = now;
+
+        if (iq.data != null && iq.size > 0) {
+            push(new StreamBuffer(iq.offset, iq.data, iq.startPos, iq.size, iq.pooled));
+        }
     }
 
     /**
-     * Receive a block of data from the peer.
+     * Receive a block of data that was pushed by the streamer.  The block is dropped if it was
+     * already received or if it is outside of the read ahead window.
      *
-     * @param offset the offset position for the block.
-     * @param data the block of data.
+     * @param buffer the block of data.
      */
-    void write(long requestOffset, long offset, @Nullable byte[] data) {
+    private void push(@NonNull StreamBuffer buffer) {
         if (DEBUG) {
-            Log.d(LOG_TAG, "write offset=" + offset);
+            Log.d(LOG_TAG, "push buffer=" + buffer);
         }
 
-        final long length = data == null || requestOffset != offset ? 0 : data.length;
-        final StreamBuffer buffer;
-        if (length > 0) {
-            buffer = new StreamBuffer(offset, data);
-        } else {
-            buffer = null;
+        synchronized (this) {
+            if (buffer.mLastOffset <= mStreamPosition || buffer.mFirstOffset >= mStreamPosition + MAX_READ_AHEAD
+                    || buffer.mFirstOffset >= mEndPosition || mBlocks.containsKey(buffer.mFirstOffset)) {
+                buffer.release();
+                return;
+            }
+
+            mBlocks.put(buffer.mFirstOffset, buffer);
+            mMetrics.updateQueue(mRequests.size(), mBlocks.size());
+            notifyAll();
         }
+    }
 
+    /**
+     * Receive a block of data from the peer.  The data source takes the ownership of the
+     * stream buffer and releases it when the ExoPlayer has consumed it.  Blocks can be received
+     * in any order.
+     *
+     * @param requestOffset the offset position that was requested.
+     * @param buffer the block of data or null when the end of stream is reached.
+     */
+    void write(long requestOffset, @Nullable StreamBuffer buffer) {
         if (DEBUG) {
-            Log.d(LOG_TAG, "write add buffer=" + buffer);
+            Log.d(LOG_TAG, "write offset=" + requestOffset + " buffer=" + buffer);
         }
 
-        mEndOfStream = length == 0;
-        if (!mQueue.offer(buffer)) {
-            Log.e(LOG_TAG, "Buffer insert failed for buffer=" + buffer);
+        if (buffer != null && (buffer.mFirstOffset > requestOffset || buffer.mLastOffset <= requestOffset)) {
+            buffer.release();
+            buffer = null;
+        }
+
+        long missingOffset = 0;
+        int missingLength = 0;
+        synchronized (this) {
+            final Integer requestLength = mRequests.remove(requestOffset);
+            if (buffer == null) {
+                // The streamer has no data at this position: the stream ends there.
+                if (requestOffset < mEndPosition) {
+                    mEndPosition = requestOffset;
+                }
+
+            } else if (buffer.mLastOffset <= mStreamPosition || requestOffset >= mReadPosition) {
+                // Response for a block already consumed or which is not requested anymore (open/close).
+                buffer.release();
+
+            } else {
+                final StreamBuffer previous = mBlocks.put(buffer.mFirstOffset, buffer);
+                if (previous != null) {
+                    previous.release();
+                }
+
+                // We received a smaller block than requested: ask for the missing part.
+                if (requestLength != null && buffer.mLastOffset < requestOffset + requestLength) {
+                    missingOffset = buffer.mLastOffset;
+                    missingLength = (int) (requestOffset + requestLength - buffer.mLastOffset);
+                    mRequests.put(missingOffset, missingLength);
+                }
+            }
+            mMetrics.updateQueue(mRequests.size(), mBlocks.size());
+            notifyAll();
+        }
+
+        if (missingLength > 0) {
+            sendStreamRequest(mStreamIdent, missingOffset, missingLength);
         }
     }
 
@@ -225,17 +360,17 @@ final class StreamDataSource extends BaseDataSource {
      *
      * @param ident the stream identification.
      * @param offset the stream block offset.
+     * @param length the stream block length.
      */
-    private void sendStreamRequest(long ident, long offset) {
+    private void sendStreamRequest(long ident, long offset, int length) {
         if (DEBUG) {
-            Log.d(LOG_TAG, "sendStreamRequest ident=" + ident + " offset=" + offset);
+            Log.d(LOG_TAG, "sendStreamRequest ident=" + ident + " offset=" + offset + " length=" + length);
         }
 
-        final StreamPlayerImpl player = mPlayer;
-        if (mConnection != null && player != null) {
-            final long now = System.currentTimeMillis();
-            final long playerPosition = player.getCurrentPosition(now);
-            final long requestId = mCall.allocateRequestId();
+        if (mConnection != null) {
+            final long now = SystemClock.elapsedRealtime();
+            final long playerPosition = mPlayer.getCurrentPosition(now);
+            final long requestId = mConnection.newRequestId();
 
             if (DEBUG) {
                 final long deltaPosition;
@@ -249,40 +384,71 @@ final class StreamDataSource extends BaseDataSource {
                 Log.d(LOG_TAG, "sendStreamRequest requestId=" + requestId + " offset=" + offset
                         + " currentPos=" + playerPosition + " streamerPos=" + mLastStreamerPosition
                         + " dt=" + dt + " player-streamer offset=" + deltaPosition
-                        + " readPos=" + mReadPosition + " queue=" + mQueue.size());
+                        + " readPos=" + mReadPosition + " window=" + mWindow.getWindow()
+                        + " rtt=" + mWindow.getSmoothedRTT() + " bps=" + mWindow.getBytesPerSecond());
             }
 
             final StreamingRequestIQ iq = new StreamingRequestIQ(IQ_STREAMING_REQUEST_SERIALIZER, requestId,
-                    ident, offset, StreamBuffer.BUFFER_SIZE, playerPosition, now, mLastRTT);
-            mConnection.sendMessage(iq, PeerConnectionService.StatType.IQ_SET_PUSH_OBJECT);
+                    ident, offset, length, playerPosition, now, mLastRTT);
+            mConnection.sendIQ(IQ_STREAMING_REQUEST_SERIALIZER, iq, PeerConnectionService.StatType.IQ_SET_PUSH_OBJECT);
         } else if (mLocalStreamer != null) {
-            mLocalStreamer.localStreamingRequest(offset, this);
+            mLocalStreamer.localStreamingRequest(offset, length, this);
         }
     }
 
     /**
-     * Look at the buffer queue and request more before the ExoPlayer tries to read something.
+     * Look at the blocks being requested and request more before the ExoPlayer tries to read something.
      */
     private void requestFillBuffers() {
         if (DEBUG) {
             Log.d(LOG_TAG, "requestFillBuffers");
         }
 
-        // Make sure that we have enough data for next reads and ask for more buffer to the peer.
-        if (!mEndOfStream) {
-            int remain = mQueue.remainingCapacity() - 1;
-            long pendingRead = mReadPosition - mStreamPosition;
-            remain -= (int) (pendingRead + StreamBuffer.BUFFER_SIZE - 1) / StreamBuffer.BUFFER_SIZE;
-            int transfered = 0;
-            while (remain > 0) {
-                sendStreamRequest(mStreamIdent, mReadPosition);
-                remain--;
-                mReadPosition += StreamBuffer.BUFFER_SIZE;
-                transfered += StreamBuffer.BUFFER_SIZE;
+        // Make sure that we have enough data for next reads and ask for more buffer to the peer:
+        // the blocks requested or received ahead of the read position are bounded by the window.
+        final List<Long> offsets;
+        final int blockSize = mFixedBlockSize > 0 ? mFixedBlockSize : mWindow.getBlockSize(getMaxBlockSize());
+        synchronized (this) {
+            long readAhead = (long) mWindow.getWindow() * blockSize;
+            if (readAhead > MAX_READ_AHEAD) {
+                readAhead = MAX_READ_AHEAD;
+            }
+            final long maxPosition = mStreamPosition + readAhead;
+            if (mReadPosition >= maxPosition || mReadPosition >= mEndPosition) {
+                return;
             }
-            if (transfered > 0) {
-                bytesTransferred(transfered);
+
+            offsets = new ArrayList<>();
+            while (mReadPosition < maxPosition && mReadPosition < mEndPosition) {
+                // Skip the range covered by a block pushed by the streamer.
+                final Map.Entry<Long, StreamBuffer> pushed = mBlocks.floorEntry(mReadPosition);
+                if (pushed != null && pushed.getValue().mLastOffset > mReadPosition) {
+                    mReadPosition = pushed.getValue().mLastOffset;
+                    continue;
+                }
+                offsets.add(mReadPosition);
+                mRequests.put(mReadPosition, blockSize);
+                mReadPosition += blockSize;
             }
+            mMetrics.updateQueue(mRequests.size(), mBlocks.size());
+        }
+
+        for (Long offset : offsets) {
+            sendStreamRequest(mStreamIdent, offset, blockSize);
+        }
+    }
+
+    /**
+     * Get the maximum block size that we can ask to the streamer.
+     *
+     * @return the maximum block size.
+     */
+    private int getMaxBlockSize() {
+
+        if (mConnection != null && mConnection.getStreamingVersion() >= 2) {
+            return StreamBuffer.MAX_BLOCK_SIZE;
+        } else {
+            return StreamBuffer.BUFFER_SIZE;
         }
     }
 
@@ -296,23 +462,28 @@ final class StreamDataSource extends BaseDataSource {
      */
     private int readAt(byte[] buffer, int offset, int size) {
         if (DEBUG) {
-            Log.d(LOG_TAG, "readAt position=" + mReadPosition + " offset=" + offset + " size=" + size);
+            Log.d(LOG_TAG, "readAt position=" + mStreamPosition + " offset=" + offset + " size=" + size);
         }
 
         int result = 0;
-        while (size > 0) {
-            StreamBuffer first = mCurrent;
-            if (first == null) {
-                first = mQueue.poll();
-                mCurrent = first;
-            }
-            if (DEBUG) {
-                Log.d(LOG_TAG, "read position=" + mStreamPosition + " offset=" + offset + " size=" + size + " buffer=" + first);
-            }
-            if (first != null) {
-                final int pos = (int) (mStreamPosition - first.mFirstOffset);
-                final int avail = (int) (first.mLastOffset - mStreamPosition);
-                if (avail > 0 && pos >= 0) {
+        synchronized (this) {
+            long deadline = 0;
+            while (size > 0) {
+                // Release the blocks that the player has consumed.
+                Map.Entry<Long, StreamBuffer> entry = mBlocks.firstEntry();
+                while (entry != null && entry.getValue().mLastOffset <= mStreamPosition) {
+                    mBlocks.pollFirstEntry().getValue().release();
+                    entry = mBlocks.firstEntry();
+                    mMetrics.updateQueue(mRequests.size(), mBlocks.size());
+                }
+
+                final StreamBuffer first = entry == null ? null : entry.getValue();
+                if (DEBUG) {
+                    Log.d(LOG_TAG, "read position=" + mStreamPosition + " offset=" + offset + " size=" + size + " buffer=" + first);
+                }
+                if (first != null && first.mFirstOffset <= mStreamPosition) {
+                    final int pos = (int) (mStreamPosition - first.mFirstOffset);
+                    final int avail = (int) (first.mLastOffset - mStreamPosition);
 
                     // Read as many bytes are we can, and stop when we have read all the content.
                     int copySize;
@@ -322,44 +493,36 @@ final class StreamDataSource extends BaseDataSource {
                         copySize = avail;
                     }
 
-                    // Log.e(LOG_TAG, "copy " + copySize + " from " + pos + " global pos " + position);
-                    System.arraycopy(first.mBuffer, pos, buffer, offset, copySize);
+                    System.arraycopy(first.mBuffer, first.mStart + pos, buffer, offset, copySize);
                     result += copySize;
                     size -= copySize;
                     mStreamPosition += copySize;
-                    if (size == 0) {
-                        return result;
-                    }
-
                     offset += copySize;
-                } else if (pos < 0) {
-                    Log.e(LOG_TAG, "Invalid pos=" + pos + " avail=" + avail + " buffer=" + first);
+                    continue;
                 }
 
-                // Get the next block from the queue.
-                first = mCurrent = mQueue.poll();
-            }
-
-            if (mEndOfStream || !mOpened) {
                 if (result > 0) {
                     return result;
-                } else {
-                    return -1;
                 }
-            }
+                if (mStreamPosition >= mEndPosition || !mOpened) {
+                    return C.RESULT_END_OF_INPUT;
+                }
 
-            if (first == null) {
-                // Before waiting for a buffer, ask to fill some new buffers if needed.
-                requestFillBuffers();
+                // The block was requested but it was not received yet.
+                final long now = SystemClock.elapsedRealtime();
+                if (deadline == 0) {
+                    deadline = now + READ_TIMEOUT;
+                } else if (now >= deadline) {
+                    // If we don't get the block within the 10s timeslot, consider we reached end of stream.
+                    Log.e(LOG_TAG, "Timeout waiting for block at " + mStreamPosition);
+                    mWindow.onTimeout();
+                    mEndPosition = mStreamPosition;
+                    return C.RESULT_END_OF_INPUT;
+                }
                 try {
-                    mCurrent = mQueue.poll(10, TimeUnit.SECONDS);
-
-                    // If we don't get a buffer within the 10s timeslot, consider we reached end of stream.
-                    if (mCurrent == null) {
-                        mEndOfStream = true;
-                    }
+                    wait(deadline - now);
                 } catch (InterruptedException exception) {
-                   Log.d(LOG_TAG, "Exception: ", exception);
+                    Log.d(LOG_TAG, "Exception: ", exception);
 
                 }
             }
@@ -367,4 +530,17 @@ final class StreamDataSource extends BaseDataSource {
 
         return result;
     }
+
+    /**
+     * Release the blocks which are received.
+     */
+    private void releaseBuffers() {
+
+        mRequests.clear();
+        for (StreamBuffer buffer : mBlocks.values()) {
+            buffer.release();
+        }
+        mBlocks.clear();
+        mMetrics.updateQueue(0, 0);
+    }
 }
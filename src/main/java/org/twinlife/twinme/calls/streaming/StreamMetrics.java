@@ -0,0 +1,337 @@
+/*
+ *  Copyright (c) 2025 twinlife SA.
+ *  SPDX-License-Identifier: AGPL-3.0-only
+ *
+ *  Contributors:
+ *   Stephane Carrez (Stephane.Carrez@twin.life)
+ */
+
+package org.twinlife.twinme.calls.streaming;
+
+import androidx.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Metrics collected for a media stream.  The player side metrics are updated by the StreamDataSource
+ * and the StreamPlayerImpl, the streamer side metrics are updated by the StreamerImpl.  The metrics
+ * are always collected: they are simple counters updated when a block is received, read or sent.
+ *
+ * The metrics are obtained with `Streamer.getMetrics()` or `StreamPlayer.getMetrics()`.
+ */
+public final class StreamMetrics {
+
+    // Upper bound in ms of each RTT histogram bucket: the last bucket holds the RTT above 1600ms.
+    private static final int[] RTT_BUCKETS = { 25, 50, 100, 200, 400, 800, 1600 };
+
+    // Player side.
+    private long mBytesReceived;
+    private long mBlocksReceived;
+    private long mBytesPerSecond;
+    private final long[] mRttHistogram;
+    private int mOutstandingRequests;
+    private int mQueueDepth;
+    private int mRebufferCount;
+    private long mRebufferTime;
+    private long mRebufferStart;
+
+    // Streamer side.
+    private long mCacheHits;
+    private long mCacheMisses;
+    private long mReadCount;
+    private long mReadTime;
+    private long mMaxReadTime;
+    private long mBytesSent;
+    private long mBlocksPushed;
+    private final Map<UUID, Long> mPeerLags;
+
+    StreamMetrics() {
+
+        mRttHistogram = new long[RTT_BUCKETS.length + 1];
+        mPeerLags = new HashMap<>();
+    }
+
+    /**
+     * Get the upper bound in milliseconds of each RTT histogram bucket.  The histogram has one more
+     * bucket for the RTT above the last bound.
+     *
+     * @return the RTT bucket bounds.
+     */
+    @NonNull
+    public static int[] getRttBuckets() {
+
+        return RTT_BUCKETS.clone();
+    }
+
+    /**
+     * Get the number of bytes received by the player.
+     *
+     * @return the number of bytes received.
+     */
+    public synchronized long getBytesReceived() {
+
+        return mBytesReceived;
+    }
+
+    /**
+     * Get the number of blocks received by the player.
+     *
+     * @return the number of blocks received.
+     */
+    public synchronized long getBlocksReceived() {
+
+        return mBlocksReceived;
+    }
+
+    /**
+     * Get the throughput measured by the player.
+     *
+     * @return the number of bytes per second.
+     */
+    public synchronized long getBytesPerSecond() {
+
+        return mBytesPerSecond;
+    }
+
+    /**
+     * Get the number of responses for each RTT bucket (see getRttBuckets()).
+     *
+     * @return the RTT histogram.
+     */
+    @NonNull
+    public synchronized long[] getRttHistogram() {
+
+        return mRttHistogram.clone();
+    }
+
+    /**
+     * Get the number of requests sent by the player and not yet answered.
+     *
+     * @return the number of outstanding requests.
+     */
+    public synchronized int getOutstandingRequests() {
+
+        return mOutstandingRequests;
+    }
+
+    /**
+     * Get the number of blocks received and not yet consumed by the ExoPlayer.
+     *
+     * @return the number of blocks in the queue.
+     */
+    public synchronized int getQueueDepth() {
+
+        return mQueueDepth;
+    }
+
+    /**
+     * Get the number of times the ExoPlayer stopped to buffer after it started playing.
+     *
+     * @return the number of rebuffer events.
+     */
+    public synchronized int getRebufferCount() {
+
+        return mRebufferCount;
+    }
+
+    /**
+     * Get the total time in milliseconds spent by the ExoPlayer to rebuffer.
+     *
+     * @return the rebuffer time.
+     */
+    public synchronized long getRebufferTime() {
+
+        return mRebufferTime;
+    }
+
+    /**
+     * Get the number of requests served by the streamer from its cache.
+     *
+     * @return the number of cache hits.
+     */
+    public synchronized long getCacheHits() {
+
+        return mCacheHits;
+    }
+
+    /**
+     * Get the number of requests for which the streamer had to read the content.
+     *
+     * @return the number of cache misses.
+     */
+    public synchronized long getCacheMisses() {
+
+        return mCacheMisses;
+    }
+
+    /**
+     * Get the number of blocks read from the content by the streamer.
+     *
+     * @return the number of reads.
+     */
+    public synchronized long getReadCount() {
+
+        return mReadCount;
+    }
+
+    /**
+     * Get the average time in microseconds to read a block from the content.
+     *
+     * @return the average read latency.
+     */
+    public synchronized long getAverageReadLatency() {
+
+        return mReadCount == 0 ? 0 : mReadTime / (mReadCount * 1000L);
+    }
+
+    /**
+     * Get the maximum time in microseconds to read a block from the content.
+     *
+     * @return the maximum read latency.
+     */
+    public synchronized long getMaxReadLatency() {
+
+        return mMaxReadTime / 1000L;
+    }
+
+    /**
+     * Get the number of bytes sent by the streamer to the peers.
+     *
+     * @return the number of bytes sent.
+     */
+    public synchronized long getBytesSent() {
+
+        return mBytesSent;
+    }
+
+    /**
+     * Get the number of blocks pushed by the streamer to the peers.
+     *
+     * @return the number of blocks pushed.
+     */
+    public synchronized long getBlocksPushed() {
+
+        return mBlocksPushed;
+    }
+
+    /**
+     * Get for each peer the number of bytes between the last block read by the streamer and
+     * the last block requested by the peer.
+     *
+     * @return the lag of each peer.
+     */
+    @NonNull
+    public synchronized Map<UUID, Long> getPeerLags() {
+
+        return new HashMap<>(mPeerLags);
+    }
+
+    synchronized void recordResponse(int rtt, int size, long bytesPerSecond) {
+
+        mBytesReceived += size;
+        mBlocksReceived++;
+        mBytesPerSecond = bytesPerSecond;
+        if (rtt >= 0) {
+            int bucket = 0;
+            while (bucket < RTT_BUCKETS.length && rtt >= RTT_BUCKETS[bucket]) {
+                bucket++;
+            }
+            mRttHistogram[bucket]++;
+        }
+    }
+
+    synchronized void updateQueue(int outstandingRequests, int queueDepth) {
+
+        mOutstandingRequests = outstandingRequests;
+        mQueueDepth = queueDepth;
+    }
+
+    synchronized void recordBuffering(boolean buffering, long now) {
+
+        if (buffering) {
+            if (mRebufferStart == 0) {
+                mRebufferStart = now;
+                mRebufferCount++;
+            }
+        } else if (mRebufferStart > 0) {
+            mRebufferTime += now - mRebufferStart;
+            mRebufferStart = 0;
+        }
+    }
+
+    synchronized void recordCacheHit() {
+
+        mCacheHits++;
+    }
+
+    synchronized void recordCacheMiss() {
+
+        mCacheMisses++;
+    }
+
+    synchronized void recordRead(long duration) {
+
+        mReadCount++;
+        mReadTime += duration;
+        if (mMaxReadTime < duration) {
+            mMaxReadTime = duration;
+        }
+    }
+
+    synchronized void recordSent(int size, boolean pushed) {
+
+        mBytesSent += size;
+        if (pushed) {
+            mBlocksPushed++;
+        }
+    }
+
+    synchronized void updatePeerLag(@NonNull UUID peerConnectionId, long lag) {
+
+        mPeerLags.put(peerConnectionId, lag);
+    }
+
+    @Override
+    @NonNull
+    public synchronized String toString() {
+
+        final StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append("StreamMetrics[received=");
+        stringBuilder.append(mBytesReceived);
+        stringBuilder.append(" blocks=");
+        stringBuilder.append(mBlocksReceived);
+        stringBuilder.append(" bps=");
+        stringBuilder.append(mBytesPerSecond);
+        stringBuilder.append(" rtt=");
+        for (int i = 0; i < mRttHistogram.length; i++) {
+            stringBuilder.append(i == 0 ? "" : ",");
+            stringBuilder.append(mRttHistogram[i]);
+        }
+        stringBuilder.append(" requests=");
+        stringBuilder.append(mOutstandingRequests);
+        stringBuilder.append(" queue=");
+        stringBuilder.append(mQueueDepth);
+        stringBuilder.append(" rebuffer=");
+        stringBuilder.append(mRebufferCount);
+        stringBuilder.append("/");
+        stringBuilder.append(mRebufferTime);
+        stringBuilder.append("ms hits=");
+        stringBuilder.append(mCacheHits);
+        stringBuilder.append(" misses=");
+        stringBuilder.append(mCacheMisses);
+        stringBuilder.append(" reads=");
+        stringBuilder.append(mReadCount);
+        stringBuilder.append(" readLatency=");
+        stringBuilder.append(mReadCount == 0 ? 0 : mReadTime / (mReadCount * 1000L));
+        stringBuilder.append("us sent=");
+        stringBuilder.append(mBytesSent);
+        stringBuilder.append(" pushed=");
+        stringBuilder.append(mBlocksPushed);
+        stringBuilder.append(" lags=");
+        stringBuilder.append(mPeerLags);
+        stringBuilder.append("]");
+        return stringBuilder.toString();
+    }
+}
@@ -8,6 +8,7 @@
 
 package org.twinlife.twinme.calls.streaming;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import org.twinlife.twinme.utils.MediaMetaData;
 
@@ -48,6 +49,14 @@ public interface StreamPlayer {
      */
     long getCurrentPosition(long now);
 
+    /**
+     * Get the player metrics (throughput, RTT, outstanding requests, rebuffer events).
+     *
+     * @return the player metrics.
+     */
+    @NonNull
+    StreamMetrics getMetrics();
+
     void askPause();
 
     void askResume();
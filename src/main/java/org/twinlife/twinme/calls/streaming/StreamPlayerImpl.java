@@ -12,6 +12,7 @@ import android.annotation.SuppressLint;
 import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -56,6 +57,8 @@ public final class StreamPlayerImpl implements StreamPlayer, Player.Listener {
     private final boolean mVideo;
     @NonNull
     private final StreamDataSource mDataSource;
+    @NonNull
+    private final StreamMetrics mMetrics;
     @Nullable
     private final StreamerImpl mLocalStreamer;
     private final Handler mHandler;
@@ -88,6 +91,13 @@ public final class StreamPlayerImpl implements StreamPlayer, Player.Listener {
         return mLocalStreamer;
     }
 
+    @Override
+    @NonNull
+    public StreamMetrics getMetrics() {
+
+        return mMetrics;
+    }
+
     @Override
     public void onPlaybackStateChanged(@Player.State int playbackState) {
         if (DEBUG) {
@@ -97,6 +107,10 @@ public final class StreamPlayerImpl implements StreamPlayer, Player.Listener {
         final ExoPlayer player;
         final Mode mode;
         synchronized (this) {
+            // The player is buffering again after it started playing: this is a stall.
+            if (mReady) {
+                mMetrics.recordBuffering(playbackState == Player.STATE_BUFFERING, SystemClock.elapsedRealtime());
+            }
             if (playbackState == Player.STATE_ENDED) {
                 mReady = false;
                 player = mPlayer;
@@ -175,7 +189,8 @@ public final class StreamPlayerImpl implements StreamPlayer, Player.Listener {
 
         mHandler = call.getHandler();
         mRefresh = this::refreshPosition;
-        mDataSource = new StreamDataSource(ident, call, connection, localStreamer, this);
+        mMetrics = new StreamMetrics();
+        mDataSource = new StreamDataSource(ident, connection, localStreamer, this, mMetrics);
         mStreamIdent = ident;
         mCall = call;
         mVideo = video;
@@ -516,6 +531,23 @@ public final class StreamPlayerImpl implements StreamPlayer, Player.Listener {
         mDataSource.onStreamingDataIQ(iq);
     }
 
+    /**
+     * Handle the StreamingDataIQ packet pushed by the streamer.
+     *
+     * @param iq the streaming data iq.
+     */
+    public void onStreamingPushIQ(@NonNull StreamingDataIQ iq) {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "onStreamingPushIQ: iq=" + iq);
+        }
+
+        if (iq.ident != mStreamIdent) {
+            return;
+        }
+
+        mDataSource.onStreamingPushIQ(iq);
+    }
+
     long updateCurrentPosition() {
         if (DEBUG) {
             Log.d(LOG_TAG, "updateCurrentPosition");
@@ -525,7 +557,7 @@ public final class StreamPlayerImpl implements StreamPlayer, Player.Listener {
         final long position;
         if (player != null) {
             position = player.getCurrentPosition();
-            final long now = System.currentTimeMillis();
+            final long now = SystemClock.elapsedRealtime();
             if (DEBUG) {
                 long computedPosition = getCurrentPosition(now);
                 Log.d(LOG_TAG, "Computed - current pos=" + (computedPosition - position));
@@ -554,7 +586,7 @@ public final class StreamPlayerImpl implements StreamPlayer, Player.Listener {
             final long position = player.getCurrentPosition();
             synchronized (this) {
                 mLastPlayerPosition = position;
-                mLastPlayerPositionTime = System.currentTimeMillis();
+                mLastPlayerPositionTime = SystemClock.elapsedRealtime();
             }
             mHandler.postDelayed(this::refreshPosition, 5_000);
         }
@@ -573,12 +605,12 @@ public final class StreamPlayerImpl implements StreamPlayer, Player.Listener {
 
         if (mConnection != null) {
             final int latency = mDataSource.getLatency();
-            final long now = System.currentTimeMillis();
+            final long now = SystemClock.elapsedRealtime();
             final long position = getCurrentPosition(now);
 
             final StreamingControlIQ iq = new StreamingControlIQ(IQ_STREAMING_CONTROL_SERIALIZER, mCall.allocateRequestId(),
                     mStreamIdent, mode, offset, now, position, latency);
-            mConnection.sendMessage(iq, PeerConnectionService.StatType.IQ_SET_PUSH_OBJECT);
+            mConnection.sendIQ(IQ_STREAMING_CONTROL_SERIALIZER, iq, PeerConnectionService.StatType.IQ_SET_PUSH_OBJECT);
             switch (mode) {
                 case STREAMING_STATUS_READY:
                     mCall.onEventStreaming(mConnection.getMainParticipant(), StreamingEvent.EVENT_START);
@@ -0,0 +1,187 @@
+/*
+ *  Copyright (c) 2025 twinlife SA.
+ *  SPDX-License-Identifier: AGPL-3.0-only
+ *
+ *  Contributors:
+ *   Stephane Carrez (Stephane.Carrez@twin.life)
+ */
+
+package org.twinlife.twinme.calls.streaming;
+
+/**
+ * Congestion window that controls the number of StreamingRequestIQ sent in advance to the streamer.
+ *
+ * - the window starts with MIN_WINDOW blocks and grows by one block for each response (slow start)
+ *   until it reaches the slow start threshold,
+ * - it then grows by one block for each window of responses (additive increase),
+ * - when the RTT grows well above the minimum RTT, requests are queued somewhere on the path and the
+ *   window is halved (multiplicative decrease), but not below the bandwidth-delay product that
+ *   is computed from the observed throughput and smoothed RTT.
+ *
+ * The block size used for the requests also follows the observed throughput so that we receive
+ * about BLOCKS_PER_SECOND blocks each second (bounded by the block size supported by the streamer).
+ */
+@SuppressWarnings("ManualMinMaxCalculation") // Never use Math.min()
+final class StreamRequestWindow {
+    static final int MIN_WINDOW = 3;
+    static final int MAX_WINDOW = 64;
+
+    // Extra RTT in milliseconds that we accept above twice the minimum RTT before reducing the window.
+    private static final int RTT_MARGIN = 50;
+
+    // Period in milliseconds used to compute the throughput.
+    private static final int THROUGHPUT_PERIOD = 1000;
+
+    // Number of blocks per second we want to receive when we select the block size.
+    private static final int BLOCKS_PER_SECOND = 16;
+
+    private int mWindow;
+    private int mBlockSize;
+    private int mThreshold;
+    private int mCredit;
+    private int mSmoothedRTT;
+    private int mMinRTT;
+    private long mLastDecreaseTime;
+    private long mPeriodStart;
+    private long mPeriodBytes;
+    private long mBytesPerSecond;
+
+    StreamRequestWindow() {
+
+        mWindow = MIN_WINDOW;
+        mBlockSize = StreamBuffer.BUFFER_SIZE;
+        mThreshold = MAX_WINDOW;
+        mCredit = 0;
+        mSmoothedRTT = 0;
+        mMinRTT = Integer.MAX_VALUE;
+        mLastDecreaseTime = 0;
+        mPeriodStart = 0;
+        mPeriodBytes = 0;
+        mBytesPerSecond = 0;
+    }
+
+    /**
+     * Get the number of blocks that can be requested in advance.
+     *
+     * @return the congestion window in blocks.
+     */
+    synchronized int getWindow() {
+
+        return mWindow;
+    }
+
+    /**
+     * Get the block size to request according to the observed throughput.
+     *
+     * @param maxBlockSize the maximum block size supported by the streamer.
+     * @return the block size.
+     */
+    synchronized int getBlockSize(int maxBlockSize) {
+
+        final long target = mBytesPerSecond / BLOCKS_PER_SECOND;
+        int blockSize = StreamBuffer.BUFFER_SIZE;
+        while (blockSize < target && blockSize < maxBlockSize) {
+            blockSize = blockSize * 2;
+        }
+        if (blockSize > maxBlockSize) {
+            blockSize = maxBlockSize;
+        }
+        mBlockSize = blockSize;
+        return blockSize;
+    }
+
+    /**
+     * Get the smoothed RTT.
+     *
+     * @return the smoothed RTT in milliseconds.
+     */
+    synchronized int getSmoothedRTT() {
+
+        return mSmoothedRTT;
+    }
+
+    /**
+     * Get the throughput observed during the last period.
+     *
+     * @return the number of bytes received per second.
+     */
+    synchronized long getBytesPerSecond() {
+
+        return mBytesPerSecond;
+    }
+
+    /**
+     * A response was received for a block request.
+     *
+     * @param rtt the RTT measured for the request or a negative value if it is not known.
+     * @param size the number of bytes received.
+     * @param now the current time.
+     */
+    synchronized void onResponse(int rtt, int size, long now) {
+
+        // Update the throughput for the current period.
+        if (mPeriodStart == 0) {
+            mPeriodStart = now;
+        }
+        mPeriodBytes += size;
+        final long dt = now - mPeriodStart;
+        if (dt >= THROUGHPUT_PERIOD) {
+            mBytesPerSecond = (mPeriodBytes * 1000L) / dt;
+            mPeriodBytes = 0;
+            mPeriodStart = now;
+        }
+
+        if (rtt >= 0) {
+            if (rtt < mMinRTT) {
+                mMinRTT = rtt;
+            }
+            mSmoothedRTT = mSmoothedRTT == 0 ? rtt : (7 * mSmoothedRTT + rtt) / 8;
+
+            // Requests are queued somewhere: reduce the window at most once per RTT.
+            if (rtt > 2 * mMinRTT + RTT_MARGIN) {
+                if (now - mLastDecreaseTime > mSmoothedRTT) {
+                    mLastDecreaseTime = now;
+                    decrease();
+                }
+                return;
+            }
+        }
+
+        if (mWindow < mThreshold) {
+            mWindow++;
+        } else {
+            mCredit++;
+            if (mCredit >= mWindow) {
+                mCredit = 0;
+                mWindow++;
+            }
+        }
+        if (mWindow > MAX_WINDOW) {
+            mWindow = MAX_WINDOW;
+        }
+    }
+
+    /**
+     * A block was not received in time.
+     */
+    synchronized void onTimeout() {
+
+        decrease();
+    }
+
+    private void decrease() {
+
+        // Keep at least the bandwidth-delay product (in blocks) observed for the connection.
+        final long bdp = (mBytesPerSecond * mSmoothedRTT) / (1000L * mBlockSize) + 1;
+        int window = mWindow / 2;
+        if (window < bdp) {
+            window = bdp > MAX_WINDOW ? MAX_WINDOW : (int) bdp;
+        }
+        if (window < MIN_WINDOW) {
+            window = MIN_WINDOW;
+        }
+        mThreshold = window;
+        mWindow = window;
+        mCredit = 0;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ *  Copyright (c) 2025 twinlife SA.
+ *  SPDX-License-Identifier: AGPL-3.0-only
+ *
+ *  Contributors:
+ *   Stephane Carrez (Stephane.Carrez@twin.life)
+ */
+
+package org.twinlife.twinme.calls.streaming;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * The content being streamed: it gives access to the content at any position.
+ *
+ * - a regular file is read with positional reads on its FileChannel (see FileChannelStreamSource),
+ * - other contents (pipes, network providers) are read with a forward only InputStream which
+ *   is re-opened when a player seeks backward (see InputStreamSource).
+ */
+abstract class StreamSource implements Closeable {
+    private static final String LOG_TAG = "StreamSource";
+    private static final boolean DEBUG = false;
+
+    /**
+     * Read a block of the content at the given position.
+     *
+     * @param position the content position.
+     * @param data the buffer to fill.
+     * @param length the number of bytes to read.
+     * @return the number of bytes read or -1 when the end of the content is reached.
+     * @throws IOException when the content cannot be read.
+     */
+    abstract int read(long position, @NonNull byte[] data, int length) throws IOException;
+
+    /**
+     * Check if the content supports reading at any position without reading the content in between.
+     *
+     * @return true if the source is seekable.
+     */
+    abstract boolean isSeekable();
+
+    /**
+     * Get the content length when it is known.
+     *
+     * @return the content length or -1 if it is not known.
+     */
+    abstract long getLength();
+
+    @Override
+    public abstract void close();
+
+    /**
+     * Open the content identified by the path.  A seekable source is used when the content
+     * provider gives us a regular file and we fall back to a forward only input stream otherwise.
+     * Note: opening the content can be slow and block.
+     *
+     * @param resolver the content resolver.
+     * @param path the content to stream.
+     * @return the stream source.
+     * @throws IOException when the content cannot be opened.
+     */
+    @NonNull
+    static StreamSource open(@NonNull ContentResolver resolver, @NonNull Uri path) throws IOException {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "open path=" + path);
+        }
+
+        ParcelFileDescriptor fileDescriptor = null;
+        try {
+            fileDescriptor = resolver.openFileDescriptor(path, "r");
+
+        } catch (Exception exception) {
+            Log.d(LOG_TAG, "Content is not seekable", exception);
+        }
+
+        // getStatSize() returns -1 when this is not a regular file (pipe or socket).
+        if (fileDescriptor != null) {
+            if (fileDescriptor.getStatSize() >= 0) {
+
+                return new FileChannelStreamSource(fileDescriptor);
+            }
+            try {
+                fileDescriptor.close();
+            } catch (IOException exception) {
+                Log.d(LOG_TAG, "Close error", exception);
+            }
+        }
+
+        return new InputStreamSource(resolver, path);
+    }
+}
@@ -8,6 +8,7 @@
 
 package org.twinlife.twinme.calls.streaming;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 /**
@@ -34,6 +35,14 @@ public interface Streamer {
     @Nullable
     StreamPlayer getPlayer();
 
+    /**
+     * Get the streamer metrics (cache hits and misses, read latency, lag of each peer).
+     *
+     * @return the streamer metrics.
+     */
+    @NonNull
+    StreamMetrics getMetrics();
+
     /**
      * Resume the streaming by sending a RESUME_STREAMING message to each call participant.
      */
@@ -13,6 +13,7 @@ import android.content.ContentResolver;
 import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.provider.MediaStore;
 import android.util.Log;
 
@@ -26,23 +27,33 @@ import org.twinlife.twinlife.ImageTools;
 import org.twinlife.twinlife.PeerConnectionService;
 import org.twinlife.twinme.calls.CallConnection;
 import org.twinlife.twinme.calls.CallState;
+import org.twinlife.twinme.calls.ClockEstimator;
+import org.twinlife.twinme.calls.SerialExecutor;
 import org.twinlife.twinme.utils.MediaMetaData;
 
-import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import org.twinlife.twinme.calls.streaming.StreamingControlIQ.Mode;
 
 import static org.twinlife.twinme.calls.streaming.StreamingControlIQ.IQ_STREAMING_CONTROL_SERIALIZER;
 import static org.twinlife.twinme.calls.streaming.StreamingDataIQ.IQ_STREAMING_DATA_SERIALIZER;
+import static org.twinlife.twinme.calls.streaming.StreamingDataIQ.IQ_STREAMING_PUSH_SERIALIZER;
 import static org.twinlife.twinme.calls.streaming.StreamingInfoIQ.IQ_STREAMING_INFO_SERIALIZER;
 
 /**
  * The streamer is responsible for sending a media stream to every peer connection/participant to a call.
+ *
+ * Players request the blocks they need with the StreamingRequestIQ.  When a player supports the streaming
+ * protocol version 3, the streamer also pushes the blocks which are in its cache and follow the last
+ * request of that player.  In a group call, a block read from the content is sent to every player with
+ * the same StreamingDataIQ and each player is paced according to its position and latency.
  */
 public final class StreamerImpl implements Streamer {
     private static final String LOG_TAG = "Streamer";
@@ -52,42 +63,106 @@ public final class StreamerImpl implements Streamer {
     // Above 1s, such latency is ignored as a protection as it could delay the pause/resume too much.
     private static final int MAX_LATENCY = 1000;
 
+    // Default byte budget for the stream buffers that are kept in memory.
+    public static final long DEFAULT_CACHE_SIZE = 2 * 1024 * 1024;
+
+    // Minimum byte budget for the stream buffers: we must keep a few blocks for each player.
+    private static final long MIN_CACHE_SIZE = 16 * StreamBuffer.BUFFER_SIZE;
+
+    // Default number of bytes that we read ahead of the fastest player.
+    public static final long DEFAULT_READ_AHEAD_SIZE = 256 * 1024;
+
+    // Number of blocks pushed ahead of the last player request: one more block for each
+    // PUSH_LATENCY_STEP ms of latency so that blocks arrive before the player asks for them.
+    private static final int MIN_PUSH_BLOCKS = 2;
+    private static final int MAX_PUSH_BLOCKS = 16;
+    private static final int PUSH_LATENCY_STEP = 50;
+
     static final class RemotePlayerInfo {
         long position;
-        long lastdate;
+        long lastdate;  // Local time of the player position (SystemClock.elapsedRealtime()).
         int latency;
+        int delay;      // One way delay to the player.
         boolean paused;
+        long offset;    // Last stream offset requested by the player.
+        int length;     // Last block length requested by the player.
+        long pushOffset; // Next stream offset to push to the player.
+        @Nullable
+        StreamConnection connection;
+
+        /**
+         * Record the player position reported at the peer time and convert that time to our clock
+         * by using the clock offset estimated for the connection.
+         *
+         * @param clock the connection clock estimator.
+         * @param peerTime the peer time of the position.
+         * @param playerPosition the player position.
+         * @param receiveTime our time when the position was received.
+         * @param roundTripTime the round trip time measured by the player.
+         */
+        void update(@NonNull ClockEstimator clock, long peerTime, long playerPosition, long receiveTime, int roundTripTime) {
+
+            if (roundTripTime > 0 && roundTripTime < MAX_LATENCY) {
+                clock.addSample(peerTime, receiveTime, roundTripTime);
+            }
+            position = playerPosition;
+            if (clock.hasEstimate()) {
+                delay = Math.min(clock.getRoundTripTime() / 2, MAX_LATENCY);
+                lastdate = Math.min(clock.toLocalTime(peerTime), receiveTime);
+            } else {
+                delay = Math.min(latency, MAX_LATENCY);
+                lastdate = receiveTime - delay;
+            }
+        }
 
+        /**
+         * Get the position of the player when a message sent now is received by the player.
+         *
+         * @param now our current time.
+         * @return the player position.
+         */
         long getPosition(long now) {
             if (paused) {
                 return position;
             } else {
-                return position + (now - lastdate) + (long) latency;
+                return position + (now - lastdate) + (long) delay;
             }
         }
     }
 
     @Nullable
-    private InputStream mFileStream;
-    private long mFileStreamPos;
+    private StreamSource mSource;
     @NonNull
     private final ScheduledExecutorService mExecutor;
     @NonNull
+    private final SerialExecutor mIOExecutor;
+    @Nullable
     private final CallState mCall;
     @Nullable
     private final MediaMetaData mMediaMetaData;
 
     private final long mStreamIdent;
     private final boolean mVideo;
+    @Nullable
     private final Handler mHandler;
-    private boolean mEndOfStream;
     private final TreeSet<StreamBuffer> mBuffers;
+    private long mCacheSize;
+    private long mMaxCacheSize;
+    private long mReadAheadSize;
+    private boolean mPrefetchPending;
+    private boolean mPushEnabled;
+    private boolean mPushPending;
+    private long mLocalOffset;
+    private long mSourcePosition;
+    private int mLocalLength;
     private final Map<UUID, RemotePlayerInfo> mRemotePlayers;
+    @NonNull
+    private final StreamMetrics mMetrics;
     @Nullable
     private StreamPlayerImpl mLocalPlayer;
 
     public StreamerImpl(@NonNull CallState callState, long streamIdent, @Nullable MediaMetaData mediaMetaData,
-                        @NonNull ScheduledExecutorService executor) {
+                        @NonNull ScheduledExecutorService executor, @NonNull Executor ioExecutor) {
         if (DEBUG) {
             Log.d(LOG_TAG, "Streamer");
         }
@@ -95,13 +170,47 @@ public final class StreamerImpl implements Streamer {
         mCall = callState;
         mHandler = callState.getHandler();
         mExecutor = executor;
+        mIOExecutor = new SerialExecutor(ioExecutor);
         mBuffers = new TreeSet<>(new StreamBufferComparator());
+        mCacheSize = 0;
+        mMaxCacheSize = DEFAULT_CACHE_SIZE;
+        mReadAheadSize = DEFAULT_READ_AHEAD_SIZE;
+        mPushEnabled = true;
+        mMetrics = new StreamMetrics();
         mRemotePlayers = new HashMap<>();
         mMediaMetaData = mediaMetaData;
         mStreamIdent = streamIdent;
         mVideo = mediaMetaData != null && mediaMetaData.type == MediaMetaData.Type.VIDEO;
     }
 
+    /**
+     * Create a streamer which is not attached to a call: it streams the opened source to the players
+     * registered with addRemotePlayer().  It is used to run the streaming data path against fake
+     * connections (see StreamingBenchmark).
+     */
+    StreamerImpl(long streamIdent, @NonNull StreamSource source,
+                 @NonNull ScheduledExecutorService executor, @NonNull Executor ioExecutor) {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "Streamer source=" + source);
+        }
+
+        mCall = null;
+        mHandler = null;
+        mExecutor = executor;
+        mIOExecutor = new SerialExecutor(ioExecutor);
+        mBuffers = new TreeSet<>(new StreamBufferComparator());
+        mCacheSize = 0;
+        mMaxCacheSize = DEFAULT_CACHE_SIZE;
+        mReadAheadSize = DEFAULT_READ_AHEAD_SIZE;
+        mPushEnabled = true;
+        mMetrics = new StreamMetrics();
+        mRemotePlayers = new HashMap<>();
+        mMediaMetaData = null;
+        mStreamIdent = streamIdent;
+        mVideo = false;
+        mSource = source;
+    }
+
     /**
      * Check if the media stream is a video stream.
      *
@@ -113,6 +222,61 @@ public final class StreamerImpl implements Streamer {
         return mVideo;
     }
 
+    /**
+     * Get the streamer metrics (cache hits and misses, read latency, lag of each peer).
+     *
+     * @return the streamer metrics.
+     */
+    @Override
+    @NonNull
+    public StreamMetrics getMetrics() {
+
+        return mMetrics;
+    }
+
+    /**
+     * Set the maximum number of bytes that the streamer keeps in memory for the stream buffers.
+     * Buffers are evicted when every player has consumed them or when the budget is exceeded,
+     * they are read again from the content if a player seeks backward.
+     *
+     * @param size the byte budget for the stream buffers.
+     */
+    public synchronized void setMaxCacheSize(long size) {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "setMaxCacheSize size=" + size);
+        }
+
+        mMaxCacheSize = size < MIN_CACHE_SIZE ? MIN_CACHE_SIZE : size;
+    }
+
+    /**
+     * Set the number of bytes that the streamer reads ahead of the fastest player so that most requests
+     * are served from the cache.  The read ahead is also bounded by the cache byte budget.
+     *
+     * @param size the read ahead size in bytes (0 disables the read ahead).
+     */
+    public synchronized void setReadAheadSize(long size) {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "setReadAheadSize size=" + size);
+        }
+
+        mReadAheadSize = size < 0 ? 0 : size;
+    }
+
+    /**
+     * Enable or disable pushing the cached blocks to the players which support the streaming protocol
+     * version 3.  When disabled, the players only get the blocks they request.
+     *
+     * @param enable true to push the blocks.
+     */
+    public synchronized void setPushEnabled(boolean enable) {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "setPushEnabled enable=" + enable);
+        }
+
+        mPushEnabled = enable;
+    }
+
     /**
      * Start streaming a content represented by the given path and which is provided by the resolver.
      * Note: opening the input stream can be slow and block so this method returns immediately while
@@ -128,20 +292,19 @@ public final class StreamerImpl implements Streamer {
 
         mExecutor.execute(() -> {
 
-            mCall.onEventStreaming(null, StreamingEvent.EVENT_START);
+            notifyEvent(StreamingEvent.EVENT_START);
             try {
                 long length;
 
-                InputStream inputStream = resolver.openInputStream(path);
+                final StreamSource source = StreamSource.open(resolver, path);
                 synchronized (this) {
-                    if (mFileStream != null) {
-
+                    if (mSource != null) {
+                        source.close();
                         return;
                     }
 
-                    mFileStream = inputStream;
-                    mFileStreamPos = 0;
-                    if (mMediaMetaData != null) {
+                    mSource = source;
+                    if (mMediaMetaData != null && mCall != null) {
                         mLocalPlayer = new StreamPlayerImpl(mStreamIdent, 0, mVideo, mCall, null, this);
                         mLocalPlayer.setInformation(mMediaMetaData.title, mMediaMetaData.album, mMediaMetaData.artist, mMediaMetaData.artwork, mMediaMetaData.duration);
                     }
@@ -152,7 +315,7 @@ public final class StreamerImpl implements Streamer {
             } catch (Exception exception) {
                 Log.e(LOG_TAG, "Exception ", exception);
 
-                mCall.onEventStreaming(null, StreamingEvent.EVENT_ERROR);
+                notifyEvent(StreamingEvent.EVENT_ERROR);
             }
         });
     }
@@ -180,17 +343,17 @@ public final class StreamerImpl implements Streamer {
 
         final StreamPlayerImpl localPlayer;
         synchronized (this) {
-            if (mFileStream != null) {
-                try {
-                    mFileStream.close();
-                } catch (Exception exception) {
-                    Log.d(LOG_TAG, "Close error", exception);
-                }
-                mFileStream = null;
+            if (mSource != null) {
+                mSource.close();
+                mSource = null;
             } else {
                 notify = false;
             }
+            for (StreamBuffer buffer : mBuffers) {
+                buffer.release();
+            }
             mBuffers.clear();
+            mCacheSize = 0;
             localPlayer = mLocalPlayer;
             mLocalPlayer = null;
         }
@@ -201,7 +364,8 @@ public final class StreamerImpl implements Streamer {
         if (localPlayer != null) {
             localPlayer.stop(false);
         }
-        mCall.onEventStreaming(null, StreamingEvent.EVENT_STOP);
+        mIOExecutor.shutdown();
+        notifyEvent(StreamingEvent.EVENT_STOP);
     }
 
     /**
@@ -246,7 +410,7 @@ public final class StreamerImpl implements Streamer {
             Log.d(LOG_TAG, "seekStreaming offset=" + offset);
         }
 
-        sendStreamControl(StreamingControlIQ.Mode.SEEK_STREAMING, offset, System.currentTimeMillis(), offset);
+        sendStreamControl(StreamingControlIQ.Mode.SEEK_STREAMING, offset, SystemClock.elapsedRealtime(), offset);
         if (mLocalPlayer != null) {
             mExecutor.execute(() -> {
                 // Check again the local player instance and seek to the position.
@@ -268,11 +432,13 @@ public final class StreamerImpl implements Streamer {
             Log.d(LOG_TAG, "onStreamingControlIQ: iq=" + iq);
         }
 
-        if (iq.ident != mStreamIdent) {
+        final Handler handler = mHandler;
+        final CallState call = mCall;
+        if (iq.ident != mStreamIdent || handler == null || call == null) {
             return;
         }
 
-        final long receiveTime = System.currentTimeMillis();
+        final long receiveTime = SystemClock.elapsedRealtime();
         final UUID peerConnectionId = connection.getPeerConnectionId();
         if (peerConnectionId == null) {
             return;
@@ -283,36 +449,31 @@ public final class StreamerImpl implements Streamer {
         if (playerInfo == null) {
             return;
         }
-        playerInfo.lastdate = receiveTime;
         if (iq.latency < MAX_LATENCY) {
             playerInfo.latency = iq.latency;
         }
 
-        // The peer's player real position is now ahead of at least the latency.
-        if (iq.control != Mode.STREAMING_STATUS_PAUSED) {
-            playerInfo.position = iq.position + playerInfo.latency;
-        } else {
-            playerInfo.position = iq.position;
-        }
+        // The player sends half of its last round trip time as latency.
+        playerInfo.update(connection.getClockEstimator(), iq.timestamp, iq.position, receiveTime, 2 * iq.latency);
 
         switch (iq.control) {
             case ASK_PAUSE_STREAMING:
                 // Must be paused from the main UI thread.
-                mHandler.post(this::pauseStreaming);
+                handler.post(this::pauseStreaming);
                 break;
 
             case ASK_RESUME_STREAMING:
                 // Must be resumed from the main UI thread.
-                mHandler.post(this::resumeStreaming);
+                handler.post(this::resumeStreaming);
                 break;
 
             case ASK_SEEK_STREAMING:
                 // Must be seek from the main UI thread.
-                mHandler.post(() -> seekStreaming(iq.length));
+                handler.post(() -> seekStreaming(iq.length));
                 break;
 
             case ASK_STOP_STREAMING:
-                mCall.stopStreaming(true);
+                call.stopStreaming(true);
                 break;
 
             case STREAMING_STATUS_PLAYING:
@@ -349,7 +510,7 @@ public final class StreamerImpl implements Streamer {
      *
      * @param iq the streaming data iq.
      */
-    public void onStreamingRequestIQ(@NonNull CallConnection connection, @NonNull StreamingRequestIQ iq) {
+    public void onStreamingRequestIQ(@NonNull StreamConnection connection, @NonNull StreamingRequestIQ iq) {
         if (DEBUG) {
             Log.d(LOG_TAG, "onStreamingRequestIQ: iq=" + iq);
         }
@@ -358,7 +519,7 @@ public final class StreamerImpl implements Streamer {
             return;
         }
 
-        final long receiveTime = System.currentTimeMillis();
+        final long receiveTime = SystemClock.elapsedRealtime();
         final UUID peerConnectionId = connection.getPeerConnectionId();
         if (peerConnectionId == null) {
             return;
@@ -369,66 +530,116 @@ public final class StreamerImpl implements Streamer {
         if (playerInfo == null) {
             return;
         }
-        playerInfo.lastdate = receiveTime;
         if (iq.lastRTT < MAX_LATENCY) {
             playerInfo.latency = iq.lastRTT;
         }
-        if (playerInfo.paused) {
-            playerInfo.position = iq.playerPosition;
-        } else {
-            playerInfo.position = iq.playerPosition + playerInfo.latency;
+        playerInfo.update(connection.getClockEstimator(), iq.timestamp, iq.playerPosition, receiveTime, iq.lastRTT);
+        // Honor the block length requested by the player (up to MAX_BLOCK_SIZE).
+        final int length = getBlockLength(iq.length);
+        final long lag;
+        synchronized (this) {
+            // The player seeks backward or goes past the pushed blocks: push again from that request.
+            if (iq.offset < playerInfo.offset || iq.offset + length > playerInfo.pushOffset) {
+                playerInfo.pushOffset = iq.offset + length;
+            }
+            playerInfo.offset = iq.offset;
+            playerInfo.length = length;
+            lag = mSourcePosition > iq.offset ? mSourcePosition - iq.offset : 0;
         }
+        mMetrics.updatePeerLag(peerConnectionId, lag);
 
-        final StreamBuffer cachedBuffer = getBuffer(iq.offset);
+        final StreamBuffer cachedBuffer = acquireBuffer(iq.offset);
         if (cachedBuffer != null) {
-            final long now = System.currentTimeMillis();
+            final long now = SystemClock.elapsedRealtime();
             final long streamerPosition = getStreamerPosition(now);
             final int streamerLatency = (int) (now - receiveTime);
-            final StreamingDataIQ responseIq = new StreamingDataIQ(IQ_STREAMING_DATA_SERIALIZER, iq.getRequestId(),
-                    iq.ident, cachedBuffer.mFirstOffset, streamerPosition, iq.timestamp,
-                    streamerLatency, cachedBuffer.mBuffer, 0, cachedBuffer.size());
+            final StreamingDataIQ responseIq = createDataIQ(iq, cachedBuffer, length, streamerPosition, streamerLatency);
 
-            connection.sendMessage(responseIq, PeerConnectionService.StatType.IQ_SET_PUSH_OBJECT);
+            mMetrics.recordCacheHit();
+            mMetrics.recordSent(responseIq.size, false);
+            connection.sendIQ(IQ_STREAMING_DATA_SERIALIZER, responseIq, PeerConnectionService.StatType.IQ_SET_PUSH_OBJECT);
+
+            // The IQ is serialized when sendIQ() returns (see StreamConnection.sendIQ()).
+            cachedBuffer.release();
+            schedulePrefetch();
+            schedulePush();
             return;
         }
 
-        mExecutor.execute(() -> processRequest(iq.offset, (ErrorCode errorCode, StreamBuffer buffer) -> {
+        // Blocking I/O is made from our streaming thread.
+        executeIO(() -> processRequest(iq.offset, length, (ErrorCode errorCode, StreamBuffer buffer) -> {
             final StreamingDataIQ responseIq;
-            final long now = System.currentTimeMillis();
+            final long now = SystemClock.elapsedRealtime();
             final long streamerPosition = getStreamerPosition(now);
             final int streamerLatency = (int) (now - receiveTime);
             if (buffer != null) {
-                responseIq = new StreamingDataIQ(IQ_STREAMING_DATA_SERIALIZER, iq.getRequestId(),
-                        iq.ident, buffer.mFirstOffset, streamerPosition, iq.timestamp,
-                        streamerLatency, buffer.mBuffer, 0, buffer.size());
+                responseIq = createDataIQ(iq, buffer, length, streamerPosition, streamerLatency);
             } else {
                 responseIq = new StreamingDataIQ(IQ_STREAMING_DATA_SERIALIZER, iq.getRequestId(),
                         iq.ident, iq.offset, streamerPosition, iq.timestamp,
                         streamerLatency,null, 0, 0);
             }
 
-            connection.sendMessage(responseIq, PeerConnectionService.StatType.IQ_SET_PUSH_OBJECT);
+            mMetrics.recordSent(responseIq.size, false);
+            connection.sendIQ(IQ_STREAMING_DATA_SERIALIZER, responseIq, PeerConnectionService.StatType.IQ_SET_PUSH_OBJECT);
         }));
     }
 
+    /**
+     * Build the StreamingDataIQ response with the part of the buffer that starts at the requested offset.
+     * A block in the cache can start before the requested offset and can be smaller than the requested length:
+     * the player asks again for the missing part.
+     */
+    @NonNull
+    private static StreamingDataIQ createDataIQ(@NonNull StreamingRequestIQ iq, @NonNull StreamBuffer buffer,
+                                                int length, long streamerPosition, int streamerLatency) {
+
+        final int startPos = buffer.mStart + (int) (iq.offset - buffer.mFirstOffset);
+        int size = (int) (buffer.mLastOffset - iq.offset);
+        if (size > length) {
+            size = length;
+        }
+        return new StreamingDataIQ(IQ_STREAMING_DATA_SERIALIZER, iq.getRequestId(),
+                iq.ident, iq.offset, streamerPosition, iq.timestamp,
+                streamerLatency, buffer.mBuffer, startPos, size);
+    }
+
+    /**
+     * Get the block length to read for a player request.
+     *
+     * @param length the length requested by the player.
+     * @return the block length bounded by MAX_BLOCK_SIZE.
+     */
+    private static int getBlockLength(long length) {
+
+        if (length <= 0) {
+            return StreamBuffer.BUFFER_SIZE;
+        } else if (length > StreamBuffer.MAX_BLOCK_SIZE) {
+            return StreamBuffer.MAX_BLOCK_SIZE;
+        } else {
+            return (int) length;
+        }
+    }
+
     @SuppressLint("UnsafeOptInUsageError")
-    void localStreamingRequest(long offset, StreamDataSource dataSource) {
+    void localStreamingRequest(long offset, int length, StreamDataSource dataSource) {
         if (DEBUG) {
-            Log.d(LOG_TAG, "localStreamingRequest: offset=" + offset);
+            Log.d(LOG_TAG, "localStreamingRequest: offset=" + offset + " length=" + length);
         }
 
-        mExecutor.execute(() -> {
-            final StreamBuffer cachedBuffer = getBuffer(offset);
+        executeIO(() -> {
+            mLocalOffset = offset;
+            mLocalLength = length;
+            // The data source releases the buffer when the player has consumed it.
+            final StreamBuffer cachedBuffer = acquireBuffer(offset);
             if (cachedBuffer != null) {
-                dataSource.write(offset, cachedBuffer.mFirstOffset, cachedBuffer.mBuffer);
+                mMetrics.recordCacheHit();
+                dataSource.write(offset, cachedBuffer);
+                schedulePrefetch();
                 return;
             }
-            processRequest(offset, (ErrorCode errorCode, StreamBuffer buffer) -> {
-                if (buffer != null) {
-                    dataSource.write(offset, buffer.mFirstOffset, buffer.mBuffer);
-                } else {
-                    dataSource.write(offset, offset, null);
-                }
+            processRequest(offset, length, (ErrorCode errorCode, StreamBuffer buffer) -> {
+                dataSource.write(offset, buffer != null ? buffer.retain() : null);
             });
         });
     }
@@ -480,9 +691,9 @@ public final class StreamerImpl implements Streamer {
         }
 
         if (event != null) {
-            mCall.onEventStreaming(null, event);
+            notifyEvent(event);
         }
-        if (mustStop) {
+        if (mustStop && mCall != null) {
             mCall.stopStreaming(true);
         }
     }
@@ -496,10 +707,9 @@ public final class StreamerImpl implements Streamer {
         }
 
         // Compute the max current position for all players and our local player.
-        final long now = System.currentTimeMillis();
+        final long now = SystemClock.elapsedRealtime();
         final long streamerPos = getStreamerPosition(now);
         long maxPosition = streamerPos;
-        int minLatency = Integer.MAX_VALUE;
         for (RemotePlayerInfo playerInfo : mRemotePlayers.values()) {
             if (playerInfo.lastdate > 0) {
                 long position = playerInfo.getPosition(now);
@@ -509,17 +719,11 @@ public final class StreamerImpl implements Streamer {
                 if (maxPosition < position) {
                     maxPosition = position;
                 }
-                if (playerInfo.latency > 0 && minLatency > playerInfo.latency) {
-                    minLatency = playerInfo.latency;
-                }
             }
         }
-        if (minLatency > MAX_LATENCY) {
-            minLatency = 0;
-        }
 
         sendStreamControl(StreamingControlIQ.Mode.PAUSE_STREAMING, maxPosition, now, streamerPos);
-        mCall.onEventStreaming(null, StreamingEvent.EVENT_PAUSED);
+        notifyEvent(StreamingEvent.EVENT_PAUSED);
 
         // Check again the local player instance and pause it.
         final StreamPlayerImpl player = mLocalPlayer;
@@ -527,7 +731,9 @@ public final class StreamerImpl implements Streamer {
             if (DEBUG) {
                 Log.d(LOG_TAG, "doPauseStreaming maxPos=" + maxPosition + " streamer=" + streamerPos);
             }
-            long delay = maxPosition + minLatency - streamerPos;
+            // The remote players pause when they reach maxPosition and their position already
+            // takes into account the delay of the PAUSE_STREAMING message.
+            long delay = maxPosition - streamerPos;
             if (delay < 0) {
                 delay = 0;
             }
@@ -545,10 +751,10 @@ public final class StreamerImpl implements Streamer {
 
         // Compute the min current position for all players and our local player.
         // This indicates the time we have to wait for the player that is stopped too early.
-        final long now = System.currentTimeMillis();
+        final long now = SystemClock.elapsedRealtime();
         final long streamerPos = getStreamerPosition(now);
         long minPosition = streamerPos;
-        int minLatency = 0;
+        int maxDelay = 0;
         for (RemotePlayerInfo playerInfo : mRemotePlayers.values()) {
             if (playerInfo.lastdate > 0) {
                 long position = playerInfo.getPosition(now);
@@ -558,14 +764,14 @@ public final class StreamerImpl implements Streamer {
                 if (minPosition > position) {
                     minPosition = position;
                 }
-                if (minLatency < playerInfo.latency) {
-                    minLatency = playerInfo.latency;
+                if (maxDelay < playerInfo.delay) {
+                    maxDelay = playerInfo.delay;
                 }
             }
         }
 
         sendStreamControl(StreamingControlIQ.Mode.RESUME_STREAMING, minPosition, now, streamerPos);
-        mCall.onEventStreaming(null, StreamingEvent.EVENT_PLAYING);
+        notifyEvent(StreamingEvent.EVENT_PLAYING);
 
         // Check again the local player instance and resume it.
         final StreamPlayerImpl player = mLocalPlayer;
@@ -573,7 +779,8 @@ public final class StreamerImpl implements Streamer {
             if (DEBUG) {
                 Log.e(LOG_TAG, "doResumeStreaming minPos=" + minPosition + " streamer=" + streamerPos);
             }
-            long delay = streamerPos - minPosition + minLatency;
+            // The remote players resume when they receive the RESUME_STREAMING message.
+            long delay = streamerPos - minPosition + maxDelay;
             if (delay < 0) {
                 delay = 0;
             }
@@ -586,64 +793,372 @@ public final class StreamerImpl implements Streamer {
         return mLocalPlayer == null ? 0 : mLocalPlayer.getCurrentPosition(now);
     }
 
-    private void processRequest(long offset, Consumer<StreamBuffer> consumer) {
+    private void processRequest(long offset, int length, Consumer<StreamBuffer> consumer) {
         if (DEBUG) {
-            Log.d(LOG_TAG, "processRequest offset=" + offset);
+            Log.d(LOG_TAG, "processRequest offset=" + offset + " length=" + length);
         }
 
-        final InputStream fileStream;
+        final StreamSource source;
         synchronized (this) {
-            fileStream = mFileStream;
+            source = mSource;
 
         }
 
-        if (fileStream == null) {
+        if (source == null) {
             consumer.onGet(ErrorCode.ITEM_NOT_FOUND, null);
             return;
         }
 
-        while (!mEndOfStream && offset <= mFileStreamPos) {
-            try {
-                byte[] data = new byte[(int) StreamBuffer.BUFFER_SIZE];
-                int size = fileStream.read(data);
-                if (size > 0) {
-                    StreamBuffer streamBuffer = new StreamBuffer(mFileStreamPos, data, size);
-                    synchronized (this) {
-                        mBuffers.add(streamBuffer);
+        // Another request or the prefetch could have loaded the block.
+        StreamBuffer buffer = acquireBuffer(offset);
+        if (buffer == null) {
+            mMetrics.recordCacheMiss();
+            buffer = readBlock(source, offset, length);
+        } else {
+            mMetrics.recordCacheHit();
+        }
+
+        if (buffer != null) {
+            consumer.onGet(ErrorCode.SUCCESS, buffer);
+            buffer.release();
+        } else {
+            consumer.onGet(ErrorCode.ITEM_NOT_FOUND, null);
+        }
+        schedulePrefetch();
+        schedulePush();
+    }
+
+    /**
+     * Read the block at the requested position and add it to the cache: the source handles the seek
+     * (positional read for a file, skip or re-open for the forward only stream).
+     *
+     * @param source the stream source.
+     * @param offset the block position.
+     * @param length the block length.
+     * @return the stream buffer (retained for the caller) or null if the block cannot be read.
+     */
+    @Nullable
+    private StreamBuffer readBlock(@NonNull StreamSource source, long offset, int length) {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "readBlock offset=" + offset + " length=" + length);
+        }
+
+        final StreamBufferPool pool = StreamBufferPool.getInstance();
+        final byte[] data = pool.acquire(length);
+        StreamBuffer buffer = null;
+        try {
+            final long startTime = System.nanoTime();
+            final int size = source.read(offset, data, length);
+            mMetrics.recordRead(System.nanoTime() - startTime);
+            if (size > 0) {
+                buffer = new StreamBuffer(offset, data, size);
+                synchronized (this) {
+                    // The cache keeps its own reference, we release ours once the consumer is called.
+                    if (mBuffers.add(buffer)) {
+                        mCacheSize += size;
+                        buffer.retain();
+                    }
+                    if (mSourcePosition < buffer.mLastOffset) {
+                        mSourcePosition = buffer.mLastOffset;
                     }
-                    mFileStreamPos = mFileStreamPos + size;
-                } else {
-                    mEndOfStream = true;
+                    evictBuffers(offset);
                 }
-            } catch (Exception exception) {
-                Log.e(LOG_TAG, "Exception", exception);
+            }
+        } catch (Exception exception) {
+            Log.e(LOG_TAG, "Exception", exception);
+        }
+        if (buffer == null) {
+            pool.release(data);
+        }
+        return buffer;
+    }
 
-                mEndOfStream = true;
-                break;
+    /**
+     * Schedule the read ahead of the blocks after the fastest player position.
+     */
+    private void schedulePrefetch() {
+
+        synchronized (this) {
+            if (mPrefetchPending || mSource == null || mReadAheadSize == 0) {
+                return;
+            }
+            mPrefetchPending = true;
+        }
+        executeIO(this::prefetch);
+    }
+
+    /**
+     * Read the next missing block within the read ahead window of the fastest player.  We read only
+     * one block at a time and schedule another prefetch so that player requests which are queued
+     * on the streaming thread are not delayed by the read ahead.
+     */
+    private void prefetch() {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "prefetch");
+        }
+
+        final StreamSource source;
+        long offset;
+        final long lastOffset;
+        final int blockLength;
+        synchronized (this) {
+            mPrefetchPending = false;
+            source = mSource;
+            if (source == null) {
+                return;
+            }
+
+            long highOffset = mLocalPlayer != null ? mLocalOffset : 0;
+            int highLength = mLocalPlayer != null ? mLocalLength : 0;
+            for (RemotePlayerInfo playerInfo : mRemotePlayers.values()) {
+                if (highOffset < playerInfo.offset) {
+                    highOffset = playerInfo.offset;
+                    highLength = playerInfo.length;
+                }
+            }
+            blockLength = getBlockLength(highLength);
+
+            // Keep half of the budget for the blocks still needed by the slowest players.
+            long readAhead = mReadAheadSize;
+            if (readAhead > mMaxCacheSize / 2) {
+                readAhead = mMaxCacheSize / 2;
+            }
+
+            // Players request consecutive blocks: find the first one after the fastest player which is not loaded.
+            offset = highOffset + blockLength;
+            lastOffset = highOffset + readAhead;
+            while (offset < lastOffset) {
+                final StreamBuffer buffer = mBuffers.floor(new StreamBuffer(offset));
+                if (buffer == null || buffer.mLastOffset <= offset) {
+                    break;
+                }
+                offset = buffer.mLastOffset;
+            }
+            final long length = source.getLength();
+            if (offset >= lastOffset || (length >= 0 && offset >= length)) {
+                return;
             }
         }
 
-        StreamBuffer buffer = getBuffer(offset);
+        final StreamBuffer buffer = readBlock(source, offset, blockLength);
         if (buffer != null) {
-            consumer.onGet(ErrorCode.SUCCESS, buffer);
+            buffer.release();
+            schedulePrefetch();
+            schedulePush();
+        }
+    }
+
+    /**
+     * Schedule sending the cached blocks to the players which accept pushed blocks.
+     */
+    private void schedulePush() {
+
+        synchronized (this) {
+            if (mPushPending || !mPushEnabled || mSource == null) {
+                return;
+            }
+            mPushPending = true;
+        }
+        executeIO(this::pushBlocks);
+    }
+
+    /**
+     * Get the number of blocks that we can push ahead of the last player request.
+     *
+     * @param latency the player latency.
+     * @return the number of blocks.
+     */
+    private static int getPushBlocks(int latency) {
+
+        final int count = MIN_PUSH_BLOCKS + latency / PUSH_LATENCY_STEP;
+        if (count > MAX_PUSH_BLOCKS) {
+            return MAX_PUSH_BLOCKS;
         } else {
-            consumer.onGet(ErrorCode.ITEM_NOT_FOUND, null);
+            return count;
         }
     }
 
     /**
-     * Get a stream buffer that contains the given offset position.
+     * Push the cached blocks which follow the last request of each player.  A player with a higher
+     * latency gets more blocks in advance and a paused player gets nothing.  When several players are
+     * at the same position, they receive the same StreamingDataIQ instance built once for the block.
+     */
+    private void pushBlocks() {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "pushBlocks");
+        }
+
+        final long now = SystemClock.elapsedRealtime();
+        final long streamerPosition = getStreamerPosition(now);
+        final List<StreamConnection> connections = new ArrayList<>();
+        final List<StreamingDataIQ> frames = new ArrayList<>();
+        final List<StreamBuffer> buffers = new ArrayList<>();
+        synchronized (this) {
+            mPushPending = false;
+            if (mSource == null || !mPushEnabled) {
+                return;
+            }
+
+            final Map<Long, StreamingDataIQ> sharedFrames = new HashMap<>();
+            for (RemotePlayerInfo playerInfo : mRemotePlayers.values()) {
+                final StreamConnection connection = playerInfo.connection;
+                if (connection == null || playerInfo.paused || playerInfo.length == 0
+                        || connection.getStreamingVersion() < 3) {
+                    continue;
+                }
+
+                final long lastOffset = playerInfo.offset + (long) playerInfo.length * getPushBlocks(playerInfo.latency);
+                long offset = playerInfo.pushOffset;
+                while (offset < lastOffset) {
+                    final StreamBuffer buffer = mBuffers.floor(new StreamBuffer(offset));
+                    if (buffer == null || buffer.mLastOffset <= offset) {
+                        break;
+                    }
+
+                    StreamingDataIQ frame = sharedFrames.get(offset);
+                    if (frame == null) {
+                        frame = new StreamingDataIQ(IQ_STREAMING_PUSH_SERIALIZER, connection.newRequestId(),
+                                mStreamIdent, offset, streamerPosition, now, 0, buffer.mBuffer,
+                                buffer.mStart + (int) (offset - buffer.mFirstOffset), (int) (buffer.mLastOffset - offset));
+                        sharedFrames.put(offset, frame);
+
+                        // Keep the buffer until every connection has sent the frame.
+                        buffers.add(buffer.retain());
+                    }
+                    connections.add(connection);
+                    frames.add(frame);
+                    offset = buffer.mLastOffset;
+                }
+                playerInfo.pushOffset = offset;
+            }
+        }
+
+        for (int i = 0; i < frames.size(); i++) {
+            mMetrics.recordSent(frames.get(i).size, true);
+            connections.get(i).sendIQ(IQ_STREAMING_PUSH_SERIALIZER, frames.get(i), PeerConnectionService.StatType.IQ_SET_PUSH_OBJECT);
+        }
+        // The frames are serialized when sendIQ() returns (see StreamConnection.sendIQ()).
+        for (StreamBuffer buffer : buffers) {
+            buffer.release();
+        }
+    }
+
+    /**
+     * Execute the operation on the streamer lane of the shared streaming I/O pool.  The operations of the
+     * streamer are serialized but they can block without delaying the call executor.
+     *
+     * @param operation the operation to execute.
+     */
+    private void executeIO(@NonNull Runnable operation) {
+
+        try {
+            mIOExecutor.execute(operation);
+        } catch (RejectedExecutionException exception) {
+            // The streamer is stopped.
+            if (DEBUG) {
+                Log.d(LOG_TAG, "Streamer is stopped", exception);
+            }
+        }
+    }
+
+    /**
+     * Release the stream buffers which are not needed anymore.  Buffers that have been consumed by
+     * every player are released first and when the byte budget is exceeded, we release the blocks
+     * that are outside of the window defined by the slowest and fastest players.
+     *
+     * @param keepOffset the stream position being served which must be kept.
+     */
+    private void evictBuffers(long keepOffset) {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "evictBuffers keepOffset=" + keepOffset + " cacheSize=" + mCacheSize);
+        }
+
+        // Find the position of the slowest and fastest players.
+        long lowOffset = keepOffset;
+        long highOffset = keepOffset;
+        if (mLocalPlayer != null) {
+            lowOffset = Math.min(lowOffset, mLocalOffset);
+            highOffset = Math.max(highOffset, mLocalOffset);
+        }
+        for (RemotePlayerInfo playerInfo : mRemotePlayers.values()) {
+            lowOffset = Math.min(lowOffset, playerInfo.offset);
+            highOffset = Math.max(highOffset, playerInfo.offset);
+        }
+
+        // Drop the buffers that every player has consumed.
+        StreamBuffer first = mBuffers.isEmpty() ? null : mBuffers.first();
+        while (first != null && first.mLastOffset <= lowOffset) {
+            mBuffers.pollFirst();
+            mCacheSize -= first.size();
+            first.release();
+            first = mBuffers.isEmpty() ? null : mBuffers.first();
+        }
+
+        // Shrink the window while we are above the budget: drop the blocks read ahead
+        // of the fastest player first and then the oldest blocks.
+        while (mCacheSize > mMaxCacheSize && mBuffers.size() > 1) {
+            final StreamBuffer last = mBuffers.last();
+            final StreamBuffer victim;
+            if (last.mFirstOffset > highOffset) {
+                victim = mBuffers.pollLast();
+            } else {
+                first = mBuffers.first();
+                if (first.mFirstOffset <= keepOffset && keepOffset < first.mLastOffset) {
+                    break;
+                }
+                victim = mBuffers.pollFirst();
+            }
+            if (victim != null) {
+                mCacheSize -= victim.size();
+                victim.release();
+            }
+        }
+    }
+
+    /**
+     * Register the connection of a player which receives the stream.
+     *
+     * @param connection the player connection.
+     */
+    void addRemotePlayer(@NonNull StreamConnection connection) {
+
+        final UUID peerConnectionId = connection.getPeerConnectionId();
+        if (peerConnectionId == null) {
+            return;
+        }
+
+        final RemotePlayerInfo playerInfo = new RemotePlayerInfo();
+        playerInfo.connection = connection;
+        synchronized (this) {
+            mRemotePlayers.put(peerConnectionId, playerInfo);
+        }
+    }
+
+    private void notifyEvent(@NonNull StreamingEvent event) {
+
+        if (mCall != null) {
+            mCall.onEventStreaming(null, event);
+        }
+    }
+
+    /**
+     * Get a stream buffer that contains the given offset position.  The stream buffer is retained
+     * and the caller must release it when it is not used anymore.
      *
      * @param offset the stream position.
      * @return the stream buffer or null if it must be loaded.
      */
     @Nullable
-    synchronized StreamBuffer getBuffer(long offset) {
+    synchronized StreamBuffer acquireBuffer(long offset) {
         if (DEBUG) {
-            Log.d(LOG_TAG, "getBuffer offset=" + offset);
+            Log.d(LOG_TAG, "acquireBuffer offset=" + offset);
         }
 
-        return mBuffers.floor(new StreamBuffer(offset));
+        final StreamBuffer buffer = mBuffers.floor(new StreamBuffer(offset));
+        if (buffer == null || buffer.mLastOffset <= offset) {
+            return null;
+        }
+        return buffer.retain();
     }
 
     /**
@@ -656,9 +1171,14 @@ public final class StreamerImpl implements Streamer {
             Log.d(LOG_TAG, "sendStreamStart length=" + length);
         }
 
-        final StreamingControlIQ iq = new StreamingControlIQ(IQ_STREAMING_CONTROL_SERIALIZER , mCall.allocateRequestId(),
+        final CallState call = mCall;
+        if (call == null) {
+            return;
+        }
+
+        final StreamingControlIQ iq = new StreamingControlIQ(IQ_STREAMING_CONTROL_SERIALIZER , call.allocateRequestId(),
                 mStreamIdent, mVideo ? StreamingControlIQ.Mode.START_VIDEO_STREAMING : StreamingControlIQ.Mode.START_AUDIO_STREAMING,
-                length, System.currentTimeMillis(), 0, 0);
+                length, SystemClock.elapsedRealtime(), 0, 0);
 
         final StreamingInfoIQ infoIQ;
         if (mMediaMetaData != null) {
@@ -673,19 +1193,18 @@ public final class StreamerImpl implements Streamer {
 
                 }
             }
-            infoIQ = new StreamingInfoIQ(IQ_STREAMING_INFO_SERIALIZER, mCall.allocateRequestId(), mStreamIdent,
+            infoIQ = new StreamingInfoIQ(IQ_STREAMING_INFO_SERIALIZER, call.allocateRequestId(), mStreamIdent,
                     mMediaMetaData.title, mMediaMetaData.album, mMediaMetaData.artist, artwork, mMediaMetaData.duration);
         } else {
             infoIQ = null;
         }
-        final List<CallConnection> connections = mCall.getConnections();
+        final List<CallConnection> connections = call.getConnections();
         for (CallConnection connection : connections) {
             if (StreamingStatus.isSupported(connection.getStreamingStatus())) {
-                final UUID peerConnectionId = connection.getPeerConnectionId();
-                mRemotePlayers.put(peerConnectionId, new RemotePlayerInfo());
-                connection.sendMessage(iq, PeerConnectionService.StatType.IQ_SET_PUSH_OBJECT);
+                addRemotePlayer(connection);
+                connection.sendIQ(IQ_STREAMING_CONTROL_SERIALIZER, iq, PeerConnectionService.StatType.IQ_SET_PUSH_OBJECT);
                 if (infoIQ != null) {
-                    connection.sendMessage(infoIQ, PeerConnectionService.StatType.IQ_SET_PUSH_OBJECT);
+                    connection.sendIQ(IQ_STREAMING_INFO_SERIALIZER, infoIQ, PeerConnectionService.StatType.IQ_SET_PUSH_OBJECT);
                 }
                 connection.updatePeerStreamingStatus(StreamingStatus.READY);
             }
@@ -705,13 +1224,18 @@ public final class StreamerImpl implements Streamer {
             Log.d(LOG_TAG, "sendStreamControl mode=" + mode + " offset=" + offset);
         }
 
-        final StreamingControlIQ iq = new StreamingControlIQ(IQ_STREAMING_CONTROL_SERIALIZER, mCall.allocateRequestId(),
+        final CallState call = mCall;
+        if (call == null) {
+            return;
+        }
+
+        final StreamingControlIQ iq = new StreamingControlIQ(IQ_STREAMING_CONTROL_SERIALIZER, call.allocateRequestId(),
                 mStreamIdent, mode, offset, timestamp, streamerPosition, 0);
 
-        final List<CallConnection> connections = mCall.getConnections();
+        final List<CallConnection> connections = call.getConnections();
         for (CallConnection connection : connections) {
             if (StreamingStatus.isSupported(connection.getStreamingStatus())) {
-                connection.sendMessage(iq, PeerConnectionService.StatType.IQ_SET_RESET_CONVERSATION);
+                connection.sendIQ(IQ_STREAMING_CONTROL_SERIALIZER, iq, PeerConnectionService.StatType.IQ_SET_RESET_CONVERSATION);
             }
         }
     }
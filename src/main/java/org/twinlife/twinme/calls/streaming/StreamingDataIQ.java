@@ -18,6 +18,7 @@ import org.twinlife.twinlife.SerializerException;
 import org.twinlife.twinlife.SerializerFactory;
 import org.twinlife.twinlife.util.BinaryPacketIQ;
 
+import java.nio.ByteBuffer;
 import java.util.UUID;
 
 /**
@@ -45,11 +46,17 @@ import java.util.UUID;
  *
  * </pre>
  *
+ * The same record is used with the schema "8f0b2d4e-6c1a-4b7e-9a53-2e4d7c9b1f60" when the streamer pushes
+ * a block to the player without a request (streaming protocol version 3).  The timestamp is the time when
+ * the block was sent and several peers receive the same StreamingDataIQ instance.
+ *
  * @see StreamingRequestIQ
  */
 public class StreamingDataIQ extends BinaryPacketIQ {
     private static final UUID STREAMING_DATA_SCHEMA_ID = UUID.fromString("5a5d0994-2ca3-4a62-9da3-9b7d5c4abdd4");
+    private static final UUID STREAMING_PUSH_SCHEMA_ID = UUID.fromString("8f0b2d4e-6c1a-4b7e-9a53-2e4d7c9b1f60");
     public static final BinaryPacketIQ.BinaryPacketIQSerializer IQ_STREAMING_DATA_SERIALIZER = StreamingDataIQ.createSerializer(STREAMING_DATA_SCHEMA_ID, 1);
+    public static final BinaryPacketIQ.BinaryPacketIQSerializer IQ_STREAMING_PUSH_SERIALIZER = StreamingDataIQ.createSerializer(STREAMING_PUSH_SCHEMA_ID, 1);
 
     final long ident;
     final long offset;
@@ -60,6 +67,7 @@ public class StreamingDataIQ extends BinaryPacketIQ {
     final byte[] data;
     final int size;
     final int startPos;
+    final boolean pooled;
 
     public StreamingDataIQ(@NonNull BinaryPacketIQSerializer serializer, long requestId,
                            long ident, long offset, long streamerPosition, long timestamp, int streamerLatency,
@@ -75,6 +83,24 @@ public class StreamingDataIQ extends BinaryPacketIQ {
         this.data = data;
         this.startPos = startPos;
         this.size = length;
+        this.pooled = false;
+    }
+
+    StreamingDataIQ(@NonNull BinaryPacketIQSerializer serializer, long requestId,
+                    long ident, long offset, long streamerPosition, long timestamp, int streamerLatency,
+                    @Nullable byte[] data, int startPos, int length, boolean pooled) {
+
+        super(serializer, requestId);
+
+        this.ident = ident;
+        this.offset = offset;
+        this.streamerPosition = streamerPosition;
+        this.timestamp = timestamp;
+        this.streamerLatency = streamerLatency;
+        this.data = data;
+        this.startPos = startPos;
+        this.size = length;
+        this.pooled = pooled;
     }
 
     //
@@ -102,6 +128,14 @@ public class StreamingDataIQ extends BinaryPacketIQ {
         }
     }
 
+    /**
+     * @return the size of the stream data carried by the IQ.
+     */
+    public int getDataSize() {
+
+        return data == null ? 0 : size;
+    }
+
     @NonNull
     public String toString() {
 
@@ -125,6 +159,9 @@ public class StreamingDataIQ extends BinaryPacketIQ {
 
     private static class StreamingDataIQSerializer extends BinaryPacketIQSerializer {
 
+        // Size of the last block received: blocks have the same size while the request window is stable.
+        private volatile int mBlockSize = StreamBuffer.BUFFER_SIZE;
+
         StreamingDataIQSerializer(UUID schemaId, int schemaVersion) {
 
             super(schemaId, schemaVersion, StreamingDataIQ.class);
@@ -164,19 +201,43 @@ public class StreamingDataIQ extends BinaryPacketIQ {
             final long streamerPosition = decoder.readLong();
             final int streamerLatency = decoder.readInt();
             final int state = decoder.readEnum();
-            final byte[] data;
+            byte[] data;
+            int startPos;
             final int length;
+            final boolean pooled;
 
             if (state == 1) {
-                data = decoder.readBytes(null).array();
-                length = data.length;
+                // Give a pooled block of the expected size to the decoder which re-uses it when it is large enough:
+                // the block is released by the StreamDataSource when the player has consumed it.
+                final StreamBufferPool pool = StreamBufferPool.getInstance();
+                byte[] block = pool.acquire(mBlockSize);
+                final ByteBuffer buffer = decoder.readBytes(ByteBuffer.wrap(block));
+                length = buffer.remaining();
+                if (buffer.hasArray() && buffer.array() == block) {
+                    data = block;
+                    startPos = buffer.arrayOffset() + buffer.position();
+                } else {
+                    // The decoder returned a view on the received frame: copy the bytes because the frame can be
+                    // reused after deserialize() returns while the player may read the block seconds later.
+                    if (length > block.length) {
+                        pool.release(block);
+                        block = pool.acquire(length);
+                    }
+                    buffer.get(block, 0, length);
+                    data = block;
+                    startPos = 0;
+                }
+                pooled = true;
+                mBlockSize = length;
             } else {
                 data = null;
+                startPos = 0;
                 length = 0;
+                pooled = false;
             }
 
             return new StreamingDataIQ(this, serviceRequestIQ.getRequestId(), ident, offset,
-                    streamerPosition, timestamp, streamerLatency, data, 0, length);
+                    streamerPosition, timestamp, streamerLatency, data, startPos, length, pooled);
         }
     }
 
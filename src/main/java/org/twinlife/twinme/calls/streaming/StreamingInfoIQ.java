@@ -97,6 +97,14 @@ public class StreamingInfoIQ extends BinaryPacketIQ {
         }
     }
 
+    /**
+     * @return the size of the artwork carried by the IQ.
+     */
+    public int getArtworkSize() {
+
+        return artwork == null ? 0 : artwork.length;
+    }
+
     @NonNull
     public String toString() {
 
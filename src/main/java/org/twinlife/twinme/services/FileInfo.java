@@ -11,11 +11,13 @@ package org.twinlife.twinme.services;
 
 import android.net.Uri;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import org.twinlife.twinlife.ConversationService;
 
 import java.util.UUID;
+import java.util.concurrent.Future;
 
 class FileInfo {
     final Uri file;
@@ -27,6 +29,19 @@ class FileInfo {
     final boolean toDelete;
     final boolean allowCopy;
 
+    // Media to prepare with saveMedia() before the push (null when the file is pushed as is).
+    @Nullable
+    final org.twinlife.twinme.utils.FileInfo media;
+    final int sendImageSize;
+    final int sendVideoSize;
+
+    // Preparation state of the media, protected by the MediaPreparer lock.
+    @Nullable
+    Future<?> preparation;
+    @Nullable
+    Uri preparedFile;
+    boolean prepared;
+
     FileInfo(Uri file, String filename, ConversationService.Descriptor.Type type, boolean toDelete, boolean allowCopy,
              @Nullable UUID sendTo, @Nullable ConversationService.DescriptorId replyTo, long expireTimeout) {
         this.file = file;
@@ -37,5 +52,41 @@ class FileInfo {
         this.sendTo = sendTo;
         this.replyTo = replyTo;
         this.expireTimeout = expireTimeout;
+        this.media = null;
+        this.sendImageSize = 0;
+        this.sendVideoSize = 0;
+    }
+
+    FileInfo(@NonNull org.twinlife.twinme.utils.FileInfo media, int sendImageSize, int sendVideoSize, String filename,
+             ConversationService.Descriptor.Type type, boolean allowCopy,
+             @Nullable UUID sendTo, @Nullable ConversationService.DescriptorId replyTo, long expireTimeout) {
+        this.file = media.getUri();
+        this.filename = filename;
+        this.type = type;
+        this.toDelete = false;
+        this.allowCopy = allowCopy;
+        this.sendTo = sendTo;
+        this.replyTo = replyTo;
+        this.expireTimeout = expireTimeout;
+        this.media = media;
+        this.sendImageSize = sendImageSize;
+        this.sendVideoSize = sendVideoSize;
+    }
+
+    /**
+     * @return the file to push: the prepared file or the original file if the preparation failed.
+     */
+    @NonNull
+    Uri getPushFile() {
+
+        return preparedFile != null ? preparedFile : file;
+    }
+
+    /**
+     * @return true if the file must be removed once it is pushed.
+     */
+    boolean isPushFileTemporary() {
+
+        return preparedFile != null || toDelete;
     }
 }
@@ -0,0 +1,213 @@
+/*
+ *  Copyright (c) 2025 twinlife SA.
+ *  SPDX-License-Identifier: AGPL-3.0-only
+ *
+ *  Contributors:
+ *   Stephane Carrez (Stephane.Carrez@twin.life)
+ */
+
+package org.twinlife.twinme.services;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Prepare the media queued by ConversationService and ShareService ahead of the push.
+ *
+ * Resizing an image, transcoding a video or copying a media with FileInfo.saveMedia() is made on a bounded
+ * pool shared by the services.  The pool size depends on the number of cores and on the heap size since
+ * each image resize holds a few decoded bitmaps, the video transcodings are serialized by the VideoTranscoder
+ * which uses the hardware encoders.  Only the first files of the queue are prepared so that
+ * the prepared files don't fill the cache directory: the service pushes the files in the queue order and
+ * waits for the file at the head of the queue to be prepared.
+ */
+final class MediaPreparer {
+    private static final String LOG_TAG = "MediaPreparer";
+    private static final boolean DEBUG = false;
+
+    // Estimation of the memory used to resize one image.
+    private static final long PREPARE_MEMORY = 24 * 1024 * 1024;
+    private static final int MAX_PREPARE_THREADS = 4;
+    private static final long PREPARE_KEEP_ALIVE = 10;
+
+    private static final ThreadPoolExecutor EXECUTOR = createExecutor();
+
+    /**
+     * Listener called from the pool thread.
+     */
+    interface Listener {
+
+        void onPrepareProgress(@NonNull FileInfo fileInfo, int progress);
+
+        void onPrepared(@NonNull FileInfo fileInfo);
+    }
+
+    @NonNull
+    private final Context mContext;
+    @NonNull
+    private final Listener mListener;
+    private boolean mDisposed;
+
+    /**
+     * Create the media preparer for a service.
+     *
+     * @param context the context used by saveMedia().
+     * @param listener the listener called when a media is prepared.
+     */
+    MediaPreparer(@NonNull Context context, @NonNull Listener listener) {
+
+        mContext = context.getApplicationContext();
+        mListener = listener;
+    }
+
+    /**
+     * Start the preparation of the files that are pushed next.
+     *
+     * @param current the file being pushed or null.
+     * @param files the queue of files to push.
+     */
+    synchronized void prepare(@Nullable FileInfo current, @NonNull List<FileInfo> files) {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "prepare current=" + current + " files=" + files.size());
+        }
+
+        if (mDisposed) {
+            return;
+        }
+
+        // Keep every thread busy: the file being pushed and one file per pool thread.
+        int count = EXECUTOR.getMaximumPoolSize();
+        if (current != null) {
+            start(current);
+        } else {
+            count++;
+        }
+        for (int i = 0; i < files.size() && i < count; i++) {
+            start(files.get(i));
+        }
+    }
+
+    /**
+     * Check if the file is ready to be pushed.
+     *
+     * @param fileInfo the file.
+     * @return true if the file can be pushed.
+     */
+    synchronized boolean isReady(@NonNull FileInfo fileInfo) {
+
+        return fileInfo.media == null || fileInfo.prepared;
+    }
+
+    /**
+     * Stop the preparations (a video transcoding is cancelled) and remove the prepared files which are not pushed.
+     *
+     * @param current the file waiting at the head of the queue or null when its push has started.
+     * @param files the files which are not pushed.
+     */
+    void dispose(@Nullable FileInfo current, @Nullable List<FileInfo> files) {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "dispose current=" + current);
+        }
+
+        synchronized (this) {
+            mDisposed = true;
+            if (current != null) {
+                cancel(current);
+            }
+            if (files != null) {
+                for (FileInfo fileInfo : files) {
+                    cancel(fileInfo);
+                }
+            }
+        }
+    }
+
+    private void cancel(@NonNull FileInfo fileInfo) {
+
+        if (fileInfo.preparation != null) {
+            fileInfo.preparation.cancel(true);
+        }
+        if (fileInfo.prepared) {
+            deleteFile(fileInfo.preparedFile);
+            fileInfo.preparedFile = null;
+        }
+    }
+
+    private void start(@NonNull FileInfo fileInfo) {
+
+        if (fileInfo.media == null || fileInfo.preparation != null) {
+            return;
+        }
+
+        fileInfo.preparation = EXECUTOR.submit(() -> {
+            org.twinlife.twinme.utils.FileInfo result;
+            try {
+                if (fileInfo.media.isImage() || fileInfo.media.isVideo()) {
+                    result = fileInfo.media.saveMedia(mContext, fileInfo.sendImageSize, fileInfo.sendVideoSize,
+                            (int progress) -> mListener.onPrepareProgress(fileInfo, progress));
+                } else {
+                    result = fileInfo.media.saveFile(mContext);
+                }
+            } catch (Exception | OutOfMemoryError exception) {
+                Log.e(LOG_TAG, "Cannot prepare " + fileInfo.media + ": " + exception);
+                result = null;
+            }
+
+            final boolean disposed;
+            synchronized (this) {
+                disposed = mDisposed;
+                fileInfo.preparedFile = result == null || disposed ? null : result.getUri();
+                fileInfo.prepared = true;
+            }
+            if (disposed) {
+                if (result != null) {
+                    deleteFile(result.getUri());
+                }
+                return;
+            }
+
+            if (result == null) {
+                Log.w(LOG_TAG, "Cannot prepare " + fileInfo.media + ", the original file is pushed");
+            }
+            mListener.onPrepared(fileInfo);
+        });
+    }
+
+    private static void deleteFile(@Nullable Uri uri) {
+
+        final String path = uri == null ? null : uri.getPath();
+        if (path != null && !new File(path).delete()) {
+            Log.w(LOG_TAG, "Cannot remove prepared file " + path);
+        }
+    }
+
+    /**
+     * Create the bounded pool to prepare the media.  The threads stop when there is nothing to prepare.
+     *
+     * @return the media preparation pool.
+     */
+    @NonNull
+    private static ThreadPoolExecutor createExecutor() {
+
+        final int cores = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        final int memory = (int) Math.max(1, Runtime.getRuntime().maxMemory() / 4 / PREPARE_MEMORY);
+        final int threads = Math.min(MAX_PREPARE_THREADS, Math.min(cores, memory));
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                PREPARE_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> new Thread(runnable, "Media-Prepare-" + threadCount.incrementAndGet()));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -11,6 +11,7 @@
 
 package org.twinlife.twinme.services;
 
+import android.content.Context;
 import android.net.Uri;
 import android.util.Log;
 
@@ -64,6 +65,31 @@ public class ShareService extends AbstractTwinmeService {
         void onSendFilesFinished();
 
         void onErrorNoPermission();
+
+        /**
+         * Progress of the media preparation in percent or VideoTranscoder.PROGRESS_FAILED when the video could
+         * not be transcoded and the original video is sent.
+         */
+        default void onPrepareMediaProgress(@NonNull Uri file, int progress) {}
+    }
+
+    private class MediaPreparerListener implements MediaPreparer.Listener {
+
+        @Override
+        public void onPrepareProgress(@NonNull FileInfo fileInfo, int progress) {
+
+            runOnUiThread(() -> {
+                if (mObserver != null) {
+                    mObserver.onPrepareMediaProgress(fileInfo.file, progress);
+                }
+            });
+        }
+
+        @Override
+        public void onPrepared(@NonNull FileInfo fileInfo) {
+
+            startOperation();
+        }
     }
 
     private class TwinmeContextObserver extends AbstractTwinmeService.TwinmeContextObserver {
@@ -161,6 +187,8 @@ public class ShareService extends AbstractTwinmeService {
     private List<FileInfo> mFiles;
     @Nullable
     private FileInfo mCurrentFile;
+    @Nullable
+    private MediaPreparer mMediaPreparer;
 
     public ShareService(@NonNull TwinmeActivity activity, @NonNull TwinmeContext twinmeContext,
                         @NonNull ShareService.Observer observer, @Nullable DescriptorId descriptorId) {
@@ -239,6 +267,31 @@ public class ShareService extends AbstractTwinmeService {
         startOperation();
     }
 
+    /**
+     * Push a media after its preparation by FileInfo.saveMedia(): the images are resized and the videos
+     * are transcoded according to the send image and video size settings.  The media are prepared in background
+     * ahead of the push and they are pushed in the order of the calls.
+     */
+    public void pushMedia(@NonNull Context context, @NonNull org.twinlife.twinme.utils.FileInfo media, @NonNull String filename,
+                          @NonNull ConversationService.Descriptor.Type type, boolean allowCopy,
+                          @Nullable UUID sendTo, @Nullable DescriptorId replyTo, long expireTimeout) {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "pushMedia: media=" + media);
+        }
+
+        synchronized (this) {
+            if (mFiles == null) {
+                mFiles = new ArrayList<>();
+            }
+            if (mMediaPreparer == null) {
+                mMediaPreparer = new MediaPreparer(context, new MediaPreparerListener());
+            }
+            mFiles.add(new FileInfo(media, mTwinmeApplication.sendImageSize(), mTwinmeApplication.sendVideoSize(), filename, type, allowCopy, sendTo, replyTo, expireTimeout));
+            mMediaPreparer.prepare(mCurrentFile, mFiles);
+        }
+        startOperation();
+    }
+
     public synchronized boolean isSendingFiles() {
 
         return mFiles != null && (!mFiles.isEmpty() || mCurrentFile != null);
@@ -298,6 +351,13 @@ public class ShareService extends AbstractTwinmeService {
             mTwinmeContext.getConversationService().removeServiceObserver(mConversationServiceObserver);
         }
 
+        synchronized (this) {
+            if (mMediaPreparer != null) {
+                // The current file is still owned by the preparer until its push has started.
+                mMediaPreparer.dispose((mState & PUSH_FILE) == 0 ? mCurrentFile : null, mFiles);
+            }
+        }
+
         mObserver = null;
         super.dispose();
     }
@@ -382,6 +442,9 @@ public class ShareService extends AbstractTwinmeService {
             if (mFiles != null && !mFiles.isEmpty()) {
                 mCurrentFile = mFiles.remove(0);
                 mState &= ~PUSH_FILE;
+                if (mMediaPreparer != null) {
+                    mMediaPreparer.prepare(mCurrentFile, mFiles);
+                }
             }
         }
         if (mCurrentFile == null) {
@@ -565,12 +628,13 @@ public class ShareService extends AbstractTwinmeService {
                 nextPushFile();
             }
             if (mCurrentFile != null) {
-                if ((mState & PUSH_FILE) == 0) {
+                // Wait for the preparation of the file before pushing it.
+                if ((mState & PUSH_FILE) == 0 && (mMediaPreparer == null || mMediaPreparer.isReady(mCurrentFile))) {
                     mState |= PUSH_FILE;
 
                     long requestId = newOperation(PUSH_FILE);
                     mTwinmeContext.getConversationService().pushFile(requestId, mConversation, mCurrentFile.sendTo, mCurrentFile.replyTo,
-                            mCurrentFile.file, mCurrentFile.filename, mCurrentFile.type, mCurrentFile.toDelete, mCurrentFile.allowCopy,
+                            mCurrentFile.getPushFile(), mCurrentFile.filename, mCurrentFile.type, mCurrentFile.isPushFileTemporary(), mCurrentFile.allowCopy,
                             mCurrentFile.expireTimeout * 1000);
                 }
                 return;
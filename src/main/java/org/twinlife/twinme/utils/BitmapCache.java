@@ -0,0 +1,336 @@
+/*
+ *  Copyright (c) 2025 twinlife SA.
+ *  SPDX-License-Identifier: AGPL-3.0-only
+ *
+ *  Contributors:
+ *   Stephane Carrez (Stephane.Carrez@twin.life)
+ */
+
+package org.twinlife.twinme.utils;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.drawable.BitmapDrawable;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.collection.LruCache;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Memory cache of the decoded images used by CommonUtils.getBitmapDrawable().
+ *
+ * The cache keeps strong references to the BitmapDrawable and its size is bounded by the number of bytes
+ * used by the bitmaps: the budget is computed from the application memory class.  The cache also holds
+ * a pool of bitmaps that can be reused by BitmapFactory through the inBitmap option.  Only the bitmaps
+ * owned by the decoder are given to the pool (such as the intermediate bitmap dropped after the rotation):
+ * the bitmaps evicted from the cache are never reused because the application can still display them
+ * without their BitmapDrawable.  The pool is only used before Android 9: the ImageDecoder used by
+ * BitmapDecoder on newer devices cannot decode into an existing bitmap, so the pool is never filled there.
+ */
+public final class BitmapCache {
+    private static final String LOG_TAG = "BitmapCache";
+    private static final boolean DEBUG = false;
+
+    // Part of the application memory class given to the cache (1/8) and to the reusable bitmap pool (1/32).
+    private static final int CACHE_MEMORY_DIVIDER = 8;
+    private static final int POOL_MEMORY_DIVIDER = 32;
+    private static final int MIN_CACHE_SIZE = 4 * 1024 * 1024;
+
+    private static final class Key {
+        @NonNull
+        final String path;
+        final int maxWidth;
+        final int maxHeight;
+
+        Key(@NonNull String path, int maxWidth, int maxHeight) {
+
+            this.path = path;
+            this.maxWidth = maxWidth;
+            this.maxHeight = maxHeight;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+
+            if (object == this) {
+
+                return true;
+            }
+
+            if (!(object instanceof Key)) {
+
+                return false;
+            }
+
+            Key key = (Key) object;
+
+            return path.equals(key.path) && maxWidth == key.maxWidth && maxHeight == key.maxHeight;
+        }
+
+        @Override
+        public int hashCode() {
+
+            int result = 17;
+            result = 31 * result + path.hashCode();
+            result = 31 * result + maxWidth;
+            result = 31 * result + maxHeight;
+
+            return result;
+        }
+    }
+
+    private static final class PoolEntry {
+        @NonNull
+        final Bitmap bitmap;
+        final int size;
+
+        PoolEntry(@NonNull Bitmap bitmap) {
+
+            this.bitmap = bitmap;
+            this.size = bitmap.getAllocationByteCount();
+        }
+    }
+
+    @Nullable
+    private static volatile BitmapCache sInstance;
+
+    @NonNull
+    private final LruCache<Key, BitmapDrawable> mCache;
+    @NonNull
+    private final LinkedList<PoolEntry> mPool;
+    private final long mMaxPoolSize;
+    private long mPoolSize;
+    private long mReuseCount;
+
+    /**
+     * Get the bitmap cache, it is created on the first call with a size computed from the memory class.
+     *
+     * @param context the context.
+     * @return the bitmap cache.
+     */
+    @NonNull
+    public static BitmapCache getInstance(@NonNull Context context) {
+
+        BitmapCache cache = sInstance;
+        if (cache == null) {
+            synchronized (BitmapCache.class) {
+                cache = sInstance;
+                if (cache == null) {
+                    final ActivityManager activityManager = (ActivityManager) context.getApplicationContext().getSystemService(Context.ACTIVITY_SERVICE);
+                    final long memoryClass = activityManager != null ? activityManager.getMemoryClass() : 32;
+                    final long memory = memoryClass * 1024L * 1024L;
+                    cache = new BitmapCache((int) Math.max(MIN_CACHE_SIZE, memory / CACHE_MEMORY_DIVIDER), memory / POOL_MEMORY_DIVIDER);
+                    sInstance = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    private BitmapCache(int maxSize, long maxPoolSize) {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "BitmapCache maxSize=" + maxSize + " maxPoolSize=" + maxPoolSize);
+        }
+
+        mPool = new LinkedList<>();
+        mMaxPoolSize = maxPoolSize;
+        mCache = new LruCache<Key, BitmapDrawable>(maxSize) {
+            @Override
+            protected int sizeOf(@NonNull Key key, @NonNull BitmapDrawable value) {
+
+                final Bitmap bitmap = value.getBitmap();
+                return bitmap == null ? 1 : Math.max(1, bitmap.getAllocationByteCount());
+            }
+        };
+    }
+
+    /**
+     * Get the image decoded for the path and the max dimension.
+     *
+     * @param path the image path.
+     * @param maxWidth the max width used to decode the image.
+     * @param maxHeight the max height used to decode the image.
+     * @return the image or null if it is not in the cache.
+     */
+    @Nullable
+    public BitmapDrawable get(@NonNull String path, int maxWidth, int maxHeight) {
+
+        return mCache.get(new Key(path, maxWidth, maxHeight));
+    }
+
+    /**
+     * Put in the cache the image decoded for the path and the max dimension.
+     *
+     * @param path the image path.
+     * @param maxWidth the max width used to decode the image.
+     * @param maxHeight the max height used to decode the image.
+     * @param drawable the image.
+     */
+    public void put(@NonNull String path, int maxWidth, int maxHeight, @NonNull BitmapDrawable drawable) {
+
+        mCache.put(new Key(path, maxWidth, maxHeight), drawable);
+    }
+
+    /**
+     * Get a bitmap from the pool that can be used as inBitmap to decode the image described by the options
+     * (outWidth, outHeight and inSampleSize must be set).  The bitmap is removed from the pool.
+     *
+     * @param options the decode options.
+     * @return the bitmap to reuse or null.
+     */
+    @Nullable
+    public synchronized Bitmap getReusableBitmap(@NonNull BitmapFactory.Options options) {
+
+        final int sampleSize = Math.max(1, options.inSampleSize);
+        final int width = (options.outWidth + sampleSize - 1) / sampleSize;
+        final int height = (options.outHeight + sampleSize - 1) / sampleSize;
+        final Bitmap.Config config = options.inPreferredConfig != null ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        final long byteCount = (long) width * height * getBytesPerPixel(config);
+
+        final Iterator<PoolEntry> iterator = mPool.iterator();
+        while (iterator.hasNext()) {
+            final PoolEntry entry = iterator.next();
+            if (entry.bitmap.isRecycled()) {
+                mPoolSize -= entry.size;
+                iterator.remove();
+
+            } else if (entry.size >= byteCount && entry.size <= 4 * byteCount) {
+                mPoolSize -= entry.size;
+                iterator.remove();
+                mReuseCount++;
+                return entry.bitmap;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Give back a mutable bitmap which is not used anymore so that it can be reused for another decode.
+     * The caller must own the bitmap: it must not be referenced by a view, a drawable or the cache.
+     * The bitmap is not kept on Android 9 and above where it would never be reused.
+     *
+     * @param bitmap the bitmap.
+     */
+    public synchronized void addReusableBitmap(@NonNull Bitmap bitmap) {
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P || !bitmap.isMutable() || bitmap.isRecycled()) {
+            return;
+        }
+
+        final PoolEntry entry = new PoolEntry(bitmap);
+        if (entry.size > mMaxPoolSize) {
+            return;
+        }
+
+        mPool.add(entry);
+        mPoolSize += entry.size;
+
+        // Drop the oldest bitmaps but don't recycle them since they can still be used.
+        while (mPoolSize > mMaxPoolSize && !mPool.isEmpty()) {
+            mPoolSize -= mPool.removeFirst().size;
+        }
+    }
+
+    /**
+     * Remove every image from the cache and the reusable bitmap pool.
+     */
+    public void evictAll() {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "evictAll");
+        }
+
+        mCache.evictAll();
+        synchronized (this) {
+            mPool.clear();
+            mPoolSize = 0;
+        }
+    }
+
+    /**
+     * Release memory according to the level given by ComponentCallbacks2.onTrimMemory().
+     *
+     * @param level the trim memory level.
+     */
+    public void trimMemory(int level) {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "trimMemory level=" + level);
+        }
+
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mCache.trimToSize(mCache.maxSize() / 2);
+        }
+    }
+
+    public int getHitCount() {
+
+        return mCache.hitCount();
+    }
+
+    public int getMissCount() {
+
+        return mCache.missCount();
+    }
+
+    public int getEvictionCount() {
+
+        return mCache.evictionCount();
+    }
+
+    public synchronized long getReuseCount() {
+
+        return mReuseCount;
+    }
+
+    /**
+     * @return the number of bytes used by the images in the cache.
+     */
+    public int getSize() {
+
+        return mCache.size();
+    }
+
+    /**
+     * @return the max number of bytes used by the images in the cache.
+     */
+    public int getMaxSize() {
+
+        return mCache.maxSize();
+    }
+
+    //
+    // Override Object methods
+    //
+
+    @Override
+    @NonNull
+    public String toString() {
+
+        return "BitmapCache[size=" + getSize() + "/" + getMaxSize() + " hit=" + getHitCount() + " miss=" + getMissCount()
+                + " evict=" + getEvictionCount() + " reuse=" + getReuseCount() + "]";
+    }
+
+    private static int getBytesPerPixel(@NonNull Bitmap.Config config) {
+
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+
+            default:
+                return 4;
+        }
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ *  Copyright (c) 2025 twinlife SA.
+ *  SPDX-License-Identifier: AGPL-3.0-only
+ *
+ *  Contributors:
+ *   Stephane Carrez (Stephane.Carrez@twin.life)
+ */
+
+package org.twinlife.twinme.utils;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.ImageDecoder;
+import android.graphics.Matrix;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
+import android.util.Size;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+import androidx.exifinterface.media.ExifInterface;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decode an image scaled to a target size and with its EXIF orientation applied.
+ *
+ * On Android 9 and above, the ImageDecoder reads the image once, applies the orientation and decodes it
+ * directly at the target size.  On older devices, the image is read once through a buffered stream:
+ * the EXIF orientation and the bounds are read and the stream is reset to decode the pixels with
+ * an inSampleSize.  The final scale and the rotation are then made in a single Bitmap.createBitmap().
+ * The BitmapCache pool of reusable bitmaps is only used by the BitmapFactory path (before Android 9):
+ * the ImageDecoder always allocates a new bitmap.
+ */
+final class BitmapDecoder {
+    private static final String LOG_TAG = "BitmapDecoder";
+    private static final boolean DEBUG = false;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Max number of bytes read for the EXIF and the bounds before we reset the stream to decode the pixels.
+    private static final int MARK_LIMIT = 1024 * 1024;
+
+    /**
+     * Compute the size of the decoded image.
+     */
+    interface TargetSize {
+
+        /**
+         * Get the size of the decoded image for the given image size (orientation applied).
+         *
+         * @param width the image width.
+         * @param height the image height.
+         * @return the target width and height or null to keep the image size.
+         */
+        @Nullable
+        int[] getTargetSize(int width, int height);
+    }
+
+    /**
+     * Open the image stream.
+     */
+    interface StreamOpener {
+
+        @Nullable
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * Decoded image with the size of the source image (orientation applied).
+     */
+    static final class Result {
+        @NonNull
+        final Bitmap bitmap;
+        final int sourceWidth;
+        final int sourceHeight;
+
+        Result(@NonNull Bitmap bitmap, int sourceWidth, int sourceHeight) {
+
+            this.bitmap = bitmap;
+            this.sourceWidth = sourceWidth;
+            this.sourceHeight = sourceHeight;
+        }
+    }
+
+    /**
+     * Decode the image file.
+     *
+     * @param path the image path.
+     * @param targetSize the target size of the decoded image.
+     * @param pool the optional bitmap pool to reuse bitmaps (ignored on Android 9 and above).
+     * @return the decoded image or null.
+     */
+    @Nullable
+    static Result decodeFile(@NonNull String path, @NonNull TargetSize targetSize, @Nullable BitmapCache pool) {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "decodeFile path=" + path);
+        }
+
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+                return decode(ImageDecoder.createSource(new File(path)), targetSize);
+            }
+
+            return decodeStream(() -> new FileInputStream(path), targetSize, pool);
+
+        } catch (IOException exception) {
+            Log.e(LOG_TAG, "decodeFile " + path + " exception=" + exception);
+            return null;
+        }
+    }
+
+    /**
+     * Decode the image identified by a content URI.
+     *
+     * @param contentResolver the content resolver.
+     * @param uri the image URI.
+     * @param targetSize the target size of the decoded image.
+     * @param pool the optional bitmap pool to reuse bitmaps (ignored on Android 9 and above).
+     * @return the decoded image or null.
+     */
+    @Nullable
+    static Result decodeUri(@NonNull ContentResolver contentResolver, @NonNull Uri uri, @NonNull TargetSize targetSize,
+                            @Nullable BitmapCache pool) {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "decodeUri uri=" + uri);
+        }
+
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+                return decode(ImageDecoder.createSource(contentResolver, uri), targetSize);
+            }
+
+            return decodeStream(() -> contentResolver.openInputStream(uri), targetSize, pool);
+
+        } catch (IOException | SecurityException exception) {
+            Log.e(LOG_TAG, "decodeUri " + uri + " exception=" + exception);
+            return null;
+        }
+    }
+
+    /**
+     * Get the matrix to apply the EXIF orientation.
+     *
+     * @param orientation the EXIF orientation.
+     * @return the matrix or null for the normal orientation.
+     */
+    @Nullable
+    static Matrix getOrientationMatrix(int orientation) {
+
+        final Matrix matrix;
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix = new Matrix();
+                matrix.setScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix = new Matrix();
+                matrix.setRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix = new Matrix();
+                matrix.setRotate(180);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix = new Matrix();
+                matrix.setRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix = new Matrix();
+                matrix.setRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix = new Matrix();
+                matrix.setRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix = new Matrix();
+                matrix.setRotate(-90);
+                break;
+            default:
+                matrix = null;
+                break;
+        }
+        return matrix;
+    }
+
+    private static boolean isTransposed(int orientation) {
+
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+            case ExifInterface.ORIENTATION_ROTATE_90:
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    @RequiresApi(Build.VERSION_CODES.P)
+    @NonNull
+    private static Result decode(@NonNull ImageDecoder.Source source, @NonNull TargetSize targetSize) throws IOException {
+
+        final int[] sourceSize = new int[2];
+        final Bitmap bitmap = ImageDecoder.decodeBitmap(source, (ImageDecoder decoder, ImageDecoder.ImageInfo info, ImageDecoder.Source src) -> {
+            // The size is given with the EXIF orientation applied.
+            final Size size = info.getSize();
+            sourceSize[0] = size.getWidth();
+            sourceSize[1] = size.getHeight();
+
+            final int[] target = targetSize.getTargetSize(size.getWidth(), size.getHeight());
+            if (target != null && target[0] > 0 && target[1] > 0) {
+                decoder.setTargetSize(target[0], target[1]);
+            }
+            decoder.setAllocator(ImageDecoder.ALLOCATOR_SOFTWARE);
+        });
+        return new Result(bitmap, sourceSize[0], sourceSize[1]);
+    }
+
+    @Nullable
+    private static Result decodeStream(@NonNull StreamOpener opener, @NonNull TargetSize targetSize,
+                                       @Nullable BitmapCache pool) throws IOException {
+
+        final InputStream stream = opener.open();
+        if (stream == null) {
+            return null;
+        }
+
+        InputStream inputStream = new BufferedInputStream(stream, BUFFER_SIZE);
+        try {
+            inputStream.mark(MARK_LIMIT);
+            int orientation = ExifInterface.ORIENTATION_NORMAL;
+            try {
+                final ExifInterface exifInterface = new ExifInterface(inputStream);
+                orientation = exifInterface.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+            } catch (Exception exception) {
+                if (DEBUG) {
+                    Log.d(LOG_TAG, "No EXIF orientation: " + exception);
+                }
+            }
+
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            inputStream = rewind(inputStream, opener);
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeStream(inputStream, null, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+
+            inputStream = rewind(inputStream, opener);
+            return decodeStream(inputStream, opener, options, orientation, targetSize, pool);
+
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Go back to the beginning of the stream: the stream is opened again in the unlikely case where
+     * the EXIF and bounds decoding read more than MARK_LIMIT bytes.
+     */
+    @NonNull
+    private static InputStream rewind(@NonNull InputStream inputStream, @NonNull StreamOpener opener) throws IOException {
+
+        try {
+            inputStream.reset();
+            return inputStream;
+
+        } catch (IOException exception) {
+            inputStream.close();
+            final InputStream stream = opener.open();
+            if (stream == null) {
+                throw exception;
+            }
+            inputStream = new BufferedInputStream(stream, BUFFER_SIZE);
+            inputStream.mark(MARK_LIMIT);
+            return inputStream;
+        }
+    }
+
+    @Nullable
+    private static Result decodeStream(@NonNull InputStream inputStream, @NonNull StreamOpener opener,
+                                       @NonNull BitmapFactory.Options options, int orientation,
+                                       @NonNull TargetSize targetSize, @Nullable BitmapCache pool) throws IOException {
+
+        final boolean transposed = isTransposed(orientation);
+        final int width = transposed ? options.outHeight : options.outWidth;
+        final int height = transposed ? options.outWidth : options.outHeight;
+        final int[] target = targetSize.getTargetSize(width, height);
+        final int targetWidth = target != null && target[0] > 0 ? target[0] : width;
+        final int targetHeight = target != null && target[1] > 0 ? target[1] : height;
+
+        // Decode an image that is a little bit bigger than the target size: the exact size is obtained when
+        // we rotate the image.
+        int inSampleSize = 1;
+        while (width / (inSampleSize * 2) >= targetWidth && height / (inSampleSize * 2) >= targetHeight) {
+            inSampleSize *= 2;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = inSampleSize;
+        options.inMutable = true;
+        options.inBitmap = pool != null ? pool.getReusableBitmap(options) : null;
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeStream(inputStream, null, options);
+        } catch (IllegalArgumentException exception) {
+            // The reused bitmap is not compatible with the image.
+            options.inBitmap = null;
+            try (InputStream stream = opener.open()) {
+                bitmap = stream == null ? null : BitmapFactory.decodeStream(new BufferedInputStream(stream, BUFFER_SIZE), null, options);
+            }
+        }
+        if (bitmap == null) {
+            return null;
+        }
+
+        // Fold the rotation and the final scale in the same transformation.
+        final int decodedWidth = transposed ? bitmap.getHeight() : bitmap.getWidth();
+        final int decodedHeight = transposed ? bitmap.getWidth() : bitmap.getHeight();
+        final boolean scale = Math.abs(decodedWidth - targetWidth) > 1 || Math.abs(decodedHeight - targetHeight) > 1;
+        Matrix matrix = getOrientationMatrix(orientation);
+        if (scale) {
+            if (matrix == null) {
+                matrix = new Matrix();
+            }
+            matrix.postScale(targetWidth / (float) decodedWidth, targetHeight / (float) decodedHeight);
+        }
+        if (matrix != null) {
+            final Bitmap result = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+            if (result != bitmap && pool != null) {
+                pool.addReusableBitmap(bitmap);
+            }
+            bitmap = result;
+        }
+
+        return new Result(bitmap, width, height);
+    }
+}
@@ -23,11 +23,9 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Matrix;
 import android.graphics.Typeface;
 import android.graphics.drawable.BitmapDrawable;
 import android.net.Uri;
-import android.provider.MediaStore;
 import android.text.SpannableString;
 import android.text.SpannableStringBuilder;
 import android.text.format.DateFormat;
@@ -41,13 +39,11 @@ import android.view.View;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.collection.LruCache;
 import androidx.core.app.Person;
 import androidx.core.content.LocusIdCompat;
 import androidx.core.content.pm.ShortcutInfoCompat;
 import androidx.core.graphics.drawable.IconCompat;
 import androidx.core.text.TextUtilsCompat;
-import androidx.exifinterface.media.ExifInterface;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
@@ -62,8 +58,6 @@ import org.twinlife.twinme.ui.Intents;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.lang.ref.WeakReference;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.text.SimpleDateFormat;
@@ -86,8 +80,6 @@ public class CommonUtils {
     private static final String LOG_TAG = "CommonUtils";
     private static final boolean DEBUG = false;
 
-    private static final int MAX_ENTRIES = 64;
-
     private static final String EMOJI_HAPPY_CODE = "\uD83D\uDE00";
     private static final String EMOJI_SAD_CODE = "\uD83D\uDE41";
     public static final String SMILEY_HAPPY = ":-)";
@@ -145,50 +137,6 @@ public class CommonUtils {
         }
     }
 
-    private static class Key {
-
-        @NonNull
-        final String path;
-
-        final int maxWidth;
-        final int maxHeight;
-        Key(@NonNull String path, int maxWidth, int maxHeight) {
-
-            this.path = path;
-            this.maxWidth = maxWidth;
-            this.maxHeight = maxHeight;
-        }
-
-        @Override
-        public boolean equals(Object object) {
-
-            if (object == this) {
-
-                return true;
-            }
-
-            if (!(object instanceof Key)) {
-
-                return false;
-            }
-
-            Key key = (Key) object;
-
-            return path.equals(key.path) && maxWidth == key.maxWidth && maxHeight == key.maxHeight;
-        }
-
-        @Override
-        public int hashCode() {
-
-            int result = 17;
-            result = 31 * result + path.hashCode();
-            result = 31 * result + maxWidth;
-            result = 31 * result + maxHeight;
-
-            return result;
-        }
-
-    }
     private static class Range {
 
         private int mStart;
@@ -224,7 +172,6 @@ public class CommonUtils {
         }
 
     }
-    private static final LruCache<Key, WeakReference<BitmapDrawable>> sBitmapDrawableCache = new LruCache<>(MAX_ENTRIES);
 
     @Nullable
     public static UUID UUIDFromString(@Nullable String value) {
@@ -325,119 +272,41 @@ public class CommonUtils {
     @Nullable
     public static BitmapDrawable getBitmapDrawable(@NonNull Context context, @NonNull String path, int maxWidth, int maxHeight) {
 
-        Key key = new Key(path, maxWidth, maxHeight);
-        WeakReference<BitmapDrawable> cachedEntry = sBitmapDrawableCache.get(key);
-        BitmapDrawable bitmapDrawable = null;
-        if (cachedEntry != null) {
-            bitmapDrawable = cachedEntry.get();
-            if (bitmapDrawable != null) {
-                return bitmapDrawable;
-            }
-        }
-
-        int orientation = ExifInterface.ORIENTATION_NORMAL;
-
-        try {
-            ExifInterface exifInterface = new ExifInterface(path);
-            orientation = exifInterface.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
-        } catch (Exception exception) {
-            Log.e(LOG_TAG, "getBitmapDrawable context=" + context + " path=" + path + " maxWidth=" + maxWidth + " maxHeight=" + maxHeight + " exception=" + exception);
-        } catch (OutOfMemoryError exception) {
-            return null;
-        }
-
-        switch (orientation) {
-            case ExifInterface.ORIENTATION_TRANSPOSE:
-            case ExifInterface.ORIENTATION_ROTATE_90:
-            case ExifInterface.ORIENTATION_TRANSVERSE:
-            case ExifInterface.ORIENTATION_ROTATE_270:
-                int max = maxWidth;
-                //noinspection SuspiciousNameCombination
-                maxWidth = maxHeight;
-                maxHeight = max;
-                break;
-
-            default:
+        final BitmapCache cache = BitmapCache.getInstance(context);
+        BitmapDrawable bitmapDrawable = cache.get(path, maxWidth, maxHeight);
+        if (bitmapDrawable != null) {
+            return bitmapDrawable;
         }
 
-        BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
         try {
-            BitmapFactory.decodeFile(path, options);
-        } catch (OutOfMemoryError exception) {
-            return null;
-        }
-
-        int inSampleSize = 1;
-
-        // Scale the image if we have a max width or height.
-        if (maxWidth > 0 && maxHeight > 0) {
-            while (options.outWidth / inSampleSize > maxWidth || options.outHeight / inSampleSize > maxHeight) {
-                inSampleSize *= 2;
-            }
-
-            // For a max width/height < max image size (such as 256), we accept and need an image
-            // that is a little bit larger than the max size so that we get some reasonable resolution.
-            if (inSampleSize > 1 && maxWidth < MAX_IMAGE_SIZE && maxHeight < MAX_IMAGE_SIZE) {
-                inSampleSize = inSampleSize / 2;
-            }
-        }
+            // Scale the image if we have a max width or height.
+            final BitmapDecoder.Result result = BitmapDecoder.decodeFile(path, (int width, int height) -> {
+                if (maxWidth <= 0 || maxHeight <= 0) {
+                    return null;
+                }
 
-        Matrix matrix = null;
-        switch (orientation) {
-            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
-                matrix = new Matrix();
-                matrix.setScale(-1, 1);
-                break;
-            case ExifInterface.ORIENTATION_ROTATE_180:
-                matrix = new Matrix();
-                matrix.setRotate(180);
-                break;
-            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
-                matrix = new Matrix();
-                matrix.setRotate(180);
-                matrix.postScale(-1, 1);
-                break;
-            case ExifInterface.ORIENTATION_TRANSPOSE:
-                matrix = new Matrix();
-                matrix.setRotate(90);
-                matrix.postScale(-1, 1);
-                break;
-            case ExifInterface.ORIENTATION_ROTATE_90:
-                matrix = new Matrix();
-                matrix.setRotate(90);
-                break;
-            case ExifInterface.ORIENTATION_TRANSVERSE:
-                matrix = new Matrix();
-                matrix.setRotate(-90);
-                matrix.postScale(-1, 1);
-                break;
-            case ExifInterface.ORIENTATION_ROTATE_270:
-                matrix = new Matrix();
-                matrix.setRotate(-90);
-                break;
-            default:
-        }
+                int inSampleSize = 1;
+                while (width / inSampleSize > maxWidth || height / inSampleSize > maxHeight) {
+                    inSampleSize *= 2;
+                }
 
-        try {
-            options.inSampleSize = inSampleSize;
-            options.inJustDecodeBounds = false;
-            Bitmap bitmap = BitmapFactory.decodeFile(path, options);
-            if (bitmap != null) {
-                if (matrix != null) {
-                    Bitmap lBitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
-                    bitmap.recycle();
-                    bitmapDrawable = new BitmapDrawable(context.getResources(), lBitmap);
-                } else {
-                    bitmapDrawable = new BitmapDrawable(context.getResources(), bitmap);
+                // For a max width/height < max image size (such as 256), we accept and need an image
+                // that is a little bit larger than the max size so that we get some reasonable resolution.
+                if (inSampleSize > 1 && maxWidth < MAX_IMAGE_SIZE && maxHeight < MAX_IMAGE_SIZE) {
+                    inSampleSize = inSampleSize / 2;
                 }
+                return inSampleSize == 1 ? null : new int[] { width / inSampleSize, height / inSampleSize };
+            }, cache);
+
+            if (result != null) {
+                bitmapDrawable = new BitmapDrawable(context.getResources(), result.bitmap);
                 if (DEBUG) {
-                    Log.e(LOG_TAG, "Loaded bitmap " + path + " " + bitmap.getWidth() + "x" + bitmap.getHeight());
+                    Log.e(LOG_TAG, "Loaded bitmap " + path + " " + result.bitmap.getWidth() + "x" + result.bitmap.getHeight());
                 }
 
                 // Don't put in the cache an image that was not scaled.
                 if (maxWidth > 0 && maxHeight > 0) {
-                    sBitmapDrawableCache.put(key, new WeakReference<>(bitmapDrawable));
+                    cache.put(path, maxWidth, maxHeight, bitmapDrawable);
                 }
             }
         } catch (Exception | OutOfMemoryError exception) {
@@ -454,147 +323,47 @@ public class CommonUtils {
         }
 
         ResizeBitmap resizeBitmap = new ResizeBitmap();
-        int orientation = ExifInterface.ORIENTATION_NORMAL;
-
         try {
-            ExifInterface exifInterface = new ExifInterface(path);
-            orientation = exifInterface.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
-        } catch (Exception exception) {
-            Log.e(LOG_TAG, "resizeBitmapFromPath" + path + " maxWidth=" + maxWidth + " maxHeight=" + maxHeight + " exception=" + exception);
-        } catch (OutOfMemoryError exception) {
-            return null;
+            final BitmapDecoder.Result result = BitmapDecoder.decodeFile(path,
+                    (int width, int height) -> getResizeTargetSize(width, height, maxWidth, maxHeight), null);
+            if (result != null) {
+                resizeBitmap.setResizeScale(getResizeScale(result.sourceWidth, result.sourceHeight, maxWidth, maxHeight));
+                resizeBitmap.setBitmap(result.bitmap);
+            }
+        } catch (Exception | OutOfMemoryError exception) {
+            Log.e(LOG_TAG, "resizeBitmapFromPath " + path + " maxWidth=" + maxWidth + " maxHeight=" + maxHeight + " exception=" + exception);
         }
 
-        switch (orientation) {
-            case ExifInterface.ORIENTATION_TRANSPOSE:
-            case ExifInterface.ORIENTATION_ROTATE_90:
-            case ExifInterface.ORIENTATION_TRANSVERSE:
-            case ExifInterface.ORIENTATION_ROTATE_270:
-                int max = maxWidth;
-                //noinspection SuspiciousNameCombination
-                maxWidth = maxHeight;
-                maxHeight = max;
-                break;
-
-            default:
-        }
+        return resizeBitmap;
+    }
 
-        BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
-        try {
-            BitmapFactory.decodeFile(path, options);
-        } catch (OutOfMemoryError exception) {
-            return null;
-        }
+    /**
+     * Get the scale factor to resize the image so that its largest dimension fits in the max width or height.
+     */
+    private static float getResizeScale(int width, int height, int maxWidth, int maxHeight) {
 
-        int inSampleSize = 1;
-        float resizeScale;
-        if (options.outWidth > options.outHeight) {
-            resizeScale = maxWidth / (float) options.outWidth;
+        if (width > height) {
+            return maxWidth / (float) width;
         } else {
-            resizeScale = maxHeight / (float) options.outHeight;
+            return maxHeight / (float) height;
         }
+    }
 
-        resizeBitmap.setResizeScale(resizeScale);
-
-        if (maxWidth > 0 && maxHeight > 0) {
-            while (options.outWidth / inSampleSize > maxWidth || options.outHeight / inSampleSize > maxHeight) {
-                inSampleSize++;
-            }
-
-            // Get the image that is a little bit bigger than expected and we will do a createScaledBitmap()
-            // to get a better final resolution.
-            if (inSampleSize > 1) {
-                inSampleSize--;
-            }
-        }
+    /**
+     * Get the size of the resized image or null when the image is small enough.
+     */
+    @Nullable
+    private static int[] getResizeTargetSize(int width, int height, int maxWidth, int maxHeight) {
 
-        Matrix matrix = null;
-        switch (orientation) {
-            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
-                matrix = new Matrix();
-                matrix.setScale(-1, 1);
-                break;
-            case ExifInterface.ORIENTATION_ROTATE_180:
-                matrix = new Matrix();
-                matrix.setRotate(180);
-                break;
-            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
-                matrix = new Matrix();
-                matrix.setRotate(180);
-                matrix.postScale(-1, 1);
-                break;
-            case ExifInterface.ORIENTATION_TRANSPOSE:
-                matrix = new Matrix();
-                matrix.setRotate(90);
-                matrix.postScale(-1, 1);
-                break;
-            case ExifInterface.ORIENTATION_ROTATE_90:
-                matrix = new Matrix();
-                matrix.setRotate(90);
-                break;
-            case ExifInterface.ORIENTATION_TRANSVERSE:
-                matrix = new Matrix();
-                matrix.setRotate(-90);
-                matrix.postScale(-1, 1);
-                break;
-            case ExifInterface.ORIENTATION_ROTATE_270:
-                matrix = new Matrix();
-                matrix.setRotate(-90);
-                break;
-            default:
+        if (maxWidth <= 0 || maxHeight <= 0) {
+            return null;
         }
 
-        Bitmap bitmap;
-        try {
-            options.inSampleSize = inSampleSize;
-            options.inJustDecodeBounds = false;
-
-            bitmap = BitmapFactory.decodeFile(path, options);
-            if (bitmap != null) {
-                // The inSampleSize is computed so that the image is a little bit bigger.  Since this is a power of 2
-                // reduction, we get the final image by scaling it to the maxWidth x maxHeight and we must compute
-                // the new scale factor for that reduction.
-                if (matrix != null) {
-                    if (resizeScale >= 1.0) {
-                        Bitmap lBitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
-                        bitmap.recycle();
-                        resizeBitmap.setBitmap(lBitmap);
-                    } else {
-                        if (bitmap.getWidth() > bitmap.getHeight()) {
-                            resizeScale = maxWidth / (float) bitmap.getWidth();
-                        } else {
-                            resizeScale = maxHeight / (float) bitmap.getHeight();
-                        }
-
-                        // First scale to the final dimension then rotate (doing both didn't worked).
-                        Bitmap lBitmap = Bitmap.createScaledBitmap(bitmap, (int) (bitmap.getWidth() * resizeScale), (int) (bitmap.getHeight() * resizeScale), true);
-                        bitmap.recycle();
-                        bitmap = Bitmap.createBitmap(lBitmap, 0, 0, lBitmap.getWidth(), lBitmap.getHeight(), matrix, true);
-                        lBitmap.recycle();
-                        resizeBitmap.setBitmap(bitmap);
-                    }
-                } else {
-                    if (resizeScale >= 1.0) {
-                        resizeBitmap.setBitmap(bitmap);
-                    } else {
-                        if (bitmap.getWidth() > bitmap.getHeight()) {
-                            resizeScale = maxWidth / (float) bitmap.getWidth();
-                        } else {
-                            resizeScale = maxHeight / (float) bitmap.getHeight();
-                        }
-
-                        Bitmap lBitmap = Bitmap.createScaledBitmap(bitmap, (int) (bitmap.getWidth() * resizeScale), (int) (bitmap.getHeight() * resizeScale), true);
-                        bitmap.recycle();
-                        resizeBitmap.setBitmap(lBitmap);
-                    }
-                }
-            }
-        } catch (Exception | OutOfMemoryError exception) {
-            Log.e(LOG_TAG, "resizeBitmapFromPath " + path + " maxWidth=" + maxWidth + " maxHeight=" + maxHeight + " exception=" + exception);
+        final float resizeScale = getResizeScale(width, height, maxWidth, maxHeight);
+        if (resizeScale >= 1.0) {
+            return null;
         }
-
-        return resizeBitmap;
+        return new int[] { Math.max(1, (int) (width * resizeScale)), Math.max(1, (int) (height * resizeScale)) };
     }
 
     public static ResizeBitmap resizeBitmap(@NonNull Context context, @NonNull FileInfo fileInfo, int maxWidth, int maxHeight) {
@@ -602,37 +371,17 @@ public class CommonUtils {
             Log.d(LOG_TAG, "resizeBitmap: " + context + " mediaInfo=" + fileInfo + " maxWidth=" + maxWidth + " maxHeight=" + maxHeight);
         }
 
-        ResizeBitmap resizeBitmap = new ResizeBitmap();
-        Bitmap bitmap;
-
-        try {
-            bitmap = MediaStore.Images.Media.getBitmap(context.getContentResolver(), fileInfo.getUri());
-
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inJustDecodeBounds = true;
-
-            float resizeScale;
-            if (bitmap.getWidth() > bitmap.getHeight()) {
-                resizeScale = maxWidth / (float) bitmap.getWidth();
-            } else {
-                resizeScale = maxHeight / (float) bitmap.getHeight();
-            }
-
-            resizeBitmap.setResizeScale(resizeScale);
-
-            int orientation = getOrientation(context, fileInfo.getUri());
-            int rotation = getRotationDegrees(orientation);
-            if (rotation != 0) {
-                bitmap = rotateBitmap(bitmap, rotation);
-            }
-            bitmap = Bitmap.createScaledBitmap(bitmap, (int) (bitmap.getWidth() * resizeScale), (int) (bitmap.getHeight() * resizeScale), true);
-
-            resizeBitmap.setBitmap(bitmap);
-            return resizeBitmap;
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error occurred while resizing bitmap", e);
+        // Decode a subsampled image: the memory used depends on the target size and not on the source image.
+        final BitmapDecoder.Result result = BitmapDecoder.decodeUri(context.getContentResolver(), fileInfo.getUri(),
+                (int width, int height) -> getResizeTargetSize(width, height, maxWidth, maxHeight), null);
+        if (result == null) {
             return null;
         }
+
+        final ResizeBitmap resizeBitmap = new ResizeBitmap();
+        resizeBitmap.setResizeScale(getResizeScale(result.sourceWidth, result.sourceHeight, maxWidth, maxHeight));
+        resizeBitmap.setBitmap(result.bitmap);
+        return resizeBitmap;
     }
 
     @Nullable
@@ -836,55 +585,6 @@ public class CommonUtils {
         return TextUtilsCompat.getLayoutDirectionFromLocale(Locale.getDefault()) == View.LAYOUT_DIRECTION_RTL;
     }
 
-    private static Bitmap rotateBitmap(Bitmap bitmap, int orientation) {
-
-        Matrix matrix = new Matrix();
-        matrix.setRotate(orientation);
-
-        return Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
-    }
-
-    private static int getOrientation(Context context, Uri contentUri) {
-
-        int orientation = ExifInterface.ORIENTATION_NORMAL;
-
-        try (InputStream inputStream = context.getContentResolver().openInputStream(contentUri)) {
-            if (inputStream != null) {
-                ExifInterface exifInterface = new ExifInterface(inputStream);
-                orientation = exifInterface.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
-            }
-        } catch (Exception exception) {
-            if (Logger.ERROR) {
-                Logger.error(LOG_TAG, "extracting orientation failed", exception);
-            }
-        }
-
-        return orientation;
-    }
-
-    private static int getRotationDegrees(int orientation) {
-
-        int rotation = 0;
-
-        switch (orientation) {
-            case ExifInterface.ORIENTATION_ROTATE_180:
-            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
-                rotation = 180;
-                break;
-            case ExifInterface.ORIENTATION_TRANSPOSE:
-            case ExifInterface.ORIENTATION_ROTATE_90:
-                rotation = 90;
-                break;
-            case ExifInterface.ORIENTATION_TRANSVERSE:
-            case ExifInterface.ORIENTATION_ROTATE_270:
-                rotation = -90;
-                break;
-            default:
-        }
-
-        return rotation;
-    }
-
     public static String formatTimeInterval(Context context, long timestamp) {
 
         Date date = new Date(timestamp);
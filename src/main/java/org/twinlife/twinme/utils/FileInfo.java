@@ -301,6 +301,25 @@ public class FileInfo implements Parcelable  {
     @Nullable
     public FileInfo saveMedia(@NonNull Context context, int sendImageSize) {
 
+        return saveMedia(context, sendImageSize, TwinmeApplication.SendVideoSize.ORIGINAL.ordinal(), null);
+    }
+
+    /**
+     * Save the media in a temporary file: an image is resized according to the send image size and a video
+     * is transcoded according to the send video size.  The method blocks and must be called from a worker thread.
+     *
+     * @param context the context.
+     * @param sendImageSize the send image size setting.
+     * @param sendVideoSize the send video size setting.
+     * @param progressListener the optional listener of the video transcoding progress, it is called with
+     *                         VideoTranscoder.PROGRESS_FAILED when the original video is sent because the
+     *                         transcoding failed.
+     * @return the media saved in a temporary file or null.
+     */
+    @Nullable
+    public FileInfo saveMedia(@NonNull Context context, int sendImageSize, int sendVideoSize,
+                              @Nullable VideoTranscoder.ProgressListener progressListener) {
+
         File file = null;
         try {
             if (isImage() && sendImageSize != TwinmeApplication.SendImageSize.ORIGINAL.ordinal()) {
@@ -340,8 +359,28 @@ public class FileInfo implements Parcelable  {
                 }
             }
 
+            Uri source = getUri();
+            if (isVideo() && sendVideoSize == TwinmeApplication.SendVideoSize.LOWER.ordinal()) {
+                try {
+                    File transcoded = VideoTranscoder.transcode(context, source, VideoTranscoder.LOWER_VIDEO_SHORT_SIDE,
+                            VideoTranscoder.LOWER_VIDEO_BITRATE, progressListener);
+                    if (transcoded != null) {
+                        // Copy the transcoded video because it is kept in the transcoding cache.
+                        source = Uri.fromFile(transcoded);
+                    }
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                } catch (Exception exception) {
+                    Log.e(LOG_TAG, "Cannot transcode " + this + ", the original video is sent: " + exception);
+                    if (progressListener != null) {
+                        progressListener.onProgress(VideoTranscoder.PROGRESS_FAILED);
+                    }
+                }
+            }
+
             file = File.createTempFile("media", isImage() ? ".jpg" : ".mp4", context.getCacheDir());
-            BaseService.ErrorCode errorCode = CommonUtils.copyUriToFile(context.getContentResolver(), getUri(), file);
+            BaseService.ErrorCode errorCode = CommonUtils.copyUriToFile(context.getContentResolver(), source, file);
             if (errorCode == BaseService.ErrorCode.SUCCESS) {
                 return new FileInfo(this, file);
             }
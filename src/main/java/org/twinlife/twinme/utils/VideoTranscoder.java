@@ -0,0 +1,379 @@
+/*
+ *  Copyright (c) 2025 twinlife SA.
+ *  SPDX-License-Identifier: AGPL-3.0-only
+ *
+ *  Contributors:
+ *   Stephane Carrez (Stephane.Carrez@twin.life)
+ */
+
+package org.twinlife.twinme.utils;
+
+import android.content.Context;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.OptIn;
+import androidx.annotation.WorkerThread;
+import androidx.media3.common.Effect;
+import androidx.media3.common.MediaItem;
+import androidx.media3.common.MimeTypes;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.effect.Presentation;
+import androidx.media3.transformer.Composition;
+import androidx.media3.transformer.DefaultEncoderFactory;
+import androidx.media3.transformer.EditedMediaItem;
+import androidx.media3.transformer.Effects;
+import androidx.media3.transformer.ExportException;
+import androidx.media3.transformer.ExportResult;
+import androidx.media3.transformer.ProgressHolder;
+import androidx.media3.transformer.Transformer;
+import androidx.media3.transformer.VideoEncoderSettings;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Reduce the resolution and the bitrate of a video before it is sent.
+ *
+ * The video is transcoded in H.264 by the media3 Transformer with the default encoder factory which selects
+ * the hardware encoders first.  The Transformer runs on the main looper while the caller waits for the end
+ * of the export from a worker thread: the export is cancelled when the worker thread is interrupted.
+ * The transcoded videos are kept in a cache directory bounded by MAX_CACHE_SIZE and identified by the
+ * source URI and the target settings so that sending or forwarding the same video again does not
+ * transcode it again.  Only one video is transcoded at a time because the devices have few hardware
+ * encoder instances and the media preparation runs several saveMedia() in parallel.
+ */
+@OptIn(markerClass = UnstableApi.class)
+public final class VideoTranscoder {
+    private static final String LOG_TAG = "VideoTranscoder";
+    private static final boolean DEBUG = false;
+
+    // Target for the SendVideoSize.LOWER setting: 720p and a bitrate suitable for H.264 at that resolution.
+    public static final int LOWER_VIDEO_SHORT_SIDE = 720;
+    public static final int LOWER_VIDEO_BITRATE = 2500000;
+
+    // Don't transcode a video whose bitrate is close to the target bitrate.
+    private static final float BITRATE_TOLERANCE = 1.25f;
+
+    private static final int PROGRESS_PERIOD = 500;
+    private static final String CACHE_DIRECTORY = "transcoded";
+    private static final long MAX_CACHE_SIZE = 200 * 1024 * 1024;
+
+    // Progress reported when the transcoding failed and the original video is sent.
+    public static final int PROGRESS_FAILED = -1;
+
+    // Serialize the exports so that they don't compete for the hardware encoders.
+    private static final Semaphore sExportLock = new Semaphore(1);
+
+    /**
+     * Listener called with the progress of the transcoding in percent or PROGRESS_FAILED.
+     */
+    public interface ProgressListener {
+
+        void onProgress(int progress);
+    }
+
+    /**
+     * Export of one video: the Transformer listener and the progress polling.
+     */
+    private static final class Export implements Transformer.Listener, Runnable {
+        @NonNull
+        private final Handler mHandler;
+        @NonNull
+        private final Transformer mTransformer;
+        @Nullable
+        private final ProgressListener mProgressListener;
+        @NonNull
+        private final ProgressHolder mProgressHolder = new ProgressHolder();
+        @NonNull
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        @Nullable
+        private volatile ExportException mError;
+
+        Export(@NonNull Context context, @NonNull Handler handler, int bitrate, @Nullable ProgressListener progressListener) {
+
+            mHandler = handler;
+            mProgressListener = progressListener;
+
+            final VideoEncoderSettings encoderSettings = new VideoEncoderSettings.Builder()
+                    .setBitrate(bitrate)
+                    .build();
+            mTransformer = new Transformer.Builder(context)
+                    .setLooper(handler.getLooper())
+                    .setVideoMimeType(MimeTypes.VIDEO_H264)
+                    .setEncoderFactory(new DefaultEncoderFactory.Builder(context)
+                            .setRequestedVideoEncoderSettings(encoderSettings)
+                            .setEnableFallback(true)
+                            .build())
+                    .addListener(this)
+                    .build();
+        }
+
+        void start(@NonNull EditedMediaItem item, @NonNull File output) {
+
+            // Transformer MUST be called on its looper thread.
+            mHandler.post(() -> {
+                mTransformer.start(item, output.getPath());
+                mHandler.postDelayed(this, PROGRESS_PERIOD);
+            });
+        }
+
+        void await() throws InterruptedException, ExportException {
+
+            try {
+                mDone.await();
+            } catch (InterruptedException exception) {
+                mHandler.removeCallbacks(this);
+                mHandler.post(mTransformer::cancel);
+                throw exception;
+            }
+
+            final ExportException error = mError;
+            if (error != null) {
+                throw error;
+            }
+        }
+
+        @Override
+        public void run() {
+
+            if (mDone.getCount() == 0) {
+                return;
+            }
+
+            if (mProgressListener != null
+                    && mTransformer.getProgress(mProgressHolder) == Transformer.PROGRESS_STATE_AVAILABLE) {
+                mProgressListener.onProgress(mProgressHolder.progress);
+            }
+            mHandler.postDelayed(this, PROGRESS_PERIOD);
+        }
+
+        @Override
+        public void onCompleted(@NonNull Composition composition, @NonNull ExportResult exportResult) {
+            if (DEBUG) {
+                Log.d(LOG_TAG, "onCompleted: exportResult=" + exportResult);
+            }
+
+            mHandler.removeCallbacks(this);
+            if (mProgressListener != null) {
+                mProgressListener.onProgress(100);
+            }
+            mDone.countDown();
+        }
+
+        @Override
+        public void onError(@NonNull Composition composition, @NonNull ExportResult exportResult,
+                            @NonNull ExportException exportException) {
+            if (DEBUG) {
+                Log.d(LOG_TAG, "onError: exportResult=" + exportResult + " exportException=" + exportException);
+            }
+
+            mHandler.removeCallbacks(this);
+            mError = exportException;
+            mDone.countDown();
+        }
+    }
+
+    /**
+     * Transcode the video to the target resolution and bitrate.  The method blocks until the transcoded
+     * video is available and it must be called from a worker thread.
+     *
+     * @param context the context.
+     * @param source the video URI.
+     * @param shortSide the max size of the shortest side of the video.
+     * @param bitrate the target video bitrate.
+     * @param progressListener the optional progress listener.
+     * @return the transcoded video in the cache or null if the video does not need to be transcoded.
+     * @throws InterruptedException when the thread is interrupted: the transcoding is cancelled.
+     * @throws ExportException when the transcoding failed.
+     * @throws IOException when the transcoded video cannot be written in the cache.
+     */
+    @WorkerThread
+    @Nullable
+    public static File transcode(@NonNull Context context, @NonNull Uri source, int shortSide, int bitrate,
+                                 @Nullable ProgressListener progressListener)
+            throws InterruptedException, ExportException, IOException {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "transcode source=" + source + " shortSide=" + shortSide + " bitrate=" + bitrate);
+        }
+
+        int sourceShortSide = 0;
+        long sourceBitrate = 0;
+        long duration = 0;
+        final MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(context, source);
+            final int width = parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH));
+            final int height = parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT));
+            sourceShortSide = Math.min(width, height);
+            sourceBitrate = parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_BITRATE));
+            duration = parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION));
+        } catch (Exception exception) {
+            Log.e(LOG_TAG, "Cannot read video metadata of " + source + ": " + exception);
+        } finally {
+            try {
+                retriever.release();
+            } catch (Exception ignored) {
+
+            }
+        }
+
+        // Nothing to gain if the video is already small enough.
+        if (sourceShortSide > 0 && sourceShortSide <= shortSide && sourceBitrate > 0
+                && sourceBitrate <= bitrate * BITRATE_TOLERANCE) {
+            return null;
+        }
+
+        final File cacheDirectory = new File(context.getCacheDir(), CACHE_DIRECTORY);
+        if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) {
+            throw new IOException("Cannot create " + cacheDirectory);
+        }
+
+        final String key = getCacheKey(source + "|" + duration + "|" + shortSide + "|" + bitrate);
+        final File output = new File(cacheDirectory, key + ".mp4");
+        synchronized (VideoTranscoder.class) {
+            if (output.isFile() && output.length() > 0) {
+                if (DEBUG) {
+                    Log.d(LOG_TAG, "Using cached video " + output);
+                }
+                if (!output.setLastModified(System.currentTimeMillis())) {
+                    Log.w(LOG_TAG, "Cannot update " + output);
+                }
+                if (progressListener != null) {
+                    progressListener.onProgress(100);
+                }
+                return output;
+            }
+        }
+
+        // Keep the aspect ratio and the orientation: only the shortest side is reduced.
+        final int targetShortSide = sourceShortSide > 0 ? Math.min(shortSide, sourceShortSide) & ~1 : shortSide;
+        final Effects effects = new Effects(Collections.emptyList(),
+                Collections.<Effect>singletonList(Presentation.createForShortSide(targetShortSide)));
+        final EditedMediaItem item = new EditedMediaItem.Builder(MediaItem.fromUri(source))
+                .setEffects(effects)
+                .build();
+
+        // Each export writes its own file: two threads can transcode the same video at the same time
+        // and the last rename wins with a complete video.
+        final File exportFile = File.createTempFile(key, ".tmp", cacheDirectory);
+        final Export export = new Export(context, new Handler(Looper.getMainLooper()), bitrate, progressListener);
+        boolean done = false;
+        boolean locked = false;
+        try {
+            sExportLock.acquire();
+            locked = true;
+            export.start(item, exportFile);
+            export.await();
+
+            synchronized (VideoTranscoder.class) {
+                if (!exportFile.renameTo(output)) {
+                    throw new IOException("Cannot rename " + exportFile + " to " + output);
+                }
+                done = true;
+                trimCache(cacheDirectory);
+            }
+            return output;
+
+        } finally {
+            if (locked) {
+                sExportLock.release();
+            }
+            if (!done && exportFile.exists() && !exportFile.delete()) {
+                Log.w(LOG_TAG, "Cannot remove " + exportFile);
+            }
+        }
+    }
+
+    /**
+     * Remove the transcoded videos from the cache.
+     *
+     * @param context the context.
+     */
+    public static void clearCache(@NonNull Context context) {
+        if (DEBUG) {
+            Log.d(LOG_TAG, "clearCache");
+        }
+
+        final File[] files = new File(context.getCacheDir(), CACHE_DIRECTORY).listFiles();
+        if (files == null) {
+            return;
+        }
+
+        synchronized (VideoTranscoder.class) {
+            for (File file : files) {
+                if (file.getName().endsWith(".mp4") && !file.delete()) {
+                    Log.w(LOG_TAG, "Cannot remove " + file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove the least recently used videos until the cache size is below MAX_CACHE_SIZE.
+     */
+    private static void trimCache(@NonNull File cacheDirectory) {
+
+        final File[] files = cacheDirectory.listFiles((File dir, String name) -> name.endsWith(".mp4"));
+        if (files == null) {
+            return;
+        }
+
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= MAX_CACHE_SIZE) {
+            return;
+        }
+
+        Arrays.sort(files, (File file1, File file2) -> Long.compare(file1.lastModified(), file2.lastModified()));
+        for (int i = 0; i < files.length - 1 && size > MAX_CACHE_SIZE; i++) {
+            final long length = files[i].length();
+            if (files[i].delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    @NonNull
+    private static String getCacheKey(@NonNull String value) {
+
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            final byte[] hash = digest.digest(value.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                sb.append(String.format("%02x", hash[i]));
+            }
+            return sb.toString();
+
+        } catch (NoSuchAlgorithmException exception) {
+            return Integer.toHexString(value.hashCode());
+        }
+    }
+
+    private static int parseInt(@Nullable String value) {
+
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException exception) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ *  Copyright (c) 2025 twinlife SA.
+ *  SPDX-License-Identifier: AGPL-3.0-only
+ *
+ *  Contributors:
+ *   Stephane Carrez (Stephane.Carrez@twin.life)
+ */
+
+package android.os;
+
+/**
+ * Monotonic clock for the JVM unit tests: it replaces the android.jar stub so that the StreamingBenchmark
+ * measures the RTT and the throughput used by the streamer and the data source.
+ */
+public final class SystemClock {
+
+    private static final long START_TIME = System.nanoTime();
+
+    private SystemClock() {
+    }
+
+    public static long elapsedRealtime() {
+
+        return (System.nanoTime() - START_TIME) / 1000000L;
+    }
+
+    public static long elapsedRealtimeNanos() {
+
+        return System.nanoTime() - START_TIME;
+    }
+
+    public static long uptimeMillis() {
+
+        return elapsedRealtime();
+    }
+}
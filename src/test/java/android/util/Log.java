@@ -0,0 +1,62 @@
+/*
+ *  Copyright (c) 2025 twinlife SA.
+ *  SPDX-License-Identifier: AGPL-3.0-only
+ *
+ *  Contributors:
+ *   Stephane Carrez (Stephane.Carrez@twin.life)
+ */
+
+package android.util;
+
+/**
+ * Log for the JVM unit tests: it replaces the android.jar stub and writes the messages on the standard error.
+ */
+public final class Log {
+
+    private Log() {
+    }
+
+    public static int v(String tag, String msg) {
+
+        return println("V", tag, msg, null);
+    }
+
+    public static int d(String tag, String msg) {
+
+        return println("D", tag, msg, null);
+    }
+
+    public static int i(String tag, String msg) {
+
+        return println("I", tag, msg, null);
+    }
+
+    public static int w(String tag, String msg) {
+
+        return println("W", tag, msg, null);
+    }
+
+    public static int w(String tag, String msg, Throwable tr) {
+
+        return println("W", tag, msg, tr);
+    }
+
+    public static int e(String tag, String msg) {
+
+        return println("E", tag, msg, null);
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+
+        return println("E", tag, msg, tr);
+    }
+
+    private static int println(String level, String tag, String msg, Throwable tr) {
+
+        System.err.println(level + "/" + tag + ": " + msg);
+        if (tr != null) {
+            tr.printStackTrace();
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ *  Copyright (c) 2025 twinlife SA.
+ *  SPDX-License-Identifier: AGPL-3.0-only
+ *
+ *  Contributors:
+ *   Stephane Carrez (Stephane.Carrez@twin.life)
+ */
+
+package org.twinlife.twinme.calls;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Random;
+
+/**
+ * Check the clock offset estimated from one-way timestamps delayed by a random queueing delay.
+ */
+class ClockEstimatorTest {
+
+    // The clock offset must be estimated within 50ms.
+    private static final long MAX_ERROR = 50;
+
+    private static final long PEER_OFFSET = 3_600_000L;
+    private static final int ONE_WAY_DELAY = 40;
+    private static final int MESSAGES = 200;
+
+    @Test
+    void noSample() {
+
+        final ClockEstimator estimator = new ClockEstimator();
+        assertFalse(estimator.hasEstimate());
+
+        estimator.addSample(0, 1000, 80);
+        assertFalse(estimator.hasEstimate());
+    }
+
+    @Test
+    void constantDelay() {
+
+        final ClockEstimator estimator = new ClockEstimator();
+        for (int i = 0; i < 10; i++) {
+            final long localTime = 10_000L + i * 100L;
+            estimator.addSample(localTime - ONE_WAY_DELAY + PEER_OFFSET, localTime, 2 * ONE_WAY_DELAY);
+        }
+
+        assertTrue(estimator.hasEstimate());
+        assertEquals(PEER_OFFSET, estimator.getOffset());
+        assertEquals(2 * ONE_WAY_DELAY, estimator.getRoundTripTime());
+        assertEquals(5000L, estimator.toLocalTime(5000L + PEER_OFFSET));
+    }
+
+    @ParameterizedTest(name = "Random queueing delay up to {0}ms")
+    @ValueSource(ints = { 100, 500, 2000 })
+    void randomDelay(int maxQueueDelay) {
+
+        final Random random = new Random(maxQueueDelay);
+        final ClockEstimator estimator = new ClockEstimator();
+        long localTime = 10_000L;
+        int lastRTT = 0;
+        for (int i = 0; i < MESSAGES; i++) {
+            localTime += 20 + random.nextInt(100);
+
+            // Most messages are delayed: only a few are received after the base one-way delay.
+            final int queueDelay = random.nextInt(4) == 0 ? random.nextInt(5) : random.nextInt(maxQueueDelay);
+            final long peerTime = localTime - ONE_WAY_DELAY - queueDelay + PEER_OFFSET;
+            estimator.addSample(peerTime, localTime, lastRTT);
+
+            // The RTT given with the message is the one measured on a previous request.
+            if (random.nextInt(5) == 0) {
+                lastRTT = 2 * ONE_WAY_DELAY + (random.nextInt(4) == 0 ? random.nextInt(10) : random.nextInt(maxQueueDelay));
+            }
+            if (i >= ClockEstimator.MAX_SAMPLES) {
+                final long error = Math.abs(estimator.getOffset() - PEER_OFFSET);
+                assertTrue(error < MAX_ERROR, "Offset error " + error + "ms after " + (i + 1) + " messages");
+            }
+        }
+    }
+}
@@ -0,0 +1,535 @@
+/*
+ *  Copyright (c) 2025 twinlife SA.
+ *  SPDX-License-Identifier: AGPL-3.0-only
+ *
+ *  Contributors:
+ *   Stephane Carrez (Stephane.Carrez@twin.life)
+ */
+
+package org.twinlife.twinme.calls.streaming;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import android.net.Uri;
+
+import androidx.media3.common.C;
+import androidx.media3.datasource.DataSpec;
+
+import org.junit.jupiter.api.TestReporter;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.twinlife.twinlife.PeerConnectionService.StatType;
+import org.twinlife.twinlife.SerializerException;
+import org.twinlife.twinlife.SerializerFactory;
+import org.twinlife.twinlife.util.BinaryCompactDecoder;
+import org.twinlife.twinlife.util.BinaryCompactEncoder;
+import org.twinlife.twinlife.util.BinaryPacketIQ;
+import org.twinlife.twinlife.util.BinaryPacketIQ.BinaryPacketIQSerializer;
+import org.twinlife.twinme.calls.ClockEstimator;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * JVM benchmark of the streaming data path: a StreamerImpl serves the content to one StreamDataSource per
+ * peer through loopback connections.  Every StreamingRequestIQ and StreamingDataIQ goes through its serializer
+ * and is delivered in order on a thread for each direction, as done by the data channel.  Each player reads
+ * the content like the ExoPlayer does with StreamDataSource.read(), so that the request pipelining and the
+ * blocks pushed by the streamer (streaming protocol version 3) are measured.  The players request blocks of
+ * a fixed length and the content they read is compared with the streamed content.
+ *
+ * The SystemClock and Log used by the streamer and the data source are provided by the test sources
+ * (see android.os.SystemClock and android.util.Log in src/test).
+ *
+ * The benchmark is not run by default, run it with:
+ * <pre>
+ * STREAMING_BENCHMARK=1 ./gradlew testTwinmeFreeDebugUnitTest --tests '*StreamingBenchmark*' -i
+ * </pre>
+ */
+@EnabledIfEnvironmentVariable(named = "STREAMING_BENCHMARK", matches = "1")
+class StreamingBenchmark {
+
+    private static final int CONTENT_SIZE = 16 * 1024 * 1024;
+    private static final int READ_SIZE = 64 * 1024; // ExoPlayer read size.
+    private static final int IO_THREADS = 2;
+    private static final int WARMUP_ROUNDS = 2;
+    private static final int ROUNDS = 3;
+    private static final Duration ROUND_TIMEOUT = Duration.ofSeconds(60);
+
+    // The streaming IQs don't look up other serializers.
+    private static final SerializerFactory SERIALIZER_FACTORY = null;
+
+    private static final byte[] sContent = createContent();
+    private static final AtomicLong sRequestId = new AtomicLong();
+
+    static Stream<Arguments> configurations() {
+
+        return Stream.of(
+                Arguments.of(2, StreamBuffer.BUFFER_SIZE, 1),
+                Arguments.of(2, StreamBuffer.BUFFER_SIZE, 4),
+                Arguments.of(2, StreamBuffer.MAX_BLOCK_SIZE, 1),
+                Arguments.of(2, StreamBuffer.MAX_BLOCK_SIZE, 4),
+                Arguments.of(3, StreamBuffer.BUFFER_SIZE, 1),
+                Arguments.of(3, StreamBuffer.BUFFER_SIZE, 4),
+                Arguments.of(3, 32 * 1024, 1),
+                Arguments.of(3, 32 * 1024, 4),
+                Arguments.of(3, StreamBuffer.MAX_BLOCK_SIZE, 1),
+                Arguments.of(3, StreamBuffer.MAX_BLOCK_SIZE, 4),
+                Arguments.of(3, StreamBuffer.MAX_BLOCK_SIZE, 8)
+        );
+    }
+
+    @ParameterizedTest(name = "Stream version={0} blockSize={1} peers={2}")
+    @MethodSource("configurations")
+    void streamContent(int version, int blockSize, int peers, TestReporter reporter) {
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            assertTimeoutPreemptively(ROUND_TIMEOUT, () -> {
+                new Round(version, blockSize, peers).run();
+            });
+        }
+
+        final List<Long> latencies = new ArrayList<>();
+        long duration = 0;
+        long frames = 0;
+        long bytes = 0;
+        long blocks = 0;
+        long allocated = 0;
+        long pushed = 0;
+        long cacheMisses = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            final Round round = new Round(version, blockSize, peers);
+            final long consumed = assertTimeoutPreemptively(ROUND_TIMEOUT, round::run);
+            assertEquals((long) CONTENT_SIZE * peers, consumed);
+
+            duration += round.mDuration;
+            allocated += round.mAllocated;
+            latencies.addAll(round.mLatencies);
+            for (Peer peer : round.mPeers) {
+                assertEquals(-1, peer.mMismatchPosition, "Content read by the player differs from the streamed content");
+                blocks += peer.mToPlayer.mFrames.get();
+                frames += peer.mToPlayer.mFrames.get() + peer.mToStreamer.mFrames.get();
+                bytes += peer.mToPlayer.mBytes.get() + peer.mToStreamer.mBytes.get();
+            }
+            pushed += round.mStreamer.getMetrics().getBlocksPushed();
+            cacheMisses += round.mStreamer.getMetrics().getCacheMisses();
+        }
+
+        final long[] sorted = new long[latencies.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = latencies.get(i);
+        }
+        Arrays.sort(sorted);
+
+        final Map<String, String> result = new LinkedHashMap<>();
+        result.put("version", String.valueOf(version));
+        result.put("blockSize", String.valueOf(blockSize));
+        result.put("peers", String.valueOf(peers));
+        result.put("MB/s", String.valueOf((long) CONTENT_SIZE * ROUNDS * peers * 1000L / duration));
+        result.put("frames/round", String.valueOf(frames / ROUNDS));
+        result.put("wireBytes/round", String.valueOf(bytes / ROUNDS));
+        result.put("pushed/round", String.valueOf(pushed / ROUNDS));
+        result.put("alloc/block", allocated < 0 || blocks == 0 ? "n/a" : String.valueOf(allocated / blocks));
+        result.put("cacheMisses/round", String.valueOf(cacheMisses / ROUNDS));
+        result.put("read.p50", sorted[sorted.length / 2] / 1000 + "us");
+        result.put("read.p90", sorted[sorted.length * 9 / 10] / 1000 + "us");
+        result.put("read.p99", sorted[sorted.length * 99 / 100] / 1000 + "us");
+        result.put("read.max", sorted[sorted.length - 1] / 1000 + "us");
+        reporter.publishEntry(result);
+    }
+
+    /**
+     * Stream the whole content to each peer with a new streamer and new players.
+     */
+    private static final class Round {
+        private final StreamerImpl mStreamer;
+        private final List<Peer> mPeers;
+        private final ScheduledExecutorService mExecutor;
+        private final ExecutorService mIOExecutor;
+        private final List<Long> mLatencies;
+        private long mDuration;
+        private long mAllocated;
+
+        Round(int version, int blockSize, int peers) {
+
+            mExecutor = Executors.newSingleThreadScheduledExecutor();
+            mIOExecutor = Executors.newFixedThreadPool(IO_THREADS);
+            mStreamer = new StreamerImpl(1, new ByteArrayStreamSource(sContent), mExecutor, mIOExecutor);
+            mPeers = new ArrayList<>();
+            mLatencies = new ArrayList<>();
+            for (int i = 0; i < peers; i++) {
+                mPeers.add(new Peer(mStreamer, version, blockSize));
+            }
+        }
+
+        /**
+         * Let every player read the content and stop the streamer.
+         *
+         * @return the number of bytes consumed by the players.
+         */
+        long run() throws Exception {
+
+            final ExecutorService readers = Executors.newFixedThreadPool(mPeers.size());
+            try {
+                final long startAllocated = getAllocatedBytes();
+                final long startTime = System.nanoTime();
+                final List<Future<Long>> results = new ArrayList<>();
+                for (Peer peer : mPeers) {
+                    results.add(readers.submit(peer::read));
+                }
+                long consumed = 0;
+                for (Future<Long> result : results) {
+                    consumed += result.get();
+                }
+                mDuration = (System.nanoTime() - startTime) / 1000000L;
+
+                // Measure before the threads of the round are stopped.
+                mAllocated = startAllocated < 0 ? -1 : getAllocatedBytes() - startAllocated;
+                for (Peer peer : mPeers) {
+                    mLatencies.addAll(peer.mLatencies);
+                }
+                return consumed;
+
+            } finally {
+                readers.shutdownNow();
+                for (Peer peer : mPeers) {
+                    peer.close();
+                }
+                mStreamer.stopStreaming(false);
+                mExecutor.shutdownNow();
+                mIOExecutor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * A player with its StreamDataSource and the loopback connections with the streamer.
+     */
+    private static final class Peer implements StreamPlayer {
+        private final Link mToStreamer;
+        private final Link mToPlayer;
+        private final StreamMetrics mMetrics;
+        private final List<Long> mLatencies;
+        private StreamDataSource mDataSource;
+        private long mMismatchPosition = -1;
+
+        Peer(StreamerImpl streamer, int version, int blockSize) {
+
+            final UUID peerConnectionId = UUID.randomUUID();
+            mMetrics = new StreamMetrics();
+            mLatencies = new ArrayList<>();
+            mToPlayer = new Link(peerConnectionId, version, this::onFrame);
+            mToStreamer = new Link(peerConnectionId, version,
+                    (BinaryPacketIQSerializer serializer, BinaryPacketIQ iq) -> streamer.onStreamingRequestIQ(mToPlayer, (StreamingRequestIQ) iq));
+            streamer.addRemotePlayer(mToPlayer);
+
+            // The data source sends its first requests when it is created: the responses wait for the end of the constructor.
+            synchronized (this) {
+                mDataSource = new StreamDataSource(1, mToStreamer, null, this, mMetrics, blockSize);
+            }
+        }
+
+        long read() {
+
+            final StreamDataSource dataSource;
+            synchronized (this) {
+                dataSource = mDataSource;
+            }
+            dataSource.open(new DataSpec(Uri.EMPTY));
+
+            final byte[] buffer = new byte[READ_SIZE];
+            long consumed = 0;
+            while (true) {
+                final long start = System.nanoTime();
+                final int len = dataSource.read(buffer, 0, buffer.length);
+                if (len == C.RESULT_END_OF_INPUT) {
+                    return consumed;
+                }
+                mLatencies.add(System.nanoTime() - start);
+                if (mMismatchPosition < 0) {
+                    mMismatchPosition = compare(buffer, len, consumed);
+                }
+                consumed += len;
+            }
+        }
+
+        void close() {
+
+            synchronized (this) {
+                mDataSource.close();
+            }
+            mToStreamer.close();
+            mToPlayer.close();
+        }
+
+        private synchronized void onFrame(BinaryPacketIQSerializer serializer, BinaryPacketIQ iq) {
+
+            if (serializer == StreamingDataIQ.IQ_STREAMING_PUSH_SERIALIZER) {
+                mDataSource.onStreamingPushIQ((StreamingDataIQ) iq);
+            } else {
+                mDataSource.onStreamingDataIQ((StreamingDataIQ) iq);
+            }
+        }
+
+        //
+        // StreamPlayer methods used by the StreamDataSource.
+        //
+
+        @Override
+        public org.twinlife.twinme.utils.MediaMetaData getMediaInfo() {
+
+            return null;
+        }
+
+        @Override
+        public Streamer getStreamer() {
+
+            return null;
+        }
+
+        @Override
+        public boolean isVideo() {
+
+            return false;
+        }
+
+        @Override
+        public boolean isPause() {
+
+            return false;
+        }
+
+        @Override
+        public long getCurrentPosition(long now) {
+
+            return 0;
+        }
+
+        @Override
+        public StreamMetrics getMetrics() {
+
+            return mMetrics;
+        }
+
+        @Override
+        public void askPause() {
+
+        }
+
+        @Override
+        public void askResume() {
+
+        }
+
+        @Override
+        public void askSeek(long offset) {
+
+        }
+
+        @Override
+        public void askStop() {
+
+        }
+    }
+
+    /**
+     * Compare the bytes read by a player with the streamed content.
+     *
+     * @return the content position of the first different byte or -1.
+     */
+    private static long compare(byte[] buffer, int length, long position) {
+
+        if (position + length > sContent.length) {
+            return position;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer[i] != sContent[(int) position + i]) {
+                return position + i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the number of bytes allocated by the live threads when the JVM provides it.
+     *
+     * @return the allocated bytes or -1.
+     */
+    private static long getAllocatedBytes() {
+
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+
+        long result = 0;
+        for (long allocated : ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(bean.getAllThreadIds())) {
+            if (allocated > 0) {
+                result += allocated;
+            }
+        }
+        return result;
+    }
+
+    private interface Receiver {
+
+        void onFrame(BinaryPacketIQSerializer serializer, BinaryPacketIQ iq);
+    }
+
+    /**
+     * One direction of the loopback connection: the IQ is serialized by the sender, as done by the
+     * CallConnection, and it is deserialized and handled on the delivery thread of the receiver.
+     */
+    private static final class Link implements StreamConnection {
+        private final UUID mPeerConnectionId;
+        private final int mVersion;
+        private final ClockEstimator mClockEstimator;
+        private final Receiver mReceiver;
+        private final ExecutorService mChannel;
+        private final AtomicLong mFrames;
+        private final AtomicLong mBytes;
+
+        Link(UUID peerConnectionId, int version, Receiver receiver) {
+
+            mPeerConnectionId = peerConnectionId;
+            mVersion = version;
+            mClockEstimator = new ClockEstimator();
+            mReceiver = receiver;
+            mChannel = Executors.newSingleThreadExecutor();
+            mFrames = new AtomicLong();
+            mBytes = new AtomicLong();
+        }
+
+        @Override
+        public UUID getPeerConnectionId() {
+
+            return mPeerConnectionId;
+        }
+
+        @Override
+        public int getStreamingVersion() {
+
+            return mVersion;
+        }
+
+        @Override
+        public ClockEstimator getClockEstimator() {
+
+            return mClockEstimator;
+        }
+
+        @Override
+        public long newRequestId() {
+
+            return sRequestId.incrementAndGet();
+        }
+
+        @Override
+        public void sendIQ(BinaryPacketIQSerializer serializer, BinaryPacketIQ iq, StatType statType) {
+
+            final byte[] frame = encode(serializer, iq);
+            mFrames.incrementAndGet();
+            mBytes.addAndGet(frame.length);
+            if (!mChannel.isShutdown()) {
+                mChannel.execute(() -> mReceiver.onFrame(serializer, decode(serializer, frame)));
+            }
+        }
+
+        void close() {
+
+            mChannel.shutdownNow();
+        }
+    }
+
+    private static byte[] encode(BinaryPacketIQSerializer serializer, BinaryPacketIQ iq) {
+
+        try {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            serializer.serialize(SERIALIZER_FACTORY, new BinaryCompactEncoder(outputStream), iq);
+            return outputStream.toByteArray();
+
+        } catch (SerializerException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    private static BinaryPacketIQ decode(BinaryPacketIQSerializer serializer, byte[] frame) {
+
+        try {
+            // Skip the schema id and version: the frame is handled by the serializer that was used to send it.
+            final BinaryCompactDecoder decoder = new BinaryCompactDecoder(ByteBuffer.wrap(frame));
+            decoder.readUUID();
+            decoder.readInt();
+            return (BinaryPacketIQ) serializer.deserialize(SERIALIZER_FACTORY, decoder);
+
+        } catch (SerializerException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    /**
+     * A seekable source on the content in memory.
+     */
+    private static final class ByteArrayStreamSource extends StreamSource {
+        private final byte[] mContent;
+
+        ByteArrayStreamSource(byte[] content) {
+
+            mContent = content;
+        }
+
+        @Override
+        int read(long position, byte[] data, int length) {
+
+            if (position >= mContent.length) {
+                return -1;
+            }
+            final int size = (int) Math.min(length, mContent.length - position);
+            System.arraycopy(mContent, (int) position, data, 0, size);
+            return size;
+        }
+
+        @Override
+        boolean isSeekable() {
+
+            return true;
+        }
+
+        @Override
+        long getLength() {
+
+            return mContent.length;
+        }
+
+        @Override
+        public void close() {
+
+        }
+    }
+
+    private static byte[] createContent() {
+
+        final byte[] content = new byte[CONTENT_SIZE];
+        new Random(42).nextBytes(content);
+        return content;
+    }
+}